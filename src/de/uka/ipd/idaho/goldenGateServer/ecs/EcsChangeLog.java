@@ -0,0 +1,256 @@
+/*
+ * Copyright (c) 2006-2008, IPD Boehm, Universitaet Karlsruhe (TH)
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of the Universitaet Karlsruhe (TH) nor the
+ *       names of its contributors may be used to endorse or promote products
+ *       derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY UNIVERSITAET KARLSRUHE (TH) AND CONTRIBUTORS 
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO,
+ * THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE REGENTS OR CONTRIBUTORS BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package de.uka.ipd.idaho.goldenGateServer.ecs;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedList;
+
+import de.uka.ipd.idaho.goldenGateServer.ecs.GoldenGateEcsConstants.EcsEvent;
+
+/**
+ * Persistent log of the changes made to an ECS, assigning the changes their
+ * sequence numbers. The log is a text file with one change per line, in the
+ * form produced by EcsEvent.toChangeLine(), and new changes are appended to
+ * its end. Once the file grows beyond a given size, it is renamed to
+ * '.&lt;timestamp&gt;.old' and a new file is started, so rotated logs are
+ * subject to the same retention as old versions of other files. The most
+ * recent changes are also kept in memory, so clients asking for recent
+ * changes do not have to go to disk. On startup, the sequence number
+ * continues from the last change in the log, or from the last change in the
+ * most recent rotated log if the current one is empty.
+ * 
+ * @author sautter
+ */
+class EcsChangeLog {
+	private static final String OLD_FILE_SUFFIX = ".old";
+	
+	private final File logFile;
+	private final String sourceClassName;
+	private final int memoryEntries;
+	private final long maxFileSize;
+	private final boolean forceWrites;
+	
+	private final LinkedList recentChanges = new LinkedList();
+	private long sequenceNumber = 0;
+	
+	private FileOutputStream logOut = null;
+	private long logSize = 0;
+	private boolean closed = false;
+	
+	/** Constructor
+	 * @param logFile the file to write the log to
+	 * @param sourceClassName the class name to use as the source of the
+	 *            events created by the log
+	 * @param memoryEntries the number of recent changes to keep in memory
+	 * @param maxFileSize the size (in bytes) beyond which to rotate the log
+	 *            file
+	 * @param forceWrites force every change to disk before returning?
+	 */
+	EcsChangeLog(File logFile, String sourceClassName, int memoryEntries, long maxFileSize, boolean forceWrites) {
+		this.logFile = logFile;
+		this.sourceClassName = sourceClassName;
+		this.memoryEntries = Math.max(memoryEntries, 1);
+		this.maxFileSize = maxFileSize;
+		this.forceWrites = forceWrites;
+	}
+	
+	/**
+	 * Restore the sequence number and the recent changes from the log file.
+	 * @return the number of changes read
+	 * @throws IOException
+	 */
+	synchronized int restore() throws IOException {
+		int changes = this.readChanges(this.logFile, true);
+		if (this.sequenceNumber != 0)
+			return changes;
+		
+		//	current log empty, continue from most recent rotated one
+		File[] folderFiles = this.logFile.getAbsoluteFile().getParentFile().listFiles();
+		File lastLogFile = null;
+		long lastLogTime = -1;
+		for (int f = 0; (folderFiles != null) && (f < folderFiles.length); f++) {
+			String fileName = folderFiles[f].getName();
+			if (!fileName.startsWith(this.logFile.getName() + ".") || !fileName.endsWith(OLD_FILE_SUFFIX))
+				continue;
+			try {
+				long logTime = Long.parseLong(fileName.substring((this.logFile.getName().length() + 1), (fileName.length() - OLD_FILE_SUFFIX.length())));
+				if (logTime > lastLogTime) {
+					lastLogFile = folderFiles[f];
+					lastLogTime = logTime;
+				}
+			} catch (NumberFormatException nfe) {}
+		}
+		if (lastLogFile != null)
+			this.readChanges(lastLogFile, false);
+		return changes;
+	}
+	
+	private int readChanges(File file, boolean remember) throws IOException {
+		if (!file.exists())
+			return 0;
+		int changes = 0;
+		BufferedReader br = new BufferedReader(new InputStreamReader(new FileInputStream(file), "UTF-8"));
+		for (String changeLine; (changeLine = br.readLine()) != null;) {
+			EcsEvent change = EcsEvent.parseChangeLine(changeLine, this.sourceClassName);
+			if (change == null)
+				continue; // line cut short by crash
+			changes++;
+			this.sequenceNumber = Math.max(this.sequenceNumber, change.sequenceNumber);
+			if (remember)
+				this.remember(change);
+		}
+		br.close();
+		return changes;
+	}
+	
+	private void remember(EcsEvent change) {
+		this.recentChanges.addLast(change);
+		while (this.recentChanges.size() > this.memoryEntries)
+			this.recentChanges.removeFirst();
+	}
+	
+	/**
+	 * Record a change, assigning it the next sequence number.
+	 * @param type the type of the change, as defined in EcsEvent
+	 * @param name the name of the configuration, group, data item, or user
+	 *            affected by the change
+	 * @return the event representing the change
+	 * @throws IOException
+	 */
+	synchronized EcsEvent logChange(int type, String name) throws IOException {
+		EcsEvent change = new EcsEvent(name, (this.sequenceNumber + 1), type, this.sourceClassName, System.currentTimeMillis(), null);
+		
+		//	rotate log file if it has grown too large
+		if ((this.logOut != null) && (this.logSize > this.maxFileSize)) {
+			this.logOut.close();
+			this.logOut = null;
+			this.logFile.renameTo(new File(this.logFile.getAbsolutePath() + "." + System.currentTimeMillis() + OLD_FILE_SUFFIX));
+		}
+		
+		//	open log file on first change
+		if (this.logOut == null) {
+			if (this.logFile.getParentFile() != null)
+				this.logFile.getParentFile().mkdirs();
+			this.logOut = new FileOutputStream(this.logFile, true);
+			this.logSize = this.logFile.length();
+		}
+		
+		//	append change (sequence number only counts once it is in the log)
+		byte[] changeBytes = (change.toChangeLine() + "\n").getBytes("UTF-8");
+		this.logOut.write(changeBytes);
+		this.logOut.flush();
+		if (this.forceWrites)
+			this.logOut.getChannel().force(false);
+		this.logSize += changeBytes.length;
+		this.sequenceNumber = change.sequenceNumber;
+		
+		this.remember(change);
+		this.notifyAll(); // wake up clients waiting for changes
+		return change;
+	}
+	
+	/**
+	 * Retrieve the sequence number of the most recent change.
+	 * @return the current sequence number
+	 */
+	synchronized long getSequenceNumber() {
+		return this.sequenceNumber;
+	}
+	
+	/**
+	 * Retrieve the changes after a given sequence number, in the order they
+	 * happened. If the changes kept in memory do not reach back to the
+	 * argument sequence number, or if the argument sequence number is beyond
+	 * the current one (e.g. after the log was lost), this method returns
+	 * null, and the client has to start over from a full snapshot.
+	 * @param sequenceNumber the sequence number of the last change the client
+	 *            knows about
+	 * @return an array holding the changes after the argument sequence number
+	 */
+	synchronized EcsEvent[] getChangesSince(long sequenceNumber) {
+		if (sequenceNumber > this.sequenceNumber)
+			return null;
+		if (sequenceNumber == this.sequenceNumber)
+			return new EcsEvent[0];
+		if (this.recentChanges.isEmpty() || ((((EcsEvent) this.recentChanges.getFirst()).sequenceNumber - 1) > sequenceNumber))
+			return null;
+		ArrayList changes = new ArrayList();
+		for (Iterator cit = this.recentChanges.iterator(); cit.hasNext();) {
+			EcsEvent change = ((EcsEvent) cit.next());
+			if (change.sequenceNumber > sequenceNumber)
+				changes.add(change);
+		}
+		return ((EcsEvent[]) changes.toArray(new EcsEvent[changes.size()]));
+	}
+	
+	/**
+	 * Retrieve the changes after a given sequence number, waiting for a
+	 * change to happen if there are none yet. This method returns an empty
+	 * array if no change happens before the timeout expires, or if the log is
+	 * closed in the meantime. Otherwise, it behaves like getChangesSince().
+	 * @param sequenceNumber the sequence number of the last change the client
+	 *            knows about
+	 * @param timeout the maximum time to wait for a change (in milliseconds)
+	 * @return an array holding the changes after the argument sequence number
+	 */
+	synchronized EcsEvent[] waitForChanges(long sequenceNumber, long timeout) {
+		long waitEnd = (System.currentTimeMillis() + timeout);
+		while (!this.closed && (sequenceNumber == this.sequenceNumber)) {
+			long wait = (waitEnd - System.currentTimeMillis());
+			if (wait <= 0)
+				break;
+			try {
+				this.wait(wait);
+			}
+			catch (InterruptedException ie) {
+				break;
+			}
+		}
+		return this.getChangesSince(sequenceNumber);
+	}
+	
+	/**
+	 * Close the log file, and release any clients waiting for changes.
+	 */
+	synchronized void close() {
+		if (this.logOut != null) try {
+			this.logOut.close();
+		} catch (IOException ioe) {}
+		this.logOut = null;
+		this.closed = true;
+		this.notifyAll();
+	}
+}
@@ -0,0 +1,371 @@
+/*
+ * Copyright (c) 2006-2008, IPD Boehm, Universitaet Karlsruhe (TH)
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of the Universitaet Karlsruhe (TH) nor the
+ *       names of its contributors may be used to endorse or promote products
+ *       derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY UNIVERSITAET KARLSRUHE (TH) AND CONTRIBUTORS 
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO,
+ * THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE REGENTS OR CONTRIBUTORS BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package de.uka.ipd.idaho.goldenGateServer.ecs;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Set;
+
+import de.uka.ipd.idaho.goldenGate.configuration.ConfigurationUtils.Configuration;
+import de.uka.ipd.idaho.goldenGate.configuration.ConfigurationUtils.DataItem;
+import de.uka.ipd.idaho.goldenGate.configuration.ConfigurationUtils.Lib;
+import de.uka.ipd.idaho.goldenGate.configuration.ConfigurationUtils.Plugin;
+import de.uka.ipd.idaho.goldenGate.configuration.ConfigurationUtils.Resource;
+
+/**
+ * Compact binary encoding of configuration descriptors, used for sidecar
+ * files next to the XML descriptors, which are a lot faster to load than the
+ * XML. The XML descriptors remain the authoritative source, and sidecars are
+ * only used if they were created from an XML descriptor of the same size and
+ * content hash, so neither timestamps nor the order of writes matter. All strings are stored in a string
+ * table up front and referenced by their index, so the many repetitions of
+ * paths and class names are encoded only once.<br>
+ * The encoding mirrors what the XML holds: resources are written as part of
+ * the plugins managing them, and only if they are contained in the
+ * configuration proper.
+ * 
+ * @author sautter
+ */
+class EcsConfigurationCodec {
+	private static final int MAGIC = 0x45435342; // 'ECSB'
+	private static final int VERSION = 2;
+	
+	/** the file name suffix for binary descriptor sidecar files */
+	static final String SIDECAR_FILE_SUFFIX = ".bin";
+	
+	/**
+	 * Write the binary encoding of a configuration to a file. The data is
+	 * written to a temporary file first, and then renamed, so the sidecar is
+	 * either complete or not present at all.
+	 * @param config the configuration to encode
+	 * @param file the file to write to
+	 * @param xmlLength the size of the XML descriptor the configuration was
+	 *            stored to (or loaded from)
+	 * @param xmlHash the content hash of the XML descriptor
+	 * @throws IOException
+	 */
+	static void writeConfiguration(Configuration config, File file, long xmlLength, String xmlHash) throws IOException {
+		File writeFile = new File(file.getAbsolutePath() + ".writing");
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(writeFile)));
+		try {
+			writeConfiguration(config, out, xmlLength, xmlHash);
+			out.flush();
+		}
+		finally {
+			out.close();
+		}
+		if (file.exists())
+			file.delete();
+		if (!writeFile.renameTo(file))
+			throw new IOException("Could not rename " + writeFile.getName() + " to " + file.getName());
+	}
+	
+	private static void writeConfiguration(Configuration config, DataOutputStream out, long xmlLength, String xmlHash) throws IOException {
+		StringTable strings = new StringTable();
+		
+		//	collect resources written with plugins
+		ArrayList resources = new ArrayList();
+		HashMap resourceIndexes = new HashMap();
+		for (Iterator pit = config.plugins.iterator(); pit.hasNext();) {
+			Plugin plugin = ((Plugin) pit.next());
+			for (Iterator rit = plugin.resources.iterator(); rit.hasNext();) {
+				Resource resource = ((Resource) rit.next());
+				if (config.resources.contains(resource) && !resourceIndexes.containsKey(resource)) {
+					resourceIndexes.put(resource, new Integer(resources.size()));
+					resources.add(resource);
+				}
+			}
+		}
+		
+		//	fill string table
+		strings.add(config.name);
+		strings.add(config.basePath);
+		strings.add(config.helpBasePath);
+		strings.add(config.settingsPath);
+		strings.add(config.iconImagePath);
+		String[] attributeNames = config.getAttributeNames();
+		for (int a = 0; a < attributeNames.length; a++) {
+			strings.add(attributeNames[a]);
+			strings.add(config.getAttribute(attributeNames[a]));
+		}
+		addDataItemStrings(config.dataItems, strings);
+		for (int r = 0; r < resources.size(); r++) {
+			Resource resource = ((Resource) resources.get(r));
+			strings.add(resource.name);
+			strings.add(resource.path);
+			strings.add(resource.managerClassName);
+			addDataItemStrings(resource.dataItems, strings);
+			strings.addAll(resource.requiredResourceNames);
+		}
+		for (Iterator pit = config.plugins.iterator(); pit.hasNext();) {
+			Plugin plugin = ((Plugin) pit.next());
+			strings.add(plugin.name);
+			strings.add(plugin.className);
+			strings.add(plugin.classPath);
+			strings.add(plugin.dataPath);
+			for (Iterator lit = plugin.libs.iterator(); lit.hasNext();)
+				strings.add(((Lib) lit.next()).path);
+			addDataItemStrings(plugin.dataItems, strings);
+			strings.addAll(plugin.requiredPluginClassNames);
+		}
+		
+		//	write header and string table
+		out.writeInt(MAGIC);
+		out.writeInt(VERSION);
+		out.writeLong(xmlLength);
+		out.writeUTF(xmlHash);
+		out.writeInt(strings.strings.size());
+		for (int s = 0; s < strings.strings.size(); s++) {
+			byte[] stringBytes = ((String) strings.strings.get(s)).getBytes("UTF-8");
+			out.writeInt(stringBytes.length);
+			out.write(stringBytes);
+		}
+		
+		//	write configuration header and attributes
+		out.writeInt(strings.indexOf(config.name));
+		out.writeInt(strings.indexOf(config.basePath));
+		out.writeLong(config.configTimestamp);
+		out.writeInt(strings.indexOf(config.helpBasePath));
+		out.writeInt(strings.indexOf(config.settingsPath));
+		out.writeInt(strings.indexOf(config.iconImagePath));
+		out.writeInt(attributeNames.length);
+		for (int a = 0; a < attributeNames.length; a++) {
+			out.writeInt(strings.indexOf(attributeNames[a]));
+			out.writeInt(strings.indexOf(config.getAttribute(attributeNames[a])));
+		}
+		writeDataItems(config.dataItems, strings, out);
+		
+		//	write resources
+		out.writeInt(resources.size());
+		for (int r = 0; r < resources.size(); r++) {
+			Resource resource = ((Resource) resources.get(r));
+			out.writeInt(strings.indexOf(resource.name));
+			out.writeInt(strings.indexOf(resource.path));
+			out.writeLong(resource.timestamp);
+			out.writeInt(strings.indexOf(resource.managerClassName));
+			writeDataItems(resource.dataItems, strings, out);
+			writeStrings(resource.requiredResourceNames, strings, out);
+		}
+		
+		//	write plugins
+		out.writeInt(config.plugins.size());
+		for (Iterator pit = config.plugins.iterator(); pit.hasNext();) {
+			Plugin plugin = ((Plugin) pit.next());
+			out.writeInt(strings.indexOf(plugin.name));
+			out.writeInt(strings.indexOf(plugin.className));
+			out.writeInt(strings.indexOf(plugin.classPath));
+			out.writeLong(plugin.timestamp);
+			out.writeInt(strings.indexOf(plugin.dataPath));
+			out.writeInt(plugin.libs.size());
+			for (Iterator lit = plugin.libs.iterator(); lit.hasNext();) {
+				Lib lib = ((Lib) lit.next());
+				out.writeInt(strings.indexOf(lib.path));
+				out.writeLong(lib.timestamp);
+			}
+			writeDataItems(plugin.dataItems, strings, out);
+			writeStrings(plugin.requiredPluginClassNames, strings, out);
+			ArrayList pluginResourceIndexes = new ArrayList();
+			for (Iterator rit = plugin.resources.iterator(); rit.hasNext();) {
+				Integer resourceIndex = ((Integer) resourceIndexes.get(rit.next()));
+				if (resourceIndex != null)
+					pluginResourceIndexes.add(resourceIndex);
+			}
+			out.writeInt(pluginResourceIndexes.size());
+			for (int r = 0; r < pluginResourceIndexes.size(); r++)
+				out.writeInt(((Integer) pluginResourceIndexes.get(r)).intValue());
+		}
+	}
+	
+	private static void addDataItemStrings(Set dataItems, StringTable strings) {
+		for (Iterator dit = dataItems.iterator(); dit.hasNext();) {
+			DataItem dataItem = ((DataItem) dit.next());
+			strings.add(dataItem.name);
+			strings.add(dataItem.path);
+		}
+	}
+	
+	private static void writeDataItems(Set dataItems, StringTable strings, DataOutputStream out) throws IOException {
+		out.writeInt(dataItems.size());
+		for (Iterator dit = dataItems.iterator(); dit.hasNext();) {
+			DataItem dataItem = ((DataItem) dit.next());
+			out.writeInt(strings.indexOf(dataItem.name));
+			out.writeInt(strings.indexOf(dataItem.path));
+			out.writeLong(dataItem.timestamp);
+		}
+	}
+	
+	private static void writeStrings(Set stringSet, StringTable strings, DataOutputStream out) throws IOException {
+		out.writeInt(stringSet.size());
+		for (Iterator sit = stringSet.iterator(); sit.hasNext();)
+			out.writeInt(strings.indexOf((String) sit.next()));
+	}
+	
+	private static class StringTable {
+		final ArrayList strings = new ArrayList();
+		private final HashMap indexes = new HashMap();
+		void add(String string) {
+			if ((string != null) && !this.indexes.containsKey(string)) {
+				this.indexes.put(string, new Integer(this.strings.size()));
+				this.strings.add(string);
+			}
+		}
+		void addAll(Set strings) {
+			for (Iterator sit = strings.iterator(); sit.hasNext();)
+				this.add((String) sit.next());
+		}
+		int indexOf(String string) {
+			return ((string == null) ? -1 : ((Integer) this.indexes.get(string)).intValue());
+		}
+	}
+	
+	/**
+	 * Read a configuration from a binary sidecar file. If the file was not
+	 * created from an XML descriptor of the argument size and content hash,
+	 * or was written in an unknown version of the encoding, this method
+	 * returns null, and the configuration has to be loaded from the XML.
+	 * @param file the file to read from
+	 * @param xmlLength the size of the XML descriptor
+	 * @param xmlHash the content hash of the XML descriptor
+	 * @return the configuration, or null if the sidecar is not usable
+	 * @throws IOException
+	 */
+	static Configuration readConfiguration(File file, long xmlLength, String xmlHash) throws IOException {
+		DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+		try {
+			return readConfiguration(in, xmlLength, xmlHash, file.length());
+		}
+		finally {
+			in.close();
+		}
+	}
+	
+	private static Configuration readConfiguration(DataInputStream in, long xmlLength, String xmlHash, long fileLength) throws IOException {
+		
+		//	check header
+		if ((in.readInt() != MAGIC) || (in.readInt() != VERSION) || (in.readLong() != xmlLength) || !xmlHash.equals(in.readUTF()))
+			return null;
+		
+		//	read string table
+		String[] strings = new String[readLength(in, fileLength)];
+		byte[] stringBytes = new byte[256];
+		for (int s = 0; s < strings.length; s++) {
+			int stringLength = readLength(in, fileLength);
+			if (stringBytes.length < stringLength)
+				stringBytes = new byte[stringLength];
+			in.readFully(stringBytes, 0, stringLength);
+			strings[s] = new String(stringBytes, 0, stringLength, "UTF-8");
+		}
+		
+		//	read configuration header and attributes
+		String name = readString(in, strings);
+		String basePath = readString(in, strings);
+		long timestamp = in.readLong();
+		String helpBasePath = readString(in, strings);
+		String settingsPath = readString(in, strings);
+		String iconImagePath = readString(in, strings);
+		Configuration config = new Configuration(name, basePath, timestamp, helpBasePath, settingsPath, iconImagePath);
+		for (int a = in.readInt(); a > 0; a--) {
+			String attributeName = readString(in, strings);
+			config.setAttribute(attributeName, readString(in, strings));
+		}
+		readDataItems(in, strings, config.dataItems);
+		
+		//	read resources
+		Resource[] resources = new Resource[readLength(in, fileLength)];
+		for (int r = 0; r < resources.length; r++) {
+			String resName = readString(in, strings);
+			String resPath = readString(in, strings);
+			long resTimestamp = in.readLong();
+			resources[r] = new Resource(resName, resPath, resTimestamp, readString(in, strings));
+			readDataItems(in, strings, resources[r].dataItems);
+			readStrings(in, strings, resources[r].requiredResourceNames);
+			config.addResource(resources[r]);
+		}
+		
+		//	read plugins
+		for (int p = in.readInt(); p > 0; p--) {
+			String pluginName = readString(in, strings);
+			String pluginClassName = readString(in, strings);
+			String pluginClassPath = readString(in, strings);
+			long pluginTimestamp = in.readLong();
+			Plugin plugin = new Plugin(pluginName, pluginClassName, pluginClassPath, pluginTimestamp, readString(in, strings));
+			for (int l = in.readInt(); l > 0; l--) {
+				String libPath = readString(in, strings);
+				plugin.libs.add(new Lib(libPath, in.readLong()));
+			}
+			readDataItems(in, strings, plugin.dataItems);
+			readStrings(in, strings, plugin.requiredPluginClassNames);
+			for (int r = in.readInt(); r > 0; r--)
+				plugin.resources.add(resources[in.readInt()]);
+			config.addPlugin(plugin);
+		}
+		
+		//	finally ...
+		return config;
+	}
+	
+	/*
+	 * Read the length of an array, rejecting lengths that cannot possibly be
+	 * right, so a corrupted file fails with an exception rather than with
+	 * allocating huge arrays.
+	 */
+	private static int readLength(DataInputStream in, long fileLength) throws IOException {
+		int length = in.readInt();
+		if ((length < 0) || (length > fileLength))
+			throw new IOException("Invalid length " + length);
+		return length;
+	}
+	
+	private static String readString(DataInputStream in, String[] strings) throws IOException {
+		int index = in.readInt();
+		return ((index == -1) ? null : strings[index]);
+	}
+	
+	private static void readDataItems(DataInputStream in, String[] strings, Set dataItems) throws IOException {
+		for (int d = in.readInt(); d > 0; d--) {
+			String dataItemName = readString(in, strings);
+			String dataItemPath = readString(in, strings);
+			dataItems.add(new DataItem(dataItemName, dataItemPath, in.readLong()));
+		}
+	}
+	
+	private static void readStrings(DataInputStream in, String[] strings, Set stringSet) throws IOException {
+		for (int s = in.readInt(); s > 0; s--)
+			stringSet.add(readString(in, strings));
+	}
+}
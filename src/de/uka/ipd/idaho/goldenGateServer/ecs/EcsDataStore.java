@@ -0,0 +1,488 @@
+/*
+ * Copyright (c) 2006-2008, IPD Boehm, Universitaet Karlsruhe (TH)
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of the Universitaet Karlsruhe (TH) nor the
+ *       names of its contributors may be used to endorse or promote products
+ *       derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY UNIVERSITAET KARLSRUHE (TH) AND CONTRIBUTORS 
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO,
+ * THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE REGENTS OR CONTRIBUTORS BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package de.uka.ipd.idaho.goldenGateServer.ecs;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.TreeMap;
+
+/**
+ * Content addressed storage for the data files of configurations. Each
+ * distinct file content is stored only once, as a blob named after the
+ * SHA-1 hash of its bytes, and a manifest per configuration maps the data
+ * names to the hashes. Identical files in different configurations, or in
+ * different versions of the same configuration, thus share a single blob on
+ * disk, and in the file system cache.<br>
+ * Blobs are never modified once written, and are only removed by a garbage
+ * collection if no manifest refers to them any more. Manifests are written
+ * crash safe through the file writer of the ECS, so replaced manifests are
+ * kept as '.old' files, and previous versions of configurations remain
+ * available, just as replaced data files are kept in plain file storage.
+ * Data names are the same as in plain file storage, i.e. the configuration
+ * name followed by the path of the data file in the configuration.
+ * 
+ * @author sautter
+ */
+class EcsDataStore {
+	
+	/** the name of the folder holding the blobs */
+	static final String BLOB_FOLDER_NAME = "Blobs";
+	
+	/** the name of the folder holding the manifests */
+	static final String MANIFEST_FOLDER_NAME = "Manifests";
+	
+	private static final String MANIFEST_FILE_SUFFIX = ".manifest.txt";
+	
+	/**
+	 * An entry in a manifest, or a plain data file, with the file holding the
+	 * actual data.
+	 */
+	static class DataEntry {
+		final String name;
+		final String hash;
+		final long size;
+		final long lastModified;
+		final File file;
+		DataEntry(String name, String hash, long size, long lastModified, File file) {
+			this.name = name;
+			this.hash = hash;
+			this.size = size;
+			this.lastModified = lastModified;
+			this.file = file;
+		}
+	}
+	
+	private static class Manifest {
+		final String configName;
+		final TreeMap entriesByPath = new TreeMap();
+		boolean dirty = false;
+		Manifest(String configName) {
+			this.configName = configName;
+		}
+	}
+	
+	private final File blobRoot;
+	private final File manifestRoot;
+	private final EcsFileWriter fileWriter;
+	private final HashMap manifestsByConfigName = new HashMap();
+	
+	/** Constructor
+	 * @param dataPath the folder to create the blob and manifest folders in
+	 * @param fileWriter the file writer to write manifests with
+	 */
+	EcsDataStore(File dataPath, EcsFileWriter fileWriter) {
+		this.blobRoot = new File(dataPath, BLOB_FOLDER_NAME);
+		this.blobRoot.mkdirs();
+		this.manifestRoot = new File(dataPath, MANIFEST_FOLDER_NAME);
+		this.manifestRoot.mkdirs();
+		this.fileWriter = fileWriter;
+	}
+	
+	/**
+	 * Retrieve the entry for a data file.
+	 * @param dataName the name of the data file, prefixed with the name of the
+	 *            configuration it belongs to
+	 * @return the entry for the data file with the argument name, or null, if
+	 *         there is no such data file, or if its blob is missing
+	 * @throws IOException
+	 */
+	synchronized DataEntry getDataEntry(String dataName) throws IOException {
+		String[] nameParts = splitDataName(dataName);
+		if (nameParts == null)
+			return null;
+		Manifest manifest = this.getManifest(nameParts[0]);
+		DataEntry entry = ((DataEntry) manifest.entriesByPath.get(nameParts[1]));
+		return (((entry == null) || !entry.file.exists()) ? null : entry);
+	}
+	
+	/**
+	 * Retrieve the paths of the data files stored for a configuration.
+	 * @param configName the name of the configuration
+	 * @return an array holding the paths of the data files
+	 * @throws IOException
+	 */
+	synchronized String[] getDataPaths(String configName) throws IOException {
+		Manifest manifest = this.getManifest(configName);
+		return ((String[]) manifest.entriesByPath.keySet().toArray(new String[manifest.entriesByPath.size()]));
+	}
+	
+	/**
+	 * Store a data file. The argument input stream is read until its end,
+	 * but not closed.
+	 * @param dataName the name of the data file, prefixed with the name of the
+	 *            configuration it belongs to
+	 * @param in the input stream to read the data from
+	 * @param lastModified the last modification time of the data
+	 * @return the manifest entry for the stored data file
+	 * @throws IOException
+	 */
+	DataEntry storeData(String dataName, InputStream in, long lastModified) throws IOException {
+		return this.storeData(dataName, in, lastModified, true);
+	}
+	
+	/**
+	 * Store a data file. The argument input stream is read until its end,
+	 * but not closed. If the manifest is not stored right away, it has to be
+	 * stored via storeManifests() after the last of a series of data files;
+	 * this saves writing the manifest, and keeping a replaced version of it,
+	 * for every single data file.
+	 * @param dataName the name of the data file, prefixed with the name of the
+	 *            configuration it belongs to
+	 * @param in the input stream to read the data from
+	 * @param lastModified the last modification time of the data
+	 * @param storeManifest store the manifest right away?
+	 * @return the manifest entry for the stored data file
+	 * @throws IOException
+	 */
+	DataEntry storeData(String dataName, InputStream in, long lastModified, boolean storeManifest) throws IOException {
+		String[] nameParts = splitDataName(dataName);
+		if (nameParts == null)
+			throw new IOException("Invalid data name: " + dataName);
+		
+		//	store data in temporary file, computing hash on the fly (outside synchronization, as this might take a while)
+		MessageDigest digester = getDigester();
+		File tempFile = new File(this.blobRoot, ("upload." + Thread.currentThread().getId() + "." + System.currentTimeMillis() + ".writing"));
+		FileOutputStream out = new FileOutputStream(tempFile);
+		long size = 0;
+		try {
+			byte[] buffer = new byte[65536];
+			for (int read; (read = in.read(buffer)) != -1;) {
+				out.write(buffer, 0, read);
+				digester.update(buffer, 0, read);
+				size += read;
+			}
+			out.flush();
+		}
+		catch (IOException ioe) {
+			out.close();
+			tempFile.delete();
+			throw ioe;
+		}
+		out.close();
+		String hash = toHex(digester.digest());
+		
+		//	move data to blob, or discard it if we have the blob already, and add entry to manifest
+		synchronized (this) {
+			File blobFile = this.getBlobFile(hash);
+			if (blobFile.exists())
+				tempFile.delete();
+			else {
+				blobFile.getParentFile().mkdirs();
+				if (!tempFile.renameTo(blobFile)) {
+					tempFile.delete();
+					throw new IOException("Could not store blob " + hash + " for " + dataName);
+				}
+			}
+			DataEntry entry = new DataEntry(nameParts[1], hash, size, lastModified, blobFile);
+			Manifest manifest = this.getManifest(nameParts[0]);
+			manifest.entriesByPath.put(entry.name, entry);
+			manifest.dirty = true;
+			if (storeManifest)
+				this.storeManifest(manifest);
+			return entry;
+		}
+	}
+	
+	/**
+	 * Store all manifests modified since they were last stored.
+	 * @throws IOException
+	 */
+	synchronized void storeManifests() throws IOException {
+		for (Iterator mit = this.manifestsByConfigName.values().iterator(); mit.hasNext();) {
+			Manifest manifest = ((Manifest) mit.next());
+			if (manifest.dirty)
+				this.storeManifest(manifest);
+		}
+	}
+	
+	/**
+	 * Delete a data file from the manifest of the configuration it belongs to.
+	 * The blob holding the data remains in place until a garbage collection.
+	 * @param dataName the name of the data file, prefixed with the name of the
+	 *            configuration it belongs to
+	 * @return true if the data file was deleted, false if there was no such
+	 *         data file
+	 * @throws IOException
+	 */
+	synchronized boolean deleteData(String dataName) throws IOException {
+		String[] nameParts = splitDataName(dataName);
+		if (nameParts == null)
+			return false;
+		Manifest manifest = this.getManifest(nameParts[0]);
+		if (manifest.entriesByPath.remove(nameParts[1]) == null)
+			return false;
+		this.storeManifest(manifest);
+		return true;
+	}
+	
+	/**
+	 * Import the plain data files of a configuration into the store. Files
+	 * whose path is in the configuration's manifest already are left alone,
+	 * as the manifest holds a more recent version, and so are '.old' files.
+	 * Imported files are deleted once the manifest is stored.
+	 * @param configName the name of the configuration
+	 * @param configFolder the folder holding the data files of the
+	 *            configuration
+	 * @return the number of files imported
+	 * @throws IOException
+	 */
+	int importData(String configName, File configFolder) throws IOException {
+		ArrayList files = new ArrayList();
+		listFiles(configFolder, "", files);
+		ArrayList importedFiles = new ArrayList();
+		for (int f = 0; f < files.size(); f++) {
+			String path = ((String) files.get(f));
+			File file = new File(configFolder, path);
+			if (path.endsWith(".old") || (this.getDataEntry(configName + "/" + path) != null))
+				continue;
+			FileInputStream in = new FileInputStream(file);
+			try {
+				this.storeData((configName + "/" + path), in, file.lastModified(), false);
+			}
+			finally {
+				in.close();
+			}
+			importedFiles.add(file);
+		}
+		this.storeManifests();
+		
+		//	delete imported files only after manifest is safely stored
+		for (int f = 0; f < importedFiles.size(); f++)
+			((File) importedFiles.get(f)).delete();
+		return importedFiles.size();
+	}
+	
+	private static void listFiles(File folder, String prefix, ArrayList files) {
+		File[] folderFiles = folder.listFiles();
+		if (folderFiles == null)
+			return;
+		for (int f = 0; f < folderFiles.length; f++) {
+			if (folderFiles[f].isDirectory())
+				listFiles(folderFiles[f], (prefix + folderFiles[f].getName() + "/"), files);
+			else files.add(prefix + folderFiles[f].getName());
+		}
+	}
+	
+	/**
+	 * Delete all blobs that are not referenced from any manifest, including
+	 * the replaced ones still present as '.old' files, and the ones loaded in
+	 * memory, which might hold entries not yet stored, e.g. in the middle of
+	 * an upload of several data files.
+	 * @return an array holding the number of blobs deleted and the number of
+	 *         bytes freed
+	 * @throws IOException
+	 */
+	synchronized long[] collectGarbage() throws IOException {
+		HashSet referencedHashes = new HashSet();
+		File[] manifestFiles = this.manifestRoot.listFiles();
+		for (int m = 0; m < manifestFiles.length; m++) {
+			if (manifestFiles[m].isFile() && !manifestFiles[m].getName().endsWith(".writing"))
+				readManifest(manifestFiles[m], new Manifest(null), referencedHashes);
+		}
+		for (Iterator mit = this.manifestsByConfigName.values().iterator(); mit.hasNext();) {
+			Manifest manifest = ((Manifest) mit.next());
+			for (Iterator eit = manifest.entriesByPath.values().iterator(); eit.hasNext();)
+				referencedHashes.add(((DataEntry) eit.next()).hash);
+		}
+		long[] collected = {0, 0};
+		File[] blobFolders = this.blobRoot.listFiles();
+		for (int f = 0; f < blobFolders.length; f++) {
+			if (!blobFolders[f].isDirectory())
+				continue;
+			File[] blobFiles = blobFolders[f].listFiles();
+			for (int b = 0; b < blobFiles.length; b++) {
+				if (referencedHashes.contains(blobFiles[b].getName()))
+					continue;
+				long size = blobFiles[b].length();
+				if (blobFiles[b].delete()) {
+					collected[0]++;
+					collected[1] += size;
+				}
+			}
+		}
+		return collected;
+	}
+	
+	/**
+	 * Retrieve statistics on the store.
+	 * @return an array holding the number of manifests loaded, the number of
+	 *         data files listed in them, their total size, and the number and
+	 *         total size of the distinct blobs they refer to
+	 */
+	synchronized long[] getStats() {
+		long[] stats = {this.manifestsByConfigName.size(), 0, 0, 0, 0};
+		HashSet hashes = new HashSet();
+		for (Iterator mit = this.manifestsByConfigName.values().iterator(); mit.hasNext();) {
+			Manifest manifest = ((Manifest) mit.next());
+			for (Iterator eit = manifest.entriesByPath.values().iterator(); eit.hasNext();) {
+				DataEntry entry = ((DataEntry) eit.next());
+				stats[1]++;
+				stats[2] += entry.size;
+				if (hashes.add(entry.hash)) {
+					stats[3]++;
+					stats[4] += entry.size;
+				}
+			}
+		}
+		return stats;
+	}
+	
+	private Manifest getManifest(String configName) throws IOException {
+		Manifest manifest = ((Manifest) this.manifestsByConfigName.get(configName));
+		if (manifest == null) {
+			manifest = new Manifest(configName);
+			File manifestFile = new File(this.manifestRoot, (configName + MANIFEST_FILE_SUFFIX));
+			if (manifestFile.exists())
+				this.readManifest(manifestFile, manifest, null);
+			this.manifestsByConfigName.put(configName, manifest);
+		}
+		return manifest;
+	}
+	
+	private void readManifest(File manifestFile, Manifest manifest, HashSet hashes) throws IOException {
+		BufferedReader br = new BufferedReader(new InputStreamReader(new FileInputStream(manifestFile), "UTF-8"));
+		try {
+			for (String line; (line = br.readLine()) != null;) {
+				String[] entryData = line.split("\\t");
+				if (entryData.length < 4)
+					continue;
+				if (hashes != null)
+					hashes.add(entryData[1]);
+				else try {
+					manifest.entriesByPath.put(entryData[0], new DataEntry(entryData[0], entryData[1], Long.parseLong(entryData[2]), Long.parseLong(entryData[3]), this.getBlobFile(entryData[1])));
+				} catch (NumberFormatException nfe) {}
+			}
+		}
+		finally {
+			br.close();
+		}
+	}
+	
+	private void storeManifest(Manifest manifest) throws IOException {
+		File manifestFile = new File(this.manifestRoot, (manifest.configName + MANIFEST_FILE_SUFFIX));
+		EcsFileWriter.AtomicWrite manifestWrite = this.fileWriter.begin(manifestFile);
+		try {
+			BufferedWriter bw = new BufferedWriter(new OutputStreamWriter(manifestWrite, "UTF-8"));
+			for (Iterator eit = manifest.entriesByPath.values().iterator(); eit.hasNext();) {
+				DataEntry entry = ((DataEntry) eit.next());
+				bw.write(entry.name + "\t" + entry.hash + "\t" + entry.size + "\t" + entry.lastModified);
+				bw.newLine();
+			}
+			bw.flush();
+			bw.close();
+			this.fileWriter.commit(manifestWrite);
+		}
+		catch (IOException ioe) {
+			this.fileWriter.abort(manifestWrite);
+			throw new IOException(ioe.getMessage() + " while storing manifest for " + manifest.configName);
+		}
+		manifest.dirty = false;
+	}
+	
+	private File getBlobFile(String hash) {
+		return new File(new File(this.blobRoot, hash.substring(0, 2)), hash);
+	}
+	
+	private static String[] splitDataName(String dataName) {
+		dataName = dataName.replace('\\', '/');
+		while (dataName.startsWith("./"))
+			dataName = dataName.substring("./".length());
+		int split = dataName.indexOf('/');
+		if ((split < 1) || ((split + 1) == dataName.length()))
+			return null;
+		String[] nameParts = {dataName.substring(0, split), dataName.substring(split + 1)};
+		return nameParts;
+	}
+	
+	/**
+	 * Compute the hash of the content of a file, the same way as for naming
+	 * blobs.
+	 * @param file the file to hash
+	 * @return the hash of the argument file, as a hex string
+	 * @throws IOException
+	 */
+	static String computeHash(File file) throws IOException {
+		MessageDigest digester = getDigester();
+		FileInputStream in = new FileInputStream(file);
+		try {
+			byte[] buffer = new byte[65536];
+			for (int read; (read = in.read(buffer)) != -1;)
+				digester.update(buffer, 0, read);
+		}
+		finally {
+			in.close();
+		}
+		return toHex(digester.digest());
+	}
+	
+	/**
+	 * Compute the hash of an array of bytes, the same way as for naming
+	 * blobs.
+	 * @param bytes the bytes to hash
+	 * @return the hash of the argument bytes, as a hex string
+	 * @throws IOException
+	 */
+	static String computeHash(byte[] bytes) throws IOException {
+		MessageDigest digester = getDigester();
+		digester.update(bytes);
+		return toHex(digester.digest());
+	}
+	
+	private static MessageDigest getDigester() throws IOException {
+		try {
+			return MessageDigest.getInstance(GoldenGateEcsConstants.DATA_HASH_ALGORITHM);
+		}
+		catch (NoSuchAlgorithmException nsae) {
+			throw new IOException(GoldenGateEcsConstants.DATA_HASH_ALGORITHM + " not available");
+		}
+	}
+	
+	private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+	static String toHex(byte[] bytes) {
+		StringBuffer hex = new StringBuffer(bytes.length * 2);
+		for (int b = 0; b < bytes.length; b++) {
+			hex.append(HEX_DIGITS[(bytes[b] >>> 4) & 0x0F]);
+			hex.append(HEX_DIGITS[bytes[b] & 0x0F]);
+		}
+		return hex.toString();
+	}
+}
@@ -0,0 +1,247 @@
+/*
+ * Copyright (c) 2006-2008, IPD Boehm, Universitaet Karlsruhe (TH)
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of the Universitaet Karlsruhe (TH) nor the
+ *       names of its contributors may be used to endorse or promote products
+ *       derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY UNIVERSITAET KARLSRUHE (TH) AND CONTRIBUTORS 
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO,
+ * THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE REGENTS OR CONTRIBUTORS BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package de.uka.ipd.idaho.goldenGateServer.ecs;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Set;
+
+import de.uka.ipd.idaho.goldenGate.configuration.ConfigurationUtils.Configuration;
+import de.uka.ipd.idaho.goldenGate.configuration.ConfigurationUtils.Plugin;
+import de.uka.ipd.idaho.goldenGate.configuration.ConfigurationUtils.Resource;
+
+/**
+ * Index of the dependencies between the plugins and resources of a
+ * configuration. For each plugin and resource, the index holds the transitive
+ * closure of its dependencies as a bit set, so the plugins and resources
+ * required for a projection can be computed as a union of closures instead of
+ * iterating to a fixed point. Plugins and resources are identified by the IDs
+ * assigned to their names by the argument name indexes, so the bit sets can be
+ * combined directly with the ones representing group memberships.<br>
+ * The index does not modify the configuration it is built for, as plugins and
+ * resources may be shared with other configurations. It keeps the links from
+ * resources to their manager plugins on its own instead.
+ * 
+ * @author sautter
+ */
+class EcsDependencyIndex {
+	
+	private Plugin[] plugins;
+	private BitSet pluginIDs = new BitSet();
+	private BitSet[] pluginClosures;
+	
+	private Resource[] resources;
+	private BitSet resourceIDs = new BitSet();
+	private BitSet[] resourceClosures;
+	private int[] resourceManagerIDs;
+	
+	/**
+	 * Constructor building the index for a configuration.
+	 * @param config the configuration to index
+	 * @param pluginNameIndex the index providing the IDs of plugin names
+	 * @param resourceNameIndex the index providing the IDs of resource names
+	 */
+	EcsDependencyIndex(Configuration config, EcsNameIndex pluginNameIndex, EcsNameIndex resourceNameIndex) {
+		
+		//	get plugin IDs
+		HashMap pluginIDsByClassName = new HashMap();
+		for (Iterator pit = config.plugins.iterator(); pit.hasNext();) {
+			Plugin plugin = ((Plugin) pit.next());
+			int pluginId = pluginNameIndex.getId(plugin.name);
+			this.pluginIDs.set(pluginId);
+			pluginIDsByClassName.put(plugin.className, new Integer(pluginId));
+		}
+		this.plugins = new Plugin[this.pluginIDs.length()];
+		for (Iterator pit = config.plugins.iterator(); pit.hasNext();) {
+			Plugin plugin = ((Plugin) pit.next());
+			this.plugins[pluginNameIndex.getId(plugin.name)] = plugin;
+		}
+		
+		//	get resource IDs
+		HashMap resourceIDsByName = new HashMap();
+		for (Iterator rit = config.resources.iterator(); rit.hasNext();) {
+			Resource resource = ((Resource) rit.next());
+			int resourceId = resourceNameIndex.getId(resource.name);
+			this.resourceIDs.set(resourceId);
+			resourceIDsByName.put(resource.name, new Integer(resourceId));
+		}
+		this.resources = new Resource[this.resourceIDs.length()];
+		for (Iterator rit = config.resources.iterator(); rit.hasNext();) {
+			Resource resource = ((Resource) rit.next());
+			this.resources[resourceNameIndex.getId(resource.name)] = resource;
+		}
+		
+		//	resolve direct plugin dependencies
+		int[][] pluginDependencies = new int[this.plugins.length][];
+		for (int p = 0; p < this.plugins.length; p++) {
+			if (this.plugins[p] != null)
+				pluginDependencies[p] = getIDs(this.plugins[p].requiredPluginClassNames, pluginIDsByClassName);
+		}
+		
+		//	resolve direct resource dependencies and resource managers
+		int[][] resourceDependencies = new int[this.resources.length][];
+		this.resourceManagerIDs = new int[this.resources.length];
+		for (int r = 0; r < this.resources.length; r++) {
+			if (this.resources[r] == null)
+				continue;
+			resourceDependencies[r] = getIDs(this.resources[r].requiredResourceNames, resourceIDsByName);
+			Integer managerId = ((Integer) pluginIDsByClassName.get(this.resources[r].managerClassName));
+			this.resourceManagerIDs[r] = ((managerId == null) ? -1 : managerId.intValue());
+		}
+		
+		//	compute transitive closures
+		this.pluginClosures = computeClosures(pluginDependencies);
+		this.resourceClosures = computeClosures(resourceDependencies);
+	}
+	
+	private static int[] getIDs(Set names, HashMap idsByName) {
+		ArrayList idList = new ArrayList(names.size());
+		for (Iterator nit = names.iterator(); nit.hasNext();) {
+			Integer id = ((Integer) idsByName.get(nit.next()));
+			if (id != null)
+				idList.add(id);
+		}
+		int[] ids = new int[idList.size()];
+		for (int i = 0; i < ids.length; i++)
+			ids[i] = ((Integer) idList.get(i)).intValue();
+		return ids;
+	}
+	
+	/*
+	 * Compute the transitive closure of every node by means of a traversal of
+	 * the dependency graph, re-using the closures of nodes completed earlier
+	 * rather than traversing their dependencies again. Closures are reflexive,
+	 * and cyclic dependencies are handled gracefully, as the traversal never
+	 * visits a node twice. Null dependencies mark IDs not present in the
+	 * indexed configuration.
+	 */
+	private static BitSet[] computeClosures(int[][] dependencies) {
+		BitSet[] closures = new BitSet[dependencies.length];
+		int[] stack = new int[dependencies.length];
+		for (int n = 0; n < dependencies.length; n++) {
+			if (dependencies[n] == null)
+				continue;
+			BitSet closure = new BitSet(dependencies.length);
+			closure.set(n);
+			int stackSize = 0;
+			stack[stackSize++] = n;
+			while (stackSize != 0) {
+				int node = stack[--stackSize];
+				for (int d = 0; d < dependencies[node].length; d++) {
+					int dependency = dependencies[node][d];
+					if (closure.get(dependency))
+						continue;
+					if (closures[dependency] == null) {
+						closure.set(dependency);
+						stack[stackSize++] = dependency;
+					}
+					else closure.or(closures[dependency]);
+				}
+			}
+			closures[n] = closure;
+		}
+		return closures;
+	}
+	
+	/**
+	 * @return a bit set marking the IDs of all plugins in the indexed
+	 *         configuration (a copy, safe to modify)
+	 */
+	BitSet getPluginIDs() {
+		return ((BitSet) this.pluginIDs.clone());
+	}
+	
+	/**
+	 * @return a bit set marking the IDs of all resources in the indexed
+	 *         configuration (a copy, safe to modify)
+	 */
+	BitSet getResourceIDs() {
+		return ((BitSet) this.resourceIDs.clone());
+	}
+	
+	/**
+	 * Compute the resources to include in a projection, i.e., the argument
+	 * resources, plus all the resources they depend upon. IDs of resources
+	 * not contained in the indexed configuration are ignored.
+	 * @param resourceIDs the IDs of the resources to start with
+	 * @return a bit set marking the IDs of the required resources
+	 */
+	BitSet getResourceClosure(BitSet resourceIDs) {
+		BitSet resourceClosure = new BitSet(this.resources.length);
+		for (int r = resourceIDs.nextSetBit(0); (r != -1) && (r < this.resources.length); r = resourceIDs.nextSetBit(r + 1)) {
+			if (this.resourceClosures[r] != null)
+				resourceClosure.or(this.resourceClosures[r]);
+		}
+		return resourceClosure;
+	}
+	
+	/**
+	 * Compute the plugins to include in a projection, i.e., the argument
+	 * plugins, the managers of the argument resources, plus all the plugins
+	 * they depend upon. IDs of plugins not contained in the indexed
+	 * configuration are ignored.
+	 * @param pluginIDs the IDs of the plugins to start with
+	 * @param resourceIDs the IDs of the resources whose managers to include
+	 * @return a bit set marking the IDs of the required plugins
+	 */
+	BitSet getPluginClosure(BitSet pluginIDs, BitSet resourceIDs) {
+		BitSet pluginClosure = new BitSet(this.plugins.length);
+		for (int p = pluginIDs.nextSetBit(0); (p != -1) && (p < this.plugins.length); p = pluginIDs.nextSetBit(p + 1)) {
+			if (this.pluginClosures[p] != null)
+				pluginClosure.or(this.pluginClosures[p]);
+		}
+		for (int r = resourceIDs.nextSetBit(0); (r != -1) && (r < this.resources.length); r = resourceIDs.nextSetBit(r + 1)) {
+			if ((this.resources[r] != null) && (this.resourceManagerIDs[r] != -1))
+				pluginClosure.or(this.pluginClosures[this.resourceManagerIDs[r]]);
+		}
+		return pluginClosure;
+	}
+	
+	/**
+	 * Retrieve a plugin by its ID.
+	 * @param pluginId the ID of the plugin
+	 * @return the plugin with the argument ID, or null if the plugin is not
+	 *         contained in the indexed configuration
+	 */
+	Plugin getPlugin(int pluginId) {
+		return ((pluginId < this.plugins.length) ? this.plugins[pluginId] : null);
+	}
+	
+	/**
+	 * Retrieve a resource by its ID.
+	 * @param resourceId the ID of the resource
+	 * @return the resource with the argument ID, or null if the resource is
+	 *         not contained in the indexed configuration
+	 */
+	Resource getResource(int resourceId) {
+		return ((resourceId < this.resources.length) ? this.resources[resourceId] : null);
+	}
+}
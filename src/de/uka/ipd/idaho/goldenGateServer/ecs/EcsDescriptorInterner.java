@@ -0,0 +1,252 @@
+/*
+ * Copyright (c) 2006-2008, IPD Boehm, Universitaet Karlsruhe (TH)
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of the Universitaet Karlsruhe (TH) nor the
+ *       names of its contributors may be used to endorse or promote products
+ *       derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY UNIVERSITAET KARLSRUHE (TH) AND CONTRIBUTORS 
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO,
+ * THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE REGENTS OR CONTRIBUTORS BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package de.uka.ipd.idaho.goldenGateServer.ecs;
+
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.TreeSet;
+import java.util.WeakHashMap;
+
+import de.uka.ipd.idaho.goldenGate.configuration.ConfigurationUtils.Configuration;
+import de.uka.ipd.idaho.goldenGate.configuration.ConfigurationUtils.DataItem;
+import de.uka.ipd.idaho.goldenGate.configuration.ConfigurationUtils.Lib;
+import de.uka.ipd.idaho.goldenGate.configuration.ConfigurationUtils.Plugin;
+import de.uka.ipd.idaho.goldenGate.configuration.ConfigurationUtils.Resource;
+
+/**
+ * Interning layer for the components of configuration descriptors. Plugins,
+ * resources, libs, and data items with identical definitions, as well as the
+ * strings they consist of, are stored only once and shared between all the
+ * configurations that contain them. Components are identified by a signature
+ * covering all their properties, e.g. path and timestamp for data items, and
+ * held weakly, so components no longer used in any configuration can be
+ * garbage collected.<br>
+ * Interned components must not be modified, as other configurations might
+ * share them.
+ * 
+ * @author sautter
+ */
+class EcsDescriptorInterner {
+	private WeakHashMap strings = new WeakHashMap();
+	private WeakPool dataItems = new WeakPool();
+	private WeakPool libs = new WeakPool();
+	private WeakPool resources = new WeakPool();
+	private WeakPool plugins = new WeakPool();
+	
+	private long lookups = 0;
+	private long hits = 0;
+	
+	/**
+	 * Create a copy of a configuration whose plugins, resources, libs, and
+	 * data items are shared with other configurations interned before.
+	 * @param config the configuration to intern
+	 * @return the interned configuration
+	 */
+	synchronized Configuration intern(Configuration config) {
+		Configuration iConfig = new Configuration(this.internString(config.name), config);
+		for (Iterator dit = config.dataItems.iterator(); dit.hasNext();)
+			iConfig.addDataItem(this.internDataItem((DataItem) dit.next()));
+		
+		//	intern resources first, so plugins refer to interned ones
+		HashMap iResourcesByName = new HashMap();
+		for (Iterator rit = config.resources.iterator(); rit.hasNext();) {
+			Resource iResource = this.internResource((Resource) rit.next());
+			iConfig.addResource(iResource);
+			iResourcesByName.put(iResource.name, iResource);
+		}
+		
+		//	intern plugins
+		for (Iterator pit = config.plugins.iterator(); pit.hasNext();)
+			iConfig.addPlugin(this.internPlugin(((Plugin) pit.next()), iResourcesByName));
+		
+		return iConfig;
+	}
+	
+	private String internString(String string) {
+		if (string == null)
+			return null;
+		this.lookups++;
+		WeakReference iStringRef = ((WeakReference) this.strings.get(string));
+		String iString = ((iStringRef == null) ? null : ((String) iStringRef.get()));
+		if (iString == null) {
+			iString = string;
+			this.strings.put(iString, new WeakReference(iString));
+		}
+		else this.hits++;
+		return iString;
+	}
+	
+	private DataItem internDataItem(DataItem dataItem) {
+		String signature = (dataItem.name + "\t" + dataItem.path + "\t" + dataItem.timestamp);
+		DataItem iDataItem = ((DataItem) this.dataItems.get(signature));
+		if (iDataItem == null)
+			iDataItem = ((DataItem) this.dataItems.intern(signature, new DataItem(this.internString(dataItem.name), this.internString(dataItem.path), dataItem.timestamp)));
+		return iDataItem;
+	}
+	
+	private Lib internLib(Lib lib) {
+		String signature = (lib.path + "\t" + lib.timestamp);
+		Lib iLib = ((Lib) this.libs.get(signature));
+		if (iLib == null)
+			iLib = ((Lib) this.libs.intern(signature, new Lib(this.internString(lib.path), lib.timestamp)));
+		return iLib;
+	}
+	
+	private Resource internResource(Resource resource) {
+		String signature = getSignature(resource);
+		Resource iResource = ((Resource) this.resources.get(signature));
+		if (iResource == null) {
+			Resource nResource = new Resource(this.internString(resource.name), this.internString(resource.path), resource.timestamp, this.internString(resource.managerClassName));
+			for (Iterator dit = resource.dataItems.iterator(); dit.hasNext();)
+				nResource.dataItems.add(this.internDataItem((DataItem) dit.next()));
+			for (Iterator rit = resource.requiredResourceNames.iterator(); rit.hasNext();)
+				nResource.requiredResourceNames.add(this.internString((String) rit.next()));
+			iResource = ((Resource) this.resources.intern(signature, nResource));
+		}
+		return iResource;
+	}
+	
+	private static String getSignature(Resource resource) {
+		StringBuffer signature = new StringBuffer();
+		signature.append(resource.name + "\t" + resource.path + "\t" + resource.timestamp + "\t" + resource.managerClassName);
+		appendSignature(signature, "D", resource.dataItems);
+		appendSignature(signature, "R", resource.requiredResourceNames);
+		return signature.toString();
+	}
+	
+	private Plugin internPlugin(Plugin plugin, HashMap iResourcesByName) {
+		StringBuffer signature = new StringBuffer();
+		signature.append(plugin.name + "\t" + plugin.className + "\t" + plugin.classPath + "\t" + plugin.timestamp + "\t" + plugin.dataPath);
+		appendSignature(signature, "L", plugin.libs);
+		appendSignature(signature, "D", plugin.dataItems);
+		appendSignature(signature, "P", plugin.requiredPluginClassNames);
+		
+		//	plugin resources need to be the interned ones from the configuration
+		TreeSet iResources = new TreeSet();
+		for (Iterator rit = plugin.resources.iterator(); rit.hasNext();) {
+			Resource resource = ((Resource) rit.next());
+			Resource iResource = ((Resource) iResourcesByName.get(resource.name));
+			iResources.add((iResource == null) ? this.internResource(resource) : iResource);
+		}
+		for (Iterator rit = iResources.iterator(); rit.hasNext();)
+			signature.append("\n" + getSignature((Resource) rit.next()));
+		
+		Plugin iPlugin = ((Plugin) this.plugins.get(signature.toString()));
+		if (iPlugin == null) {
+			Plugin nPlugin = new Plugin(this.internString(plugin.name), this.internString(plugin.className), this.internString(plugin.classPath), plugin.timestamp, this.internString(plugin.dataPath));
+			for (Iterator lit = plugin.libs.iterator(); lit.hasNext();)
+				nPlugin.libs.add(this.internLib((Lib) lit.next()));
+			for (Iterator dit = plugin.dataItems.iterator(); dit.hasNext();)
+				nPlugin.dataItems.add(this.internDataItem((DataItem) dit.next()));
+			for (Iterator rit = plugin.requiredPluginClassNames.iterator(); rit.hasNext();)
+				nPlugin.requiredPluginClassNames.add(this.internString((String) rit.next()));
+			nPlugin.resources.addAll(iResources);
+			iPlugin = ((Plugin) this.plugins.intern(signature.toString(), nPlugin));
+		}
+		return iPlugin;
+	}
+	
+	private static void appendSignature(StringBuffer signature, String type, TreeSet components) {
+		for (Iterator cit = components.iterator(); cit.hasNext();) {
+			Object component = cit.next();
+			signature.append("\t" + type);
+			if (component instanceof DataItem) {
+				DataItem dataItem = ((DataItem) component);
+				signature.append(dataItem.name + "|" + dataItem.path + "|" + dataItem.timestamp);
+			}
+			else if (component instanceof Lib) {
+				Lib lib = ((Lib) component);
+				signature.append(lib.path + "|" + lib.timestamp);
+			}
+			else signature.append(component.toString());
+		}
+	}
+	
+	/**
+	 * Retrieve statistics on the interned components. The returned array
+	 * holds the numbers of interned strings, data items, libs, resources, and
+	 * plugins still alive, followed by the number of lookups and the number
+	 * of lookups that found an existing component.
+	 * @return an array holding the statistics
+	 */
+	synchronized long[] getStats() {
+		long[] stats = {
+			this.strings.size(),
+			this.dataItems.size(),
+			this.libs.size(),
+			this.resources.size(),
+			this.plugins.size(),
+			this.lookups,
+			this.hits
+		};
+		return stats;
+	}
+	
+	/*
+	 * Pool holding objects by signature via weak references, removing the
+	 * entries of objects that have been garbage collected.
+	 */
+	private class WeakPool {
+		private HashMap objectsBySignature = new HashMap();
+		private ReferenceQueue collected = new ReferenceQueue();
+		Object get(String signature) {
+			this.expunge();
+			lookups++;
+			WeakReference objectRef = ((WeakReference) this.objectsBySignature.get(signature));
+			Object object = ((objectRef == null) ? null : objectRef.get());
+			if (object != null)
+				hits++;
+			return object;
+		}
+		Object intern(String signature, Object object) {
+			this.objectsBySignature.put(signature, new SignatureReference(signature, object, this.collected));
+			return object;
+		}
+		int size() {
+			this.expunge();
+			return this.objectsBySignature.size();
+		}
+		private void expunge() {
+			for (SignatureReference sr; (sr = ((SignatureReference) this.collected.poll())) != null;) {
+				if (this.objectsBySignature.get(sr.signature) == sr)
+					this.objectsBySignature.remove(sr.signature);
+			}
+		}
+	}
+	
+	private static class SignatureReference extends WeakReference {
+		final String signature;
+		SignatureReference(String signature, Object object, ReferenceQueue queue) {
+			super(object, queue);
+			this.signature = signature;
+		}
+	}
+}
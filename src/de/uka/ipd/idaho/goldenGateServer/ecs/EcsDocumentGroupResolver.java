@@ -0,0 +1,618 @@
+/*
+ * Copyright (c) 2006-2008, IPD Boehm, Universitaet Karlsruhe (TH)
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of the Universitaet Karlsruhe (TH) nor the
+ *       names of its contributors may be used to endorse or promote products
+ *       derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY UNIVERSITAET KARLSRUHE (TH) AND CONTRIBUTORS 
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO,
+ * THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE REGENTS OR CONTRIBUTORS BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package de.uka.ipd.idaho.goldenGateServer.ecs;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import de.uka.ipd.idaho.goldenGateServer.ecs.GoldenGateEcsConstants.DocumentResourceFilterer;
+
+/**
+ * Resolver for the resource groups required for editing individual
+ * documents, asking all registered DocumentResourceFilterers concurrently
+ * and waiting for their answers only up to a deadline. If a filterer does
+ * not answer in time or fails, the result is incomplete, and the resolver
+ * falls back to either the full set of groups or the group set last resolved
+ * completely for the document in question, depending on the fallback policy.
+ * Late answers are not waited for, but still counted in the latency
+ * statistics kept for each filterer. Calls not answered in time are
+ * cancelled, interrupting the threads executing them. To keep a hung
+ * filterer from tying up ever more threads, each filterer is limited to a
+ * maximum number of calls in flight, and further documents resolve without
+ * the filterer, using the fallback, until calls return. The total number of
+ * threads is bounded as well.<br>
+ * Completely resolved group sets are cached for a limited time, in a cache
+ * bounded by the number of documents and evicting the least recently used
+ * ones first. Filterers or other components learning about changes to a
+ * document can invalidate the cached group set explicitly, and batch
+ * lookups allow for filling the cache for many documents at once. Resolved
+ * group sets are canonicalized, so documents requiring the same groups share
+ * one group set instance, with one signature.
+ * 
+ * @author sautter
+ */
+class EcsDocumentGroupResolver {
+	
+	/** fallback policy using all resource groups if filterers time out */
+	static final String FALLBACK_ALL = "all";
+	
+	/** fallback policy using the group set last resolved for a document if filterers time out, and all groups if there is none */
+	static final String FALLBACK_LAST = "last";
+	
+	private FiltererEntry[] filterers = new FiltererEntry[0];
+	
+	private long timeoutMillis = 2000;
+	private int maxCallsPerFilterer = 8;
+	private int maxThreads = 64;
+	private boolean fallbackToLast = false;
+	private int lastKnownSize = 1024;
+	private LinkedHashMap lastKnownGroups = new LinkedHashMap(16, 0.75f, true) {
+		protected boolean removeEldestEntry(Map.Entry eldest) {
+			return (this.size() > lastKnownSize);
+		}
+	};
+	
+	private int cacheSize = 4096;
+	private long cacheTtlMillis = (10 * 60 * 1000);
+	private LinkedHashMap cache = new LinkedHashMap(16, 0.75f, true) {
+		protected boolean removeEldestEntry(Map.Entry eldest) {
+			return (this.size() > cacheSize);
+		}
+	};
+	private long cacheGeneration = 0;
+	private long cacheHits = 0;
+	private long cacheMisses = 0;
+	
+	private static class CacheEntry {
+		final EcsGroupSet groups;
+		final long expires;
+		CacheEntry(EcsGroupSet groups, long expires) {
+			this.groups = groups;
+			this.expires = expires;
+		}
+	}
+	
+	/*
+	 * Canonical instances of the resolved group sets, keyed by signature, so
+	 * all documents requiring the same groups share one group set instance
+	 */
+	private LinkedHashMap canonicalGroups = new LinkedHashMap(16, 0.75f, true) {
+		protected boolean removeEldestEntry(Map.Entry eldest) {
+			return (this.size() > Math.max(cacheSize, lastKnownSize));
+		}
+	};
+	
+	private ExecutorService executor = null;
+	private boolean shutDown = false;
+	
+	private long resolveCount = 0;
+	private long fallbackCount = 0;
+	private long lastKnownFallbackCount = 0;
+	
+	private static class FiltererEntry {
+		final DocumentResourceFilterer filterer;
+		long calls = 0;
+		long timeouts = 0;
+		long skips = 0;
+		long errors = 0;
+		int callsInFlight = 0;
+		long totalNanos = 0;
+		long maxNanos = 0;
+		FiltererEntry(DocumentResourceFilterer filterer) {
+			this.filterer = filterer;
+		}
+		synchronized void recordCall(long nanos, boolean error) {
+			this.calls++;
+			if (error)
+				this.errors++;
+			this.totalNanos += nanos;
+			if (nanos > this.maxNanos)
+				this.maxNanos = nanos;
+		}
+		synchronized void recordTimeout() {
+			this.timeouts++;
+		}
+		synchronized boolean startCall(int maxCallsInFlight) {
+			if (this.callsInFlight >= maxCallsInFlight) {
+				this.skips++;
+				return false;
+			}
+			this.callsInFlight++;
+			return true;
+		}
+		synchronized void endCall() {
+			this.callsInFlight--;
+		}
+		synchronized String getStatsLine() {
+			return (this.filterer.getClass().getName() + ": " + this.calls + " calls, " + this.timeouts + " timeouts, " + this.skips + " skipped with " + this.callsInFlight + " calls in flight, " + this.errors + " errors, average " + ((this.calls == 0) ? 0 : (this.totalNanos / this.calls / 1000000)) + "ms, maximum " + (this.maxNanos / 1000000) + "ms");
+		}
+	}
+	
+	/** Constructor
+	 */
+	EcsDocumentGroupResolver() {}
+	
+	/**
+	 * Set the deadline for resolving the groups for a document. A value of 0
+	 * or less deactivates the deadline, asking the filterers one after another
+	 * in the calling thread.
+	 * @param timeoutMillis the deadline (in milliseconds)
+	 * @param fallback the fallback policy to use when a filterer does not
+	 *            answer in time
+	 */
+	synchronized void setTimeout(long timeoutMillis, String fallback) {
+		this.timeoutMillis = timeoutMillis;
+		this.fallbackToLast = FALLBACK_LAST.equals(fallback);
+	}
+	
+	/**
+	 * Set the limits on the calls to filterers running in the background.
+	 * Takes effect for the thread pool only if set before the first call.
+	 * @param maxCallsPerFilterer the maximum number of calls in flight per
+	 *            filterer
+	 * @param maxThreads the maximum number of threads asking filterers
+	 */
+	synchronized void setLimits(int maxCallsPerFilterer, int maxThreads) {
+		this.maxCallsPerFilterer = Math.max(maxCallsPerFilterer, 1);
+		this.maxThreads = Math.max(maxThreads, 1);
+	}
+	
+	/**
+	 * Set the number of documents to remember the last resolved group set for.
+	 * @param lastKnownSize the number of documents
+	 */
+	void setLastKnownSize(int lastKnownSize) {
+		synchronized (this.lastKnownGroups) {
+			this.lastKnownSize = lastKnownSize;
+		}
+	}
+	
+	/**
+	 * Set the size of the cache for resolved group sets, and the time after
+	 * which cached group sets expire. A size or time of 0 or less deactivates
+	 * the cache.
+	 * @param cacheSize the maximum number of documents to cache the group
+	 *            sets for
+	 * @param cacheTtlMillis the time to keep a cached group set (in
+	 *            milliseconds)
+	 */
+	void setCache(int cacheSize, long cacheTtlMillis) {
+		synchronized (this.cache) {
+			this.cacheSize = cacheSize;
+			this.cacheTtlMillis = cacheTtlMillis;
+			if ((this.cacheSize <= 0) || (this.cacheTtlMillis <= 0))
+				this.cache.clear();
+		}
+	}
+	
+	/**
+	 * Remove the cached group set for a document, so the next lookup asks the
+	 * filterers again.
+	 * @param documentId the ID of the document
+	 */
+	void invalidateDocument(String documentId) {
+		synchronized (this.cache) {
+			this.cacheGeneration++;
+			this.cache.remove(documentId);
+		}
+	}
+	
+	/**
+	 * Remove all cached group sets.
+	 */
+	void invalidateAll() {
+		synchronized (this.cache) {
+			this.cacheGeneration++;
+			this.cache.clear();
+		}
+	}
+	
+	/**
+	 * Add a DocumentResourceFilterer to ask for the groups of documents.
+	 * @param drf the DocumentResourceFilterer to add
+	 */
+	synchronized void addFilterer(DocumentResourceFilterer drf) {
+		FiltererEntry[] filterers = new FiltererEntry[this.filterers.length + 1];
+		System.arraycopy(this.filterers, 0, filterers, 0, this.filterers.length);
+		filterers[this.filterers.length] = new FiltererEntry(drf);
+		this.filterers = filterers;
+		this.invalidateAll();
+	}
+	
+	/**
+	 * Remove a DocumentResourceFilterer.
+	 * @param drf the DocumentResourceFilterer to remove
+	 */
+	synchronized void removeFilterer(DocumentResourceFilterer drf) {
+		ArrayList filterers = new ArrayList(Arrays.asList(this.filterers));
+		for (int f = 0; f < filterers.size(); f++)
+			if (((FiltererEntry) filterers.get(f)).filterer.equals(drf)) {
+				filterers.remove(f);
+				break;
+			}
+		this.filterers = ((FiltererEntry[]) filterers.toArray(new FiltererEntry[filterers.size()]));
+		this.invalidateAll();
+	}
+	
+	/**
+	 * Resolve the resource groups required for editing a document. If the
+	 * result is null, all resource groups are to be used, be it because none
+	 * of the filterers restricts the groups, or because of a fallback.
+	 * @param documentId the ID of the document
+	 * @return the canonical set of resource groups for the document
+	 */
+	EcsGroupSet getGroupsForDocument(String documentId) {
+		
+		//	do cache lookup
+		long cacheGeneration;
+		synchronized (this.cache) {
+			CacheEntry ce = ((CacheEntry) this.cache.get(documentId));
+			if ((ce != null) && (ce.expires < System.currentTimeMillis())) {
+				this.cache.remove(documentId);
+				ce = null;
+			}
+			if (ce != null) {
+				this.cacheHits++;
+				return ((ce.groups == NO_GROUPS) ? null : ce.groups);
+			}
+			this.cacheMisses++;
+			cacheGeneration = this.cacheGeneration;
+		}
+		
+		//	ask filterers
+		EcsGroupSet groups = this.resolveGroups(documentId);
+		if (groups == FALLBACK)
+			return this.getFallbackGroups(documentId);
+		
+		//	cache result unless invalidated while resolving
+		synchronized (this.cache) {
+			if ((cacheGeneration == this.cacheGeneration) && (this.cacheSize > 0) && (this.cacheTtlMillis > 0))
+				this.cache.put(documentId, new CacheEntry(((groups == null) ? NO_GROUPS : groups), (System.currentTimeMillis() + this.cacheTtlMillis)));
+		}
+		return groups;
+	}
+	
+	/**
+	 * Resolve the resource groups required for editing a number of documents
+	 * at once, e.g. to fill the cache ahead of the documents being opened.
+	 * Documents not found in the cache are resolved by a bounded number of
+	 * documents in parallel, each with its own deadline. The group sets in
+	 * the returned map are null for documents that use all resource groups.
+	 * @param documentIds the IDs of the documents
+	 * @param parallelism the maximum number of documents to resolve at the
+	 *            same time
+	 * @return a map holding the group sets, keyed by document ID
+	 */
+	Map getGroupsForDocuments(String[] documentIds, int parallelism) {
+		final String[] docIds = documentIds;
+		final Map docGroups = new HashMap();
+		ExecutorService executor = this.getExecutor();
+		
+		//	no background threads, resolve in current thread
+		if ((executor == null) || (parallelism < 2) || (docIds.length < 2)) {
+			for (int d = 0; d < docIds.length; d++)
+				docGroups.put(docIds[d], this.getGroupsForDocument(docIds[d]));
+			return docGroups;
+		}
+		
+		//	resolve in parallel, each worker taking next unresolved document
+		final AtomicInteger nextDocIndex = new AtomicInteger(0);
+		Future[] workers = new Future[Math.min(parallelism, docIds.length)];
+		for (int w = 0; w < workers.length; w++) try {
+			workers[w] = executor.submit(new Callable() {
+				public Object call() throws Exception {
+					for (int d; (d = nextDocIndex.getAndIncrement()) < docIds.length;) {
+						EcsGroupSet groups = getGroupsForDocument(docIds[d]);
+						synchronized (docGroups) {
+							docGroups.put(docIds[d], groups);
+						}
+					}
+					return null;
+				}
+			});
+		}
+		catch (RejectedExecutionException ree) {
+			break; // pool exhausted, remaining documents resolved below
+		}
+		for (int w = 0; w < workers.length; w++) try {
+			if (workers[w] != null)
+				workers[w].get();
+		}
+		catch (ExecutionException ee) {
+			throw new RuntimeException(ee.getCause());
+		}
+		catch (InterruptedException ie) {
+			break;
+		}
+		
+		//	documents left over after interruption or shutdown
+		for (int d = 0; d < docIds.length; d++) {
+			synchronized (docGroups) {
+				if (docGroups.containsKey(docIds[d]))
+					continue;
+			}
+			EcsGroupSet groups = this.getGroupsForDocument(docIds[d]);
+			synchronized (docGroups) {
+				docGroups.put(docIds[d], groups);
+			}
+		}
+		synchronized (docGroups) {
+			return new HashMap(docGroups);
+		}
+	}
+	
+	private synchronized ExecutorService getExecutor() {
+		if ((this.timeoutMillis > 0) && (this.executor == null) && !this.shutDown)
+			this.executor = new ThreadPoolExecutor(0, this.maxThreads, 60, TimeUnit.SECONDS, new SynchronousQueue(), new ThreadFactory() {
+				public Thread newThread(Runnable r) {
+					Thread thread = new Thread(r, "EcsDocumentResourceFilterer");
+					thread.setDaemon(true);
+					return thread;
+				}
+			});
+		return this.executor;
+	}
+	
+	private EcsGroupSet resolveGroups(String documentId) {
+		FiltererEntry[] filterers;
+		long timeoutMillis;
+		int maxCallsPerFilterer;
+		ExecutorService executor;
+		synchronized (this) {
+			filterers = this.filterers;
+			timeoutMillis = this.timeoutMillis;
+			maxCallsPerFilterer = this.maxCallsPerFilterer;
+			executor = this.getExecutor();
+			this.resolveCount++;
+		}
+		if (filterers.length == 0)
+			return null;
+		
+		Set groups = new HashSet();
+		boolean complete = true;
+		
+		//	no deadline, ask filterers in current thread
+		if ((timeoutMillis <= 0) || (executor == null)) {
+			for (int f = 0; f < filterers.length; f++) {
+				String[] docGroups = this.getGroups(filterers[f], documentId);
+				if (docGroups == null)
+					continue;
+				if (docGroups == ERROR)
+					complete = false;
+				else groups.addAll(Arrays.asList(docGroups));
+			}
+		}
+		
+		//	ask filterers concurrently, and wait for them until deadline
+		else {
+			FiltererCall[] calls = new FiltererCall[filterers.length];
+			Future[] answers = new Future[filterers.length];
+			for (int f = 0; f < filterers.length; f++) {
+				
+				//	filterer busy with too many calls already (likely hung), skip it
+				if (!filterers[f].startCall(maxCallsPerFilterer)) {
+					complete = false;
+					continue;
+				}
+				calls[f] = new FiltererCall(filterers[f], documentId);
+				try {
+					answers[f] = executor.submit(calls[f]);
+				}
+				catch (RejectedExecutionException ree) {
+					filterers[f].endCall();
+					complete = false;
+				}
+			}
+			long deadline = (System.currentTimeMillis() + timeoutMillis);
+			for (int f = 0; f < answers.length; f++) try {
+				if (answers[f] == null)
+					continue;
+				String[] docGroups = ((String[]) answers[f].get(Math.max((deadline - System.currentTimeMillis()), 0), TimeUnit.MILLISECONDS));
+				if (docGroups == null)
+					continue;
+				if (docGroups == ERROR)
+					complete = false;
+				else groups.addAll(Arrays.asList(docGroups));
+			}
+			catch (TimeoutException te) {
+				filterers[f].recordTimeout();
+				answers[f].cancel(true);
+				calls[f].cancel();
+				complete = false;
+			}
+			catch (ExecutionException ee) {
+				complete = false;
+			}
+			catch (InterruptedException ie) {
+				
+				//	give up on this and all remaining calls, and keep interrupt flag for caller
+				for (int c = f; c < answers.length; c++) {
+					if (answers[c] == null)
+						continue;
+					answers[c].cancel(true);
+					calls[c].cancel();
+				}
+				Thread.currentThread().interrupt();
+				complete = false;
+				break;
+			}
+		}
+		
+		//	remember complete result, or fall back
+		if (complete) {
+			EcsGroupSet result = (groups.isEmpty() ? null : this.getCanonicalGroups(groups));
+			synchronized (this.lastKnownGroups) {
+				this.lastKnownGroups.put(documentId, ((result == null) ? NO_GROUPS : result));
+			}
+			return result;
+		}
+		else return FALLBACK;
+	}
+	
+	private static final String[] ERROR = new String[0];
+	private static final EcsGroupSet NO_GROUPS = EcsGroupSet.forNames(new HashSet(0));
+	private static final EcsGroupSet FALLBACK = EcsGroupSet.forNames(new HashSet(0));
+	
+	private EcsGroupSet getCanonicalGroups(Set groups) {
+		EcsGroupSet groupSet = EcsGroupSet.forNames(groups);
+		synchronized (this.canonicalGroups) {
+			EcsGroupSet canonicalGroupSet = ((EcsGroupSet) this.canonicalGroups.get(groupSet.signature));
+			if (groupSet.equals(canonicalGroupSet))
+				return canonicalGroupSet;
+			this.canonicalGroups.put(groupSet.signature, groupSet);
+			return groupSet;
+		}
+	}
+	
+	/*
+	 * A call to a filterer in a background thread, ending the call for the
+	 * filterer when done, or when cancelled before starting to run (in which
+	 * case the executor never invokes it).
+	 */
+	private class FiltererCall implements Callable {
+		private final FiltererEntry filterer;
+		private final String documentId;
+		private boolean running = false;
+		private boolean cancelled = false;
+		FiltererCall(FiltererEntry filterer, String documentId) {
+			this.filterer = filterer;
+			this.documentId = documentId;
+		}
+		public Object call() throws Exception {
+			synchronized (this) {
+				if (this.cancelled)
+					return null;
+				this.running = true;
+			}
+			try {
+				return getGroups(this.filterer, this.documentId);
+			}
+			finally {
+				this.filterer.endCall();
+			}
+		}
+		synchronized void cancel() {
+			if (!this.running && !this.cancelled)
+				this.filterer.endCall();
+			this.cancelled = true;
+		}
+	}
+	
+	private String[] getGroups(FiltererEntry filterer, String documentId) {
+		long start = System.nanoTime();
+		try {
+			String[] docGroups = filterer.filterer.getGroupsForDocument(documentId);
+			filterer.recordCall((System.nanoTime() - start), false);
+			return docGroups;
+		}
+		catch (RuntimeException re) {
+			filterer.recordCall((System.nanoTime() - start), true);
+			return ERROR;
+		}
+	}
+	
+	private EcsGroupSet getFallbackGroups(String documentId) {
+		EcsGroupSet groups = null;
+		synchronized (this) {
+			this.fallbackCount++;
+			if (this.fallbackToLast)
+				synchronized (this.lastKnownGroups) {
+					groups = ((EcsGroupSet) this.lastKnownGroups.get(documentId));
+				}
+			if (groups != null)
+				this.lastKnownFallbackCount++;
+		}
+		return (((groups == null) || (groups == NO_GROUPS)) ? null : groups);
+	}
+	
+	/**
+	 * Stop the threads asking the filterers. After shutdown, filterers are
+	 * asked in the calling thread.
+	 */
+	synchronized void shutdown() {
+		this.shutDown = true;
+		if (this.executor != null)
+			this.executor.shutdownNow();
+		this.executor = null;
+	}
+	
+	/**
+	 * Produce a report on the filterers, one line per filterer, preceded by a
+	 * summary line.
+	 * @return the report lines
+	 */
+	synchronized String[] getStatsLines() {
+		String[] statsLines = new String[this.filterers.length + 1];
+		statsLines[0] = (this.filterers.length + " filterers, " + this.resolveCount + " documents resolved, " + this.fallbackCount + " fallbacks (" + this.lastKnownFallbackCount + " to last known groups), deadline " + this.timeoutMillis + "ms, fallback to " + (this.fallbackToLast ? FALLBACK_LAST : FALLBACK_ALL));
+		for (int f = 0; f < this.filterers.length; f++)
+			statsLines[f + 1] = this.filterers[f].getStatsLine();
+		return statsLines;
+	}
+	
+	/**
+	 * Retrieve the statistics of the cache of resolved group sets, namely the
+	 * number of documents cached, the number of hits, and the number of misses.
+	 * @return the cache statistics
+	 */
+	long[] getCacheStats() {
+		synchronized (this.cache) {
+			long[] stats = {this.cache.size(), this.cacheHits, this.cacheMisses};
+			return stats;
+		}
+	}
+	
+	/**
+	 * Produce a report on the cache of resolved group sets.
+	 * @return the report line
+	 */
+	String getCacheStatsLine() {
+		synchronized (this.cache) {
+			int distinctGroupSets;
+			synchronized (this.canonicalGroups) {
+				distinctGroupSets = this.canonicalGroups.size();
+			}
+			return (this.cache.size() + " of " + this.cacheSize + " documents cached for " + (this.cacheTtlMillis / 1000) + " seconds, " + this.cacheHits + " hits, " + this.cacheMisses + " misses, " + distinctGroupSets + " distinct group sets");
+		}
+	}
+}
@@ -0,0 +1,414 @@
+/*
+ * Copyright (c) 2006-2008, IPD Boehm, Universitaet Karlsruhe (TH)
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of the Universitaet Karlsruhe (TH) nor the
+ *       names of its contributors may be used to endorse or promote products
+ *       derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY UNIVERSITAET KARLSRUHE (TH) AND CONTRIBUTORS 
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO,
+ * THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE REGENTS OR CONTRIBUTORS BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package de.uka.ipd.idaho.goldenGateServer.ecs;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Crash safe replacement of descriptor and list files. New file content is
+ * written to a temporary file next to the target, which is forced to disk and
+ * then marked complete by renaming it to '.new'. Committing renames the
+ * current version to '.&lt;timestamp&gt;.old' and then renames the new version
+ * to the live file, so no file content is copied. Readers see the old or the
+ * new version, or a missing file for the short moment between the two
+ * renames, but never a truncated file. If a crash hits between the two
+ * renames, recover() completes the commit on the next startup.<br>
+ * Forcing data to disk can happen for every file individually, for batches
+ * of files written in a short time window (group commit), or not at all. In
+ * group commit mode, a background thread collects all files written within
+ * the window and forces them to disk concurrently, so a batch takes about as
+ * long as its slowest file rather than as all its files together, and writers
+ * wait until their file is on disk. Writers are expected to prepare files
+ * outside any locks, so concurrent writes actually end up in the same batch.
+ * Each file still needs a sync of its own, so group commit only pays off with
+ * many concurrent writers, and adds the window to the latency of every write
+ * otherwise.<br>
+ * Renaming files is not forced to disk, as Java cannot force a folder to
+ * disk. After a crash right after a commit, the file system may thus come back
+ * with the previous version of a file, or with the completed replacement
+ * still in its '.new' file, which recover() then puts in place. Either way,
+ * the file is complete.
+ * 
+ * @author sautter
+ */
+class EcsFileWriter {
+	
+	/** sync mode for not forcing files to disk at all */
+	static final int SYNC_NONE = 0;
+	
+	/** sync mode for forcing each file to disk individually */
+	static final int SYNC_EACH = 1;
+	
+	/** sync mode for forcing files to disk in batches */
+	static final int SYNC_GROUP = 2;
+	
+	private static final String WRITING_FILE_SUFFIX = ".writing";
+	private static final String NEW_FILE_SUFFIX = ".new";
+	
+	/**
+	 * A replacement of a file, to write the new content to. The stream is
+	 * not actually closed by close(), so it can be forced to disk afterwards.
+	 */
+	static class AtomicWrite extends FilterOutputStream {
+		final File target;
+		final File writingFile;
+		final File newFile;
+		private final FileOutputStream fileOut;
+		private boolean prepared = false;
+		AtomicWrite(File target, long id) throws IOException {
+			this(target, new File(target.getAbsolutePath() + "." + id + WRITING_FILE_SUFFIX), new File(target.getAbsolutePath() + "." + id + NEW_FILE_SUFFIX));
+		}
+		private AtomicWrite(File target, File writingFile, File newFile) throws IOException {
+			this(target, writingFile, newFile, new FileOutputStream(writingFile));
+		}
+		private AtomicWrite(File target, File writingFile, File newFile, FileOutputStream fileOut) {
+			super(fileOut);
+			this.target = target;
+			this.writingFile = writingFile;
+			this.newFile = newFile;
+			this.fileOut = fileOut;
+		}
+		public void write(byte[] b, int off, int len) throws IOException {
+			this.out.write(b, off, len);
+		}
+		public void close() throws IOException {
+			this.flush();
+		}
+	}
+	
+	private final int syncMode;
+	private final long groupCommitWindow;
+	private long writeCount = 0;
+	
+	private final ArrayList pendingSyncs = new ArrayList();
+	private Thread syncThread = null;
+	private final ExecutorService syncExecutor;
+	private long syncBatches = 0;
+	private long syncedFiles = 0;
+	
+	/** Constructor
+	 * @param syncMode the mode for forcing files to disk
+	 * @param groupCommitWindow the time (in milliseconds) to collect files
+	 *            for forcing them to disk together (in group commit mode)
+	 * @param groupCommitThreads the maximum number of threads forcing the
+	 *            files of a batch to disk concurrently (in group commit mode)
+	 */
+	EcsFileWriter(int syncMode, long groupCommitWindow, int groupCommitThreads) {
+		this.syncMode = syncMode;
+		this.groupCommitWindow = groupCommitWindow;
+		
+		//	threads for forcing batch to disk, background thread takes over if all busy
+		if ((syncMode == SYNC_GROUP) && (groupCommitThreads > 1))
+			this.syncExecutor = new ThreadPoolExecutor(0, (groupCommitThreads - 1), 60, TimeUnit.SECONDS, new SynchronousQueue(), new ThreadFactory() {
+				public Thread newThread(Runnable r) {
+					Thread thread = new Thread(r, "EcsFileSyncWorker");
+					thread.setDaemon(true);
+					return thread;
+				}
+			}, new ThreadPoolExecutor.CallerRunsPolicy());
+		else this.syncExecutor = null;
+	}
+	
+	/**
+	 * Start the replacement of a file.
+	 * @param target the file to replace
+	 * @return the replacement, to write the new content to
+	 * @throws IOException
+	 */
+	AtomicWrite begin(File target) throws IOException {
+		long id;
+		synchronized (this) {
+			id = (System.currentTimeMillis() * 1000) + (this.writeCount++ % 1000);
+		}
+		if (target.getParentFile() != null)
+			target.getParentFile().mkdirs();
+		return new AtomicWrite(target, id);
+	}
+	
+	/**
+	 * Complete writing a replacement, forcing it to disk according to the
+	 * sync mode. This method should be called outside of any locks, as it
+	 * might wait for a group commit.
+	 * @param write the replacement to prepare
+	 * @throws IOException
+	 */
+	void prepare(AtomicWrite write) throws IOException {
+		if (write.prepared)
+			return;
+		try {
+			write.flush();
+			if (this.syncMode == SYNC_EACH) {
+				write.fileOut.getFD().sync();
+				synchronized (this.pendingSyncs) {
+					this.syncBatches++;
+					this.syncedFiles++;
+				}
+			}
+			else if (this.syncMode == SYNC_GROUP)
+				this.groupSync(write);
+		}
+		finally {
+			write.fileOut.close();
+		}
+		if (!write.writingFile.renameTo(write.newFile)) {
+			write.writingFile.delete();
+			throw new IOException("Could not complete writing " + write.target.getName());
+		}
+		write.prepared = true;
+	}
+	
+	/**
+	 * Put a replacement in place, keeping a copy of the current version of
+	 * the file. The replacement is prepared if this has not happened before.
+	 * Callers that need to order concurrent replacements of the same file
+	 * should call this method inside their locks, after calling prepare()
+	 * outside.
+	 * @param write the replacement to put in place
+	 * @throws IOException
+	 */
+	void commit(AtomicWrite write) throws IOException {
+		this.prepare(write);
+		
+		//	keep current version (recover() puts new version in place if we crash before next rename), copying it only if it cannot be renamed
+		if (write.target.exists()) {
+			File oldFile = new File(write.target.getAbsolutePath() + "." + System.currentTimeMillis() + ".old");
+			if (!write.target.renameTo(oldFile))
+				copyFile(write.target, oldFile);
+		}
+		if (write.newFile.renameTo(write.target))
+			return;
+		
+		//	file system cannot rename over existing file, delete live file first (recover() picks up if we crash right here)
+		write.target.delete();
+		if (!write.newFile.renameTo(write.target))
+			throw new IOException("Could not replace " + write.target.getName());
+	}
+	
+	/**
+	 * Discard a replacement, e.g. after an error while writing it.
+	 * @param write the replacement to discard
+	 */
+	void abort(AtomicWrite write) {
+		try {
+			write.fileOut.close();
+		} catch (IOException ioe) {}
+		write.writingFile.delete();
+		write.newFile.delete();
+	}
+	
+	/**
+	 * Clean up after writes interrupted by a crash in a folder. Incomplete
+	 * replacements are deleted. Completed replacements whose live file is
+	 * missing are put in place, choosing the most recent one; others are
+	 * deleted, as they were never committed.
+	 * @param folder the folder to clean up
+	 * @return the number of files put in place
+	 */
+	static int recover(File folder) {
+		File[] files = folder.listFiles();
+		if (files == null)
+			return 0;
+		HashMap newFilesByTarget = new HashMap();
+		for (int f = 0; f < files.length; f++) {
+			String name = files[f].getName();
+			if (name.endsWith(WRITING_FILE_SUFFIX))
+				files[f].delete();
+			else if (name.endsWith(NEW_FILE_SUFFIX)) {
+				name = name.substring(0, (name.length() - NEW_FILE_SUFFIX.length()));
+				int idStart = name.lastIndexOf('.');
+				if (idStart < 1)
+					continue;
+				try {
+					Long.parseLong(name.substring(idStart + 1));
+				}
+				catch (NumberFormatException nfe) {
+					continue;
+				}
+				File target = new File(folder, name.substring(0, idStart));
+				File newFile = ((File) newFilesByTarget.get(target));
+				if ((newFile == null) || (newFile.getName().compareTo(files[f].getName()) < 0)) {
+					if (newFile != null)
+						newFile.delete();
+					newFilesByTarget.put(target, files[f]);
+				}
+				else files[f].delete();
+			}
+		}
+		int recovered = 0;
+		for (Iterator tit = newFilesByTarget.keySet().iterator(); tit.hasNext();) {
+			File target = ((File) tit.next());
+			File newFile = ((File) newFilesByTarget.get(target));
+			if (!target.exists() && newFile.renameTo(target))
+				recovered++;
+			else newFile.delete();
+		}
+		return recovered;
+	}
+	
+	/**
+	 * Retrieve statistics on forcing files to disk.
+	 * @return an array holding the number of batches and the number of files
+	 *         forced to disk
+	 */
+	long[] getSyncStats() {
+		synchronized (this.pendingSyncs) {
+			long[] stats = {this.syncBatches, this.syncedFiles};
+			return stats;
+		}
+	}
+	
+	/**
+	 * Stop the background thread for group commits. Further writes in group
+	 * commit mode start it again.
+	 */
+	void shutdown() {
+		synchronized (this.pendingSyncs) {
+			Thread syncThread = this.syncThread;
+			this.syncThread = null;
+			if (syncThread != null)
+				syncThread.interrupt();
+		}
+	}
+	
+	private static class PendingSync implements Runnable {
+		final AtomicWrite write;
+		boolean done = false;
+		IOException error = null;
+		PendingSync(AtomicWrite write) {
+			this.write = write;
+		}
+		public void run() {
+			try {
+				this.write.fileOut.getFD().sync();
+			}
+			catch (IOException ioe) {
+				this.error = ioe;
+			}
+			synchronized (this) {
+				this.done = true;
+				this.notify();
+			}
+		}
+	}
+	
+	private void groupSync(AtomicWrite write) throws IOException {
+		PendingSync pendingSync = new PendingSync(write);
+		synchronized (this.pendingSyncs) {
+			this.pendingSyncs.add(pendingSync);
+			if (this.syncThread == null) {
+				this.syncThread = new SyncThread();
+				this.syncThread.start();
+			}
+			this.pendingSyncs.notify();
+		}
+		synchronized (pendingSync) {
+			while (!pendingSync.done) try {
+				pendingSync.wait();
+			}
+			catch (InterruptedException ie) {
+				throw new IOException("Interrupted while waiting for " + write.target.getName() + " to be written");
+			}
+		}
+		if (pendingSync.error != null)
+			throw pendingSync.error;
+	}
+	
+	private class SyncThread extends Thread {
+		SyncThread() {
+			super("EcsFileSync");
+			this.setDaemon(true);
+		}
+		public void run() {
+			while (true) {
+				
+				//	wait for first write of batch
+				synchronized (pendingSyncs) {
+					while (pendingSyncs.isEmpty()) {
+						if (syncThread != this)
+							return;
+						try {
+							pendingSyncs.wait();
+						} catch (InterruptedException ie) {}
+					}
+				}
+				
+				//	give further writes a chance to join batch
+				try {
+					sleep(groupCommitWindow);
+				} catch (InterruptedException ie) {}
+				
+				//	force batch to disk
+				ArrayList batch;
+				synchronized (pendingSyncs) {
+					batch = new ArrayList(pendingSyncs);
+					pendingSyncs.clear();
+					syncBatches++;
+					syncedFiles += batch.size();
+				}
+				for (int s = 0; s < batch.size(); s++) {
+					PendingSync pendingSync = ((PendingSync) batch.get(s));
+					if ((syncExecutor == null) || ((s + 1) == batch.size()))
+						pendingSync.run();
+					else syncExecutor.execute(pendingSync);
+				}
+			}
+		}
+	}
+	
+	private static void copyFile(File source, File target) throws IOException {
+		FileInputStream in = new FileInputStream(source);
+		try {
+			FileOutputStream out = new FileOutputStream(target);
+			try {
+				byte[] buffer = new byte[65536];
+				for (int read; (read = in.read(buffer)) != -1;)
+					out.write(buffer, 0, read);
+			}
+			finally {
+				out.close();
+			}
+		}
+		finally {
+			in.close();
+		}
+		target.setLastModified(source.lastModified());
+	}
+}
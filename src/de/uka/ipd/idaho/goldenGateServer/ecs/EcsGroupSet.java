@@ -0,0 +1,128 @@
+/*
+ * Copyright (c) 2006-2008, IPD Boehm, Universitaet Karlsruhe (TH)
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of the Universitaet Karlsruhe (TH) nor the
+ *       names of its contributors may be used to endorse or promote products
+ *       derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY UNIVERSITAET KARLSRUHE (TH) AND CONTRIBUTORS 
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO,
+ * THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE REGENTS OR CONTRIBUTORS BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package de.uka.ipd.idaho.goldenGateServer.ecs;
+
+import java.io.UnsupportedEncodingException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Set;
+import java.util.TreeSet;
+
+/**
+ * Immutable set of resource group names in canonical form, i.e. sorted, and
+ * with a signature computed from the sorted names. The signature is the hash
+ * of the sorted names, so equal sets have equal signatures regardless of the
+ * order the names were collected in, and the signature stays short no matter
+ * how many groups a set holds. This makes the signature suitable for keying
+ * projected configurations, so all documents and users requiring the same
+ * groups share one projection.
+ * 
+ * @author sautter
+ */
+class EcsGroupSet {
+	
+	/** the sorted group names */
+	final String[] names;
+	
+	/** the signature of the group names */
+	final String signature;
+	
+	private final Set nameSet;
+	
+	private EcsGroupSet(TreeSet names) {
+		this.names = ((String[]) names.toArray(new String[names.size()]));
+		this.nameSet = Collections.unmodifiableSet(names);
+		this.signature = computeSignature(this.names);
+	}
+	
+	/**
+	 * Retrieve the group names as an unmodifiable set.
+	 * @return the group names
+	 */
+	Set getNameSet() {
+		return this.nameSet;
+	}
+	
+	/**
+	 * Check whether the set holds any group names.
+	 * @return true if the set is empty
+	 */
+	boolean isEmpty() {
+		return (this.names.length == 0);
+	}
+	
+	/* (non-Javadoc)
+	 * @see java.lang.Object#equals(java.lang.Object)
+	 */
+	public boolean equals(Object obj) {
+		return ((obj instanceof EcsGroupSet) && this.signature.equals(((EcsGroupSet) obj).signature) && Arrays.equals(this.names, ((EcsGroupSet) obj).names));
+	}
+	
+	/* (non-Javadoc)
+	 * @see java.lang.Object#hashCode()
+	 */
+	public int hashCode() {
+		return this.signature.hashCode();
+	}
+	
+	/* (non-Javadoc)
+	 * @see java.lang.Object#toString()
+	 */
+	public String toString() {
+		return this.nameSet.toString();
+	}
+	
+	/**
+	 * Create a canonical group set from a collection of group names.
+	 * @param names the group names
+	 * @return the canonical group set
+	 */
+	static EcsGroupSet forNames(Collection names) {
+		return new EcsGroupSet(new TreeSet(names));
+	}
+	
+	private static String computeSignature(String[] names) {
+		try {
+			MessageDigest digester = MessageDigest.getInstance(GoldenGateEcsConstants.DATA_HASH_ALGORITHM);
+			for (int n = 0; n < names.length; n++) {
+				digester.update(names[n].getBytes(GoldenGateEcsConstants.ENCODING));
+				digester.update((byte) '\t');
+			}
+			return (names.length + ":" + EcsDataStore.toHex(digester.digest()));
+		}
+		catch (NoSuchAlgorithmException nsae) {
+			throw new RuntimeException(GoldenGateEcsConstants.DATA_HASH_ALGORITHM + " not available");
+		}
+		catch (UnsupportedEncodingException uee) {
+			throw new RuntimeException(GoldenGateEcsConstants.ENCODING + " not available");
+		}
+	}
+}
@@ -0,0 +1,186 @@
+/*
+ * Copyright (c) 2006-2008, IPD Boehm, Universitaet Karlsruhe (TH)
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of the Universitaet Karlsruhe (TH) nor the
+ *       names of its contributors may be used to endorse or promote products
+ *       derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY UNIVERSITAET KARLSRUHE (TH) AND CONTRIBUTORS 
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO,
+ * THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE REGENTS OR CONTRIBUTORS BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package de.uka.ipd.idaho.goldenGateServer.ecs;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+
+/**
+ * Append-only journal of changes to a list file, so individual changes do
+ * not require rewriting the whole list. Each entry is a line of text. Client
+ * code writes a checkpoint by storing the full list and then resetting the
+ * journal. On startup, it loads the checkpoint and then replays the journal
+ * on top of it, so entries must be idempotent, like setting or removing a
+ * value. A line that was cut short by a crash is discarded on replay.<br>
+ * Resetting the journal starts a new generation, which is recorded in the
+ * first line of the journal. Client code stores the same generation with the
+ * checkpoint, so it can tell on replay whether a crash hit between writing
+ * the checkpoint and resetting the journal, and ignore the entries that are
+ * already contained in the checkpoint.
+ * 
+ * @author sautter
+ */
+class EcsJournal {
+	private static final String GENERATION_PREFIX = "#generation\t";
+	private final File file;
+	private final boolean forceWrites;
+	private FileOutputStream out = null;
+	private int entries = 0;
+	private long generation = 0;
+	
+	/** Constructor
+	 * @param file the file to write the journal to
+	 * @param forceWrites force every entry to disk before returning?
+	 */
+	EcsJournal(File file, boolean forceWrites) {
+		this.file = file;
+		this.forceWrites = forceWrites;
+	}
+	
+	/**
+	 * Read the entries in the journal, in the order they were written. An
+	 * incomplete last line is cut from the file, so later entries start on a
+	 * line of their own. The generation of the journal is available from
+	 * getGeneration() afterwards.
+	 * @return an array holding the entries
+	 * @throws IOException
+	 */
+	synchronized String[] replay() throws IOException {
+		if (!this.file.exists())
+			return new String[0];
+		
+		//	read journal
+		ByteArrayOutputStream journalBytes = new ByteArrayOutputStream();
+		FileInputStream in = new FileInputStream(this.file);
+		byte[] buffer = new byte[8192];
+		for (int read; (read = in.read(buffer)) != -1;)
+			journalBytes.write(buffer, 0, read);
+		in.close();
+		byte[] journal = journalBytes.toByteArray();
+		
+		//	split into lines, ignoring incomplete last line
+		ArrayList entries = new ArrayList();
+		int lineStart = 0;
+		for (int b = 0; b < journal.length; b++)
+			if (journal[b] == '\n') {
+				if (b > lineStart)
+					entries.add(new String(journal, lineStart, (b - lineStart), "UTF-8"));
+				lineStart = (b + 1);
+			}
+		
+		//	read generation from first line
+		if ((entries.size() != 0) && ((String) entries.get(0)).startsWith(GENERATION_PREFIX)) try {
+			this.generation = Long.parseLong(((String) entries.remove(0)).substring(GENERATION_PREFIX.length()));
+		} catch (NumberFormatException nfe) {}
+		
+		//	cut off incomplete last line
+		if (lineStart < journal.length) {
+			RandomAccessFile raf = new RandomAccessFile(this.file, "rw");
+			raf.setLength(lineStart);
+			raf.close();
+		}
+		
+		this.entries = entries.size();
+		return ((String[]) entries.toArray(new String[entries.size()]));
+	}
+	
+	/**
+	 * Append an entry to the journal.
+	 * @param entry the entry to append (must not contain line breaks)
+	 * @throws IOException
+	 */
+	synchronized void append(String entry) throws IOException {
+		if (this.out == null) {
+			if (this.file.getParentFile() != null)
+				this.file.getParentFile().mkdirs();
+			this.out = new FileOutputStream(this.file, true);
+		}
+		this.out.write((entry + "\n").getBytes("UTF-8"));
+		this.out.flush();
+		if (this.forceWrites)
+			this.out.getChannel().force(false);
+		this.entries++;
+	}
+	
+	/**
+	 * Retrieve the number of entries written since the last reset.
+	 * @return the number of entries
+	 */
+	synchronized int size() {
+		return this.entries;
+	}
+	
+	/**
+	 * Retrieve the generation of the journal, i.e., the generation of the
+	 * checkpoint the entries apply to. Journals written before generations
+	 * were recorded have generation 0.
+	 * @return the generation
+	 */
+	synchronized long getGeneration() {
+		return this.generation;
+	}
+	
+	/**
+	 * Clear the journal, after client code has written a checkpoint, and
+	 * start a new generation. The generation should be the one stored with
+	 * the checkpoint.
+	 * @param generation the generation of the checkpoint
+	 * @throws IOException
+	 */
+	synchronized void reset(long generation) throws IOException {
+		this.close();
+		FileOutputStream out = new FileOutputStream(this.file);
+		try {
+			out.write((GENERATION_PREFIX + generation + "\n").getBytes("UTF-8"));
+			out.flush();
+			if (this.forceWrites)
+				out.getChannel().force(false);
+		}
+		finally {
+			out.close();
+		}
+		this.entries = 0;
+		this.generation = generation;
+	}
+	
+	/**
+	 * Close the journal file. Appending a further entry re-opens it.
+	 */
+	synchronized void close() {
+		if (this.out != null) try {
+			this.out.close();
+		} catch (IOException ioe) {}
+		this.out = null;
+	}
+}
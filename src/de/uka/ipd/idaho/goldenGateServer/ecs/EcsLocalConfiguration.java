@@ -50,6 +50,8 @@ import de.uka.ipd.idaho.goldenGate.plugins.PluginDataProviderPrefixBased;
  */
 public class EcsLocalConfiguration extends XmlConfiguration implements GoldenGateEcsConstants {
 	private File basePath; // the base path of the actual configuration (below the root path)
+	private EcsDataStore dataStore; // content addressed storage, if any
+	private String dataNamePrefix; // the prefix of the names of data files in content addressed storage
 	
 	/**
 	 * Constructor
@@ -58,9 +60,31 @@ public class EcsLocalConfiguration extends XmlConfiguration implements GoldenGat
 	 *            configuration store
 	 */
 	public EcsLocalConfiguration(Configuration descriptor, File basePath) {
+		this(descriptor, basePath, null, null);
+	}
+	
+	/**
+	 * Constructor
+	 * @param descriptor the configuration descriptor to back this configuration
+	 * @param basePath the base path of the GoldenGATE configuration in ECS's
+	 *            configuration store
+	 * @param dataStore the content addressed storage holding the data files
+	 * @param dataNamePrefix the prefix of the names of the data files in the
+	 *            content addressed storage
+	 */
+	EcsLocalConfiguration(Configuration descriptor, File basePath, EcsDataStore dataStore, String dataNamePrefix) {
 		super(descriptor, null);
 		this.basePath = basePath;
 		this.basePath.mkdirs();
+		this.dataStore = dataStore;
+		this.dataNamePrefix = ((dataNamePrefix == null) ? null : (dataNamePrefix + "/"));
+	}
+	
+	private File getStoredDataFile(String dataName) throws IOException {
+		if (this.dataStore == null)
+			return null;
+		EcsDataStore.DataEntry dataEntry = this.dataStore.getDataEntry(this.dataNamePrefix + dataName);
+		return ((dataEntry == null) ? null : dataEntry.file);
 	}
 	
 	/* (non-Javadoc)
@@ -88,13 +112,37 @@ public class EcsLocalConfiguration extends XmlConfiguration implements GoldenGat
 	 * @see de.uka.ipd.idaho.goldenGate.configuration.XmlConfiguration#getInputStream(java.lang.String, long)
 	 */
 	protected InputStream getInputStream(String dataName, long timestamp) throws IOException {
-		return new FileInputStream(new File(this.basePath, dataName));
+		File storedDataFile = this.getStoredDataFile(dataName);
+		return new FileInputStream((storedDataFile == null) ? new File(this.basePath, dataName) : storedDataFile);
 	}
 	
 	/* (non-Javadoc)
 	 * @see de.uka.ipd.idaho.goldenGate.configuration.XmlConfiguration#doGetOutputStream(java.lang.String)
 	 */
-	protected OutputStream doGetOutputStream(String dataName) throws IOException {
+	protected OutputStream doGetOutputStream(final String dataName) throws IOException {
+		
+		//	buffer data in temporary file, and hand it to content addressed storage when done
+		if (this.dataStore != null) {
+			final File tempFile = File.createTempFile("EcsData", ".tmp");
+			return new FileOutputStream(tempFile) {
+				private boolean stored = false;
+				public void close() throws IOException {
+					super.close();
+					if (this.stored)
+						return;
+					this.stored = true;
+					FileInputStream in = new FileInputStream(tempFile);
+					try {
+						dataStore.storeData((dataNamePrefix + dataName), in, System.currentTimeMillis());
+					}
+					finally {
+						in.close();
+						tempFile.delete();
+					}
+				}
+			};
+		}
+		
 		File dataFile = new File(this.basePath, dataName);
 		if (dataFile.exists())
 			dataFile.renameTo(new File(this.basePath, (dataName + "." + System.currentTimeMillis() + ".old")));
@@ -109,6 +157,8 @@ public class EcsLocalConfiguration extends XmlConfiguration implements GoldenGat
 	 * @see de.uka.ipd.idaho.goldenGate.configuration.XmlConfiguration#doDeleteData(java.lang.String)
 	 */
 	protected boolean doDeleteData(String dataName) throws IOException {
+		if ((this.dataStore != null) && this.dataStore.deleteData(this.dataNamePrefix + dataName))
+			return true;
 		File file = new File(this.basePath, dataName);
 		return (!file.exists() || file.delete());
 	}
@@ -117,8 +167,10 @@ public class EcsLocalConfiguration extends XmlConfiguration implements GoldenGat
 	 * @see de.uka.ipd.idaho.goldenGate.configuration.XmlConfiguration#getURL(java.lang.String, long)
 	 */
 	protected URL getURL(String dataName, long timestamp) throws IOException {
-		if ((dataName.indexOf("://") == -1) && !dataName.toLowerCase().startsWith("file:/"))
-			return (new File(this.basePath, dataName)).toURI().toURL();
+		if ((dataName.indexOf("://") == -1) && !dataName.toLowerCase().startsWith("file:/")) {
+			File storedDataFile = this.getStoredDataFile(dataName);
+			return ((storedDataFile == null) ? new File(this.basePath, dataName) : storedDataFile).toURI().toURL();
+		}
 		else return new URL(dataName);
 	}
 
@@ -0,0 +1,307 @@
+/*
+ * Copyright (c) 2006-2008, IPD Boehm, Universitaet Karlsruhe (TH)
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of the Universitaet Karlsruhe (TH) nor the
+ *       names of its contributors may be used to endorse or promote products
+ *       derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY UNIVERSITAET KARLSRUHE (TH) AND CONTRIBUTORS 
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO,
+ * THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE REGENTS OR CONTRIBUTORS BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package de.uka.ipd.idaho.goldenGateServer.ecs;
+
+import java.io.FilterInputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.TreeMap;
+
+/**
+ * Metrics of an ECS, namely request counts, error counts, transferred bytes,
+ * and latency histograms for the network actions, as well as counts and
+ * latency histograms for internal operations like projecting or serializing
+ * configurations. Latencies are recorded in histograms with four buckets per
+ * power of two nanoseconds, so percentiles are accurate to within 25%
+ * without storing individual samples. Metrics can be reported in a human
+ * readable form, or as lines of names and values for scraping.
+ * 
+ * @author sautter
+ */
+class EcsMetrics {
+	
+	/** timer name for projecting configurations */
+	static final String PROJECTION_TIMER = "projection";
+	
+	/** timer name for serializing configurations */
+	static final String SERIALIZATION_TIMER = "serialization";
+	
+	/** timer name for calls to the user access authority */
+	static final String UAA_TIMER = "uaa";
+	
+	private TreeMap actionStats = new TreeMap();
+	private TreeMap timerStats = new TreeMap();
+	private long startTime = System.currentTimeMillis();
+	
+	/**
+	 * Histogram of latencies, with four logarithmic buckets per power of two.
+	 */
+	static class LatencyHistogram {
+		private static final int SUB_BUCKETS = 4;
+		private long[] counts = new long[64 * SUB_BUCKETS];
+		long count = 0;
+		long totalNanos = 0;
+		long maxNanos = 0;
+		void add(long nanos) {
+			if (nanos < 0)
+				nanos = 0;
+			this.counts[getBucket(nanos)]++;
+			this.count++;
+			this.totalNanos += nanos;
+			if (nanos > this.maxNanos)
+				this.maxNanos = nanos;
+		}
+		long getPercentile(int percent) {
+			if (this.count == 0)
+				return 0;
+			long rank = ((this.count * percent + 99) / 100);
+			long seen = 0;
+			for (int b = 0; b < this.counts.length; b++) {
+				seen += this.counts[b];
+				if (seen >= rank)
+					return Math.min(getBucketLimit(b), this.maxNanos);
+			}
+			return this.maxNanos;
+		}
+		long getAverage() {
+			return ((this.count == 0) ? 0 : (this.totalNanos / this.count));
+		}
+		private static int getBucket(long nanos) {
+			if (nanos < SUB_BUCKETS)
+				return ((int) nanos);
+			int msb = (63 - Long.numberOfLeadingZeros(nanos));
+			int sub = ((int) ((nanos >>> (msb - 2)) & (SUB_BUCKETS - 1)));
+			return ((msb * SUB_BUCKETS) + sub);
+		}
+		private static long getBucketLimit(int bucket) {
+			if (bucket < SUB_BUCKETS)
+				return bucket;
+			int msb = (bucket / SUB_BUCKETS);
+			int sub = (bucket % SUB_BUCKETS);
+			return ((((long) (SUB_BUCKETS + sub + 1)) << (msb - 2)) - 1);
+		}
+	}
+	
+	private static class ActionStats {
+		long errors = 0;
+		long bytesIn = 0;
+		long bytesOut = 0;
+		final LatencyHistogram latency = new LatencyHistogram();
+	}
+	
+	/**
+	 * Record an execution of a network action.
+	 * @param actionCommand the command of the action
+	 * @param nanos the time the action took (in nanoseconds)
+	 * @param bytesIn the number of bytes read from the request
+	 * @param bytesOut the number of bytes written to the response
+	 * @param error did the action fail?
+	 */
+	void recordAction(String actionCommand, long nanos, long bytesIn, long bytesOut, boolean error) {
+		synchronized (this.actionStats) {
+			ActionStats as = ((ActionStats) this.actionStats.get(actionCommand));
+			if (as == null) {
+				as = new ActionStats();
+				this.actionStats.put(actionCommand, as);
+			}
+			as.latency.add(nanos);
+			as.bytesIn += bytesIn;
+			as.bytesOut += bytesOut;
+			if (error)
+				as.errors++;
+		}
+	}
+	
+	/**
+	 * Record an execution of an internal operation.
+	 * @param timerName the name of the operation
+	 * @param nanos the time the operation took (in nanoseconds)
+	 */
+	void recordTime(String timerName, long nanos) {
+		synchronized (this.timerStats) {
+			LatencyHistogram timer = ((LatencyHistogram) this.timerStats.get(timerName));
+			if (timer == null) {
+				timer = new LatencyHistogram();
+				this.timerStats.put(timerName, timer);
+			}
+			timer.add(nanos);
+		}
+	}
+	
+	/**
+	 * Discard all recorded metrics.
+	 */
+	void reset() {
+		synchronized (this.actionStats) {
+			this.actionStats.clear();
+		}
+		synchronized (this.timerStats) {
+			this.timerStats.clear();
+		}
+		this.startTime = System.currentTimeMillis();
+	}
+	
+	/**
+	 * Produce a human readable report of the metrics, one line per action or
+	 * timer, preceded by a line indicating the start of recording.
+	 * @return the report lines
+	 */
+	String[] getReportLines() {
+		ArrayList reportLines = new ArrayList();
+		reportLines.add("Recording since " + ((System.currentTimeMillis() - this.startTime) / 1000) + " seconds");
+		synchronized (this.actionStats) {
+			for (Iterator ait = this.actionStats.keySet().iterator(); ait.hasNext();) {
+				String actionCommand = ((String) ait.next());
+				ActionStats as = ((ActionStats) this.actionStats.get(actionCommand));
+				reportLines.add(actionCommand + ": " + as.latency.count + " requests, " + as.errors + " errors, " + as.bytesIn + " bytes in, " + as.bytesOut + " bytes out, " + getLatencyReport(as.latency));
+			}
+		}
+		synchronized (this.timerStats) {
+			for (Iterator tit = this.timerStats.keySet().iterator(); tit.hasNext();) {
+				String timerName = ((String) tit.next());
+				LatencyHistogram timer = ((LatencyHistogram) this.timerStats.get(timerName));
+				reportLines.add(timerName + ": " + timer.count + " times, " + getLatencyReport(timer));
+			}
+		}
+		return ((String[]) reportLines.toArray(new String[reportLines.size()]));
+	}
+	
+	private static String getLatencyReport(LatencyHistogram latency) {
+		return ("average " + toMillis(latency.getAverage()) + "ms, p50 " + toMillis(latency.getPercentile(50)) + "ms, p99 " + toMillis(latency.getPercentile(99)) + "ms, maximum " + toMillis(latency.maxNanos) + "ms");
+	}
+	
+	private static String toMillis(long nanos) {
+		long micros = (nanos / 1000);
+		String fraction = ("00" + (micros % 1000));
+		return ((micros / 1000) + "." + fraction.substring(fraction.length() - 3));
+	}
+	
+	/**
+	 * Produce a machine readable dump of the metrics, one metric per line, in
+	 * the form '&lt;name&gt; &lt;value&gt;'. Latencies are in nanoseconds.
+	 * @return the dump lines
+	 */
+	String[] getDumpLines() {
+		ArrayList dumpLines = new ArrayList();
+		dumpLines.add("ecs.recording.seconds " + ((System.currentTimeMillis() - this.startTime) / 1000));
+		synchronized (this.actionStats) {
+			for (Iterator ait = this.actionStats.keySet().iterator(); ait.hasNext();) {
+				String actionCommand = ((String) ait.next());
+				ActionStats as = ((ActionStats) this.actionStats.get(actionCommand));
+				String prefix = ("ecs.action." + actionCommand + ".");
+				dumpLines.add(prefix + "requests " + as.latency.count);
+				dumpLines.add(prefix + "errors " + as.errors);
+				dumpLines.add(prefix + "bytesIn " + as.bytesIn);
+				dumpLines.add(prefix + "bytesOut " + as.bytesOut);
+				addLatencyDump(dumpLines, prefix, as.latency);
+			}
+		}
+		synchronized (this.timerStats) {
+			for (Iterator tit = this.timerStats.keySet().iterator(); tit.hasNext();) {
+				String timerName = ((String) tit.next());
+				LatencyHistogram timer = ((LatencyHistogram) this.timerStats.get(timerName));
+				String prefix = ("ecs.timer." + timerName + ".");
+				dumpLines.add(prefix + "count " + timer.count);
+				addLatencyDump(dumpLines, prefix, timer);
+			}
+		}
+		return ((String[]) dumpLines.toArray(new String[dumpLines.size()]));
+	}
+	
+	private static void addLatencyDump(ArrayList dumpLines, String prefix, LatencyHistogram latency) {
+		dumpLines.add(prefix + "nanos.total " + latency.totalNanos);
+		dumpLines.add(prefix + "nanos.p50 " + latency.getPercentile(50));
+		dumpLines.add(prefix + "nanos.p99 " + latency.getPercentile(99));
+		dumpLines.add(prefix + "nanos.max " + latency.maxNanos);
+	}
+	
+	/**
+	 * Input stream counting the bytes read through it.
+	 */
+	static class CountingInputStream extends FilterInputStream {
+		long count = 0;
+		CountingInputStream(InputStream in) {
+			super(in);
+		}
+		public int read() throws IOException {
+			int b = super.read();
+			if (b != -1)
+				this.count++;
+			return b;
+		}
+		public int read(byte[] b, int off, int len) throws IOException {
+			int read = super.read(b, off, len);
+			if (read > 0)
+				this.count += read;
+			return read;
+		}
+		public long skip(long n) throws IOException {
+			long skipped = super.skip(n);
+			this.count += skipped;
+			return skipped;
+		}
+	}
+	
+	/**
+	 * Output stream counting the bytes written through it, and capturing the
+	 * first line written, i.e., the response status line in the ECS protocol.
+	 */
+	static class CountingOutputStream extends FilterOutputStream {
+		long count = 0;
+		private StringBuffer firstLine = new StringBuffer();
+		private boolean firstLineComplete = false;
+		CountingOutputStream(OutputStream out) {
+			super(out);
+		}
+		public void write(int b) throws IOException {
+			this.out.write(b);
+			this.count++;
+			this.captureFirstLine(b);
+		}
+		public void write(byte[] b, int off, int len) throws IOException {
+			this.out.write(b, off, len);
+			this.count += len;
+			for (int i = off; (i < (off + len)) && !this.firstLineComplete; i++)
+				this.captureFirstLine(b[i]);
+		}
+		private void captureFirstLine(int b) {
+			if (this.firstLineComplete)
+				return;
+			if ((b == '\n') || (b == '\r') || (this.firstLine.length() > 256))
+				this.firstLineComplete = true;
+			else this.firstLine.append((char) (b & 0xFF));
+		}
+		String getFirstLine() {
+			return this.firstLine.toString();
+		}
+	}
+}
@@ -0,0 +1,117 @@
+/*
+ * Copyright (c) 2006-2008, IPD Boehm, Universitaet Karlsruhe (TH)
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of the Universitaet Karlsruhe (TH) nor the
+ *       names of its contributors may be used to endorse or promote products
+ *       derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY UNIVERSITAET KARLSRUHE (TH) AND CONTRIBUTORS 
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO,
+ * THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE REGENTS OR CONTRIBUTORS BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package de.uka.ipd.idaho.goldenGateServer.ecs;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.TreeSet;
+
+/**
+ * Index assigning dense integer IDs to names, e.g. the names of plugins or
+ * resources. IDs are assigned on first sight and never change or get re-used,
+ * so sets of names can be represented as bit sets over the IDs, and set
+ * algebra becomes word level AND and OR operations.
+ * 
+ * @author sautter
+ */
+class EcsNameIndex {
+	private HashMap idsByName = new HashMap();
+	private ArrayList namesById = new ArrayList();
+	
+	/**
+	 * Retrieve the ID of a name, assigning a new ID if the name has not been
+	 * seen before.
+	 * @param name the name to retrieve the ID for
+	 * @return the ID of the argument name
+	 */
+	synchronized int getId(String name) {
+		Integer id = ((Integer) this.idsByName.get(name));
+		if (id == null) {
+			id = new Integer(this.namesById.size());
+			this.namesById.add(name);
+			this.idsByName.put(name, id);
+		}
+		return id.intValue();
+	}
+	
+	/**
+	 * Retrieve the ID of a name, without assigning a new ID if the name has
+	 * not been seen before.
+	 * @param name the name to retrieve the ID for
+	 * @return the ID of the argument name, or -1 if the name is unknown
+	 */
+	synchronized int lookupId(String name) {
+		Integer id = ((Integer) this.idsByName.get(name));
+		return ((id == null) ? -1 : id.intValue());
+	}
+	
+	/**
+	 * Retrieve the name an ID was assigned to.
+	 * @param id the ID to retrieve the name for
+	 * @return the name the argument ID was assigned to
+	 */
+	synchronized String getName(int id) {
+		return ((String) this.namesById.get(id));
+	}
+	
+	/**
+	 * @return the number of IDs assigned so far
+	 */
+	synchronized int size() {
+		return this.namesById.size();
+	}
+	
+	/**
+	 * Retrieve the IDs of a collection of names, assigning new IDs to names
+	 * not seen before.
+	 * @param names the names to retrieve the IDs for
+	 * @return a bit set marking the IDs of the argument names
+	 */
+	synchronized BitSet getIDs(Collection names) {
+		BitSet ids = new BitSet();
+		for (Iterator nit = names.iterator(); nit.hasNext();)
+			ids.set(this.getId((String) nit.next()));
+		return ids;
+	}
+	
+	/**
+	 * Retrieve the names a set of IDs were assigned to.
+	 * @param ids a bit set marking the IDs to retrieve the names for
+	 * @return a sorted set holding the names
+	 */
+	synchronized TreeSet getNames(BitSet ids) {
+		TreeSet names = new TreeSet();
+		for (int i = ids.nextSetBit(0); i != -1; i = ids.nextSetBit(i + 1))
+			names.add(this.namesById.get(i));
+		return names;
+	}
+}
@@ -0,0 +1,234 @@
+/*
+ * Copyright (c) 2006-2008, IPD Boehm, Universitaet Karlsruhe (TH)
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of the Universitaet Karlsruhe (TH) nor the
+ *       names of its contributors may be used to endorse or promote products
+ *       derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY UNIVERSITAET KARLSRUHE (TH) AND CONTRIBUTORS 
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO,
+ * THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE REGENTS OR CONTRIBUTORS BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package de.uka.ipd.idaho.goldenGateServer.ecs;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Iterator;
+
+/**
+ * Retention for the old versions of replaced files, i.e. the files renamed to
+ * '&lt;name&gt;.&lt;timestamp&gt;.old' instead of being overwritten or
+ * deleted. Of the old versions of each file, the most recent ones and the
+ * ones younger than a maximum age stay where they are, and all others are
+ * moved into an archive folder, keeping their relative path. This keeps the
+ * live folders small and fast to scan. The archive is bounded by a disk
+ * budget, deleting the oldest archived versions first once the budget is
+ * exceeded.
+ * 
+ * @author sautter
+ */
+class EcsOldVersionCompactor {
+	
+	/** the name of the archive folder, inside each root folder */
+	static final String ARCHIVE_FOLDER_NAME = "OldVersionArchive";
+	
+	private static final String OLD_FILE_SUFFIX = ".old";
+	
+	/**
+	 * The outcome of a compaction run.
+	 */
+	static class Report {
+		final long startTime;
+		long duration = 0;
+		int oldVersions = 0;
+		long oldVersionBytes = 0;
+		int archived = 0;
+		long archivedBytes = 0;
+		int deleted = 0;
+		long deletedBytes = 0;
+		long archiveBytes = 0;
+		Report(long startTime) {
+			this.startTime = startTime;
+		}
+		String[] toLines() {
+			String[] lines = {
+				("Compaction started " + new Date(this.startTime) + ", took " + this.duration + "ms"),
+				("Found " + this.oldVersions + " old versions with " + this.oldVersionBytes + " bytes"),
+				("Archived " + this.archived + " old versions with " + this.archivedBytes + " bytes"),
+				("Deleted " + this.deleted + " archived versions with " + this.deletedBytes + " bytes, archive now holds " + this.archiveBytes + " bytes")
+			};
+			return lines;
+		}
+	}
+	
+	private static class OldVersion {
+		final File file;
+		final long timestamp;
+		final long size;
+		OldVersion(File file, long timestamp) {
+			this.file = file;
+			this.timestamp = timestamp;
+			this.size = file.length();
+		}
+	}
+	
+	private static final Comparator newestFirstOrder = new Comparator() {
+		public int compare(Object obj1, Object obj2) {
+			long ts1 = ((OldVersion) obj1).timestamp;
+			long ts2 = ((OldVersion) obj2).timestamp;
+			return ((ts1 == ts2) ? 0 : ((ts1 < ts2) ? 1 : -1));
+		}
+	};
+	
+	private final File[] roots;
+	private final String[] excludeFolderNames;
+	private final int versionsToKeep;
+	private final long maxAge;
+	private final long archiveBudget;
+	
+	/** Constructor
+	 * @param roots the root folders to compact (each gets its own archive)
+	 * @param excludeFolderNames the names of folders directly inside the roots
+	 *            to leave alone
+	 * @param versionsToKeep the number of most recent old versions of each
+	 *            file to keep in place
+	 * @param maxAge the age (in milliseconds) up to which to keep old versions
+	 *            in place regardless of their number
+	 * @param archiveBudget the maximum number of bytes for the archive to
+	 *            hold across all roots (-1 for no limit)
+	 */
+	EcsOldVersionCompactor(File[] roots, String[] excludeFolderNames, int versionsToKeep, long maxAge, long archiveBudget) {
+		this.roots = roots;
+		this.excludeFolderNames = excludeFolderNames;
+		this.versionsToKeep = versionsToKeep;
+		this.maxAge = maxAge;
+		this.archiveBudget = archiveBudget;
+	}
+	
+	/**
+	 * Run a compaction.
+	 * @return a report on the compaction
+	 */
+	synchronized Report compact() {
+		Report report = new Report(System.currentTimeMillis());
+		long minKeepTime = (report.startTime - this.maxAge);
+		
+		//	move old versions beyond retention to archive
+		for (int r = 0; r < this.roots.length; r++) {
+			HashMap oldVersionsByFile = new HashMap();
+			this.collectOldVersions(this.roots[r], true, oldVersionsByFile);
+			File archiveRoot = new File(this.roots[r], ARCHIVE_FOLDER_NAME);
+			String rootPath = this.roots[r].getAbsolutePath();
+			for (Iterator fit = oldVersionsByFile.values().iterator(); fit.hasNext();) {
+				ArrayList oldVersions = ((ArrayList) fit.next());
+				Collections.sort(oldVersions, newestFirstOrder);
+				for (int v = 0; v < oldVersions.size(); v++) {
+					OldVersion oldVersion = ((OldVersion) oldVersions.get(v));
+					report.oldVersions++;
+					report.oldVersionBytes += oldVersion.size;
+					if ((v < this.versionsToKeep) || (oldVersion.timestamp >= minKeepTime))
+						continue;
+					File archiveFile = new File(archiveRoot, oldVersion.file.getAbsolutePath().substring(rootPath.length()));
+					archiveFile.getParentFile().mkdirs();
+					if (oldVersion.file.renameTo(archiveFile)) {
+						report.archived++;
+						report.archivedBytes += oldVersion.size;
+					}
+				}
+			}
+		}
+		
+		//	enforce archive budget, deleting oldest versions first
+		ArrayList archivedVersions = new ArrayList();
+		for (int r = 0; r < this.roots.length; r++) {
+			HashMap archivedVersionsByFile = new HashMap();
+			this.collectOldVersions(new File(this.roots[r], ARCHIVE_FOLDER_NAME), false, archivedVersionsByFile);
+			for (Iterator fit = archivedVersionsByFile.values().iterator(); fit.hasNext();)
+				archivedVersions.addAll((ArrayList) fit.next());
+		}
+		for (int v = 0; v < archivedVersions.size(); v++)
+			report.archiveBytes += ((OldVersion) archivedVersions.get(v)).size;
+		if (this.archiveBudget >= 0) {
+			Collections.sort(archivedVersions, newestFirstOrder);
+			for (int v = (archivedVersions.size() - 1); (v >= 0) && (report.archiveBytes > this.archiveBudget); v--) {
+				OldVersion archivedVersion = ((OldVersion) archivedVersions.get(v));
+				if (archivedVersion.file.delete()) {
+					report.deleted++;
+					report.deletedBytes += archivedVersion.size;
+					report.archiveBytes -= archivedVersion.size;
+				}
+			}
+		}
+		
+		report.duration = (System.currentTimeMillis() - report.startTime);
+		return report;
+	}
+	
+	private void collectOldVersions(File folder, boolean isRoot, HashMap oldVersionsByFile) {
+		File[] files = folder.listFiles();
+		if (files == null)
+			return;
+		for (int f = 0; f < files.length; f++) {
+			if (files[f].isDirectory()) {
+				if (isRoot && (ARCHIVE_FOLDER_NAME.equals(files[f].getName()) || this.isExcluded(files[f].getName())))
+					continue;
+				this.collectOldVersions(files[f], false, oldVersionsByFile);
+				continue;
+			}
+			
+			//	parse '<name>.<timestamp>.old'
+			String name = files[f].getName();
+			if (!name.endsWith(OLD_FILE_SUFFIX))
+				continue;
+			name = name.substring(0, (name.length() - OLD_FILE_SUFFIX.length()));
+			int timestampStart = name.lastIndexOf('.');
+			if (timestampStart < 1)
+				continue;
+			long timestamp;
+			try {
+				timestamp = Long.parseLong(name.substring(timestampStart + 1));
+			}
+			catch (NumberFormatException nfe) {
+				continue;
+			}
+			
+			//	group by original file
+			String liveFilePath = new File(folder, name.substring(0, timestampStart)).getAbsolutePath();
+			ArrayList oldVersions = ((ArrayList) oldVersionsByFile.get(liveFilePath));
+			if (oldVersions == null) {
+				oldVersions = new ArrayList(2);
+				oldVersionsByFile.put(liveFilePath, oldVersions);
+			}
+			oldVersions.add(new OldVersion(files[f], timestamp));
+		}
+	}
+	
+	private boolean isExcluded(String folderName) {
+		for (int e = 0; e < this.excludeFolderNames.length; e++) {
+			if (this.excludeFolderNames[e].equals(folderName))
+				return true;
+		}
+		return false;
+	}
+}
@@ -30,25 +30,42 @@ package de.uka.ipd.idaho.goldenGateServer.ecs;
 
 import java.io.BufferedReader;
 import java.io.BufferedWriter;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileFilter;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
-import java.io.FileReader;
 import java.io.IOException;
 import java.io.InputStreamReader;
+import java.io.OutputStream;
 import java.io.OutputStreamWriter;
 import java.io.Reader;
 import java.io.StringReader;
+import java.io.StringWriter;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.BitSet;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.IdentityHashMap;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Random;
 import java.util.Set;
+import java.util.SortedSet;
 import java.util.TreeMap;
 import java.util.TreeSet;
+import java.util.WeakHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicReference;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipInputStream;
 import java.util.zip.ZipOutputStream;
@@ -63,6 +80,8 @@ import de.uka.ipd.idaho.goldenGate.configuration.ConfigurationUtils.Plugin;
 import de.uka.ipd.idaho.goldenGate.configuration.ConfigurationUtils.Resource;
 import de.uka.ipd.idaho.goldenGateServer.AbstractGoldenGateServerComponent;
 import de.uka.ipd.idaho.goldenGateServer.GoldenGateServerComponentRegistry;
+import de.uka.ipd.idaho.goldenGateServer.GoldenGateServerEventNotifier;
+import de.uka.ipd.idaho.goldenGateServer.ecs.EcsDataStore.DataEntry;
 import de.uka.ipd.idaho.goldenGateServer.uaa.UserAccessAuthority;
 import de.uka.ipd.idaho.goldenGateServer.util.BufferedLineInputStream;
 import de.uka.ipd.idaho.goldenGateServer.util.BufferedLineOutputStream;
@@ -89,6 +108,7 @@ public class GoldenGateECS extends AbstractGoldenGateServerComponent implements
 	private static final String GROUP_FILE_PREFIX = "Group.";
 	private static final String TXT_FILE_SUFFIX = ".txt";
 	
+	private static final String GROUP_PREFIX = "G:";
 	private static final String PLUGIN_PREFIX = "P:";
 	private static final String RESOURCE_PREFIX = "R:";
 	
@@ -111,10 +131,6 @@ TODO Store configurations as folder based objects:
 - figure out how to keep config name
 - switch to hash based versioning (akin to IMD)
 - store hashes in configuration.xml
-
-TODO Start publishing update and deletion events
-==> facilitates replication across node cluster
-==> makes configurations first class versioned citizens (akin to document style templates)
 	 */
 	
 	/** Constructor passing 'ECS' as the letter code to super constructor
@@ -138,28 +154,181 @@ TODO Start publishing update and deletion events
 			this.configBasePath = new File(this.dataPath, configBasePath);
 		else this.configBasePath = new File(configBasePath);
 		
-		//	load configurations
+		//	get projection cache size
+		try {
+			this.projectionCacheSize = Integer.parseInt(this.configuration.getSetting("ProjectionCacheSize", ("" + this.projectionCacheSize)));
+		} catch (NumberFormatException nfe) {}
+		
+		//	get serialized descriptor cache size (in KB)
+		try {
+			this.serializedConfigurationCacheSize = (1024 * Long.parseLong(this.configuration.getSetting("DescriptorCacheSizeKB", ("" + (this.serializedConfigurationCacheSize / 1024)))));
+		} catch (NumberFormatException nfe) {}
+		
+		//	get permission index timeout (in seconds)
+		try {
+			this.userPermissionsTimeout = (1000 * Long.parseLong(this.configuration.getSetting("PermissionCacheTimeoutSeconds", ("" + (this.userPermissionsTimeout / 1000)))));
+		} catch (NumberFormatException nfe) {}
+		
+		//	get permission index size (in users)
+		try {
+			this.userPermissionsCacheSize = Integer.parseInt(this.configuration.getSetting("PermissionCacheSize", ("" + this.userPermissionsCacheSize)));
+		} catch (NumberFormatException nfe) {}
+		
+		//	get buffer size for sending data files (in KB)
+		try {
+			this.dataTransferBufferSize = (1024 * Integer.parseInt(this.configuration.getSetting("DataTransferBufferSizeKB", ("" + (this.dataTransferBufferSize / 1024)))));
+		} catch (NumberFormatException nfe) {}
+		if (this.dataTransferBufferSize < 1024)
+			this.dataTransferBufferSize = 1024;
+		
+		//	get compression policy for ZIP archives of data files
+		int dataCompressionLevel = this.dataCompressionPolicy.getLevel();
+		try {
+			dataCompressionLevel = Integer.parseInt(this.configuration.getSetting("DataCompressionLevel", ("" + dataCompressionLevel)));
+		} catch (NumberFormatException nfe) {}
+		this.dataCompressionPolicy = new DataCompressionPolicy(dataCompressionLevel, this.configuration.getSetting("DataStoredExtensions", DataCompressionPolicy.DEFAULT_STORED_EXTENSIONS));
+		
+		//	check whether or not to share plugins, resources, etc. between configurations
+		if (!"true".equals(this.configuration.getSetting("InternDescriptors", "true")))
+			this.descriptorInterner = null;
+		
+		//	check whether or not to use binary descriptors
+		this.useBinaryDescriptors = "true".equals(this.configuration.getSetting("UseBinaryDescriptors", "true"));
+		
+		//	set up crash safe file writing (group commit only pays off with many concurrent writers, so not the default)
+		String fileSyncMode = this.configuration.getSetting("FileSyncMode", "each");
+		long fileSyncGroupWindow = 10;
+		try {
+			fileSyncGroupWindow = Long.parseLong(this.configuration.getSetting("FileSyncGroupWindowMillis", ("" + fileSyncGroupWindow)));
+		} catch (NumberFormatException nfe) {}
+		int fileSyncGroupThreads = 8;
+		try {
+			fileSyncGroupThreads = Integer.parseInt(this.configuration.getSetting("FileSyncGroupThreads", ("" + fileSyncGroupThreads)));
+		} catch (NumberFormatException nfe) {}
+		this.fileWriter = new EcsFileWriter(("none".equals(fileSyncMode) ? EcsFileWriter.SYNC_NONE : ("group".equals(fileSyncMode) ? EcsFileWriter.SYNC_GROUP : EcsFileWriter.SYNC_EACH)), fileSyncGroupWindow, fileSyncGroupThreads);
+		
+		//	check whether or not to use content addressed storage for data files (writing manifests through file writer)
+		if ("true".equals(this.configuration.getSetting("UseContentAddressedStorage", "false")))
+			this.dataStore = new EcsDataStore(this.dataPath, this.fileWriter);
+		
+		//	complete or discard file writes interrupted by a crash
+		long startupStart = System.currentTimeMillis();
+		long phaseStart = startupStart;
+		int recoveredFiles = EcsFileWriter.recover(this.dataPath);
+		if (!this.configBasePath.equals(this.dataPath))
+			recoveredFiles += EcsFileWriter.recover(this.configBasePath);
+		recoveredFiles += EcsFileWriter.recover(new File(this.dataPath, EcsDataStore.MANIFEST_FOLDER_NAME));
+		this.logInfo("ECS: recovered " + recoveredFiles + " interrupted file writes in " + (System.currentTimeMillis() - phaseStart) + "ms");
+		
+		//	restore change log
+		phaseStart = System.currentTimeMillis();
+		int changeLogMemoryEntries = 10000;
+		try {
+			changeLogMemoryEntries = Integer.parseInt(this.configuration.getSetting("ChangeLogMemoryEntries", ("" + changeLogMemoryEntries)));
+		} catch (NumberFormatException nfe) {}
+		long changeLogMaxSizeMB = 16;
+		try {
+			changeLogMaxSizeMB = Long.parseLong(this.configuration.getSetting("ChangeLogMaxSizeMB", ("" + changeLogMaxSizeMB)));
+		} catch (NumberFormatException nfe) {}
+		this.changeLog = new EcsChangeLog(new File(this.dataPath, CHANGE_LOG_FILE_NAME), GoldenGateECS.class.getName(), changeLogMemoryEntries, (changeLogMaxSizeMB * 1024 * 1024), !"none".equals(fileSyncMode));
+		try {
+			int changes = this.changeLog.restore();
+			this.logInfo("ECS: restored " + changes + " changes from change log in " + (System.currentTimeMillis() - phaseStart) + "ms, sequence number is " + this.changeLog.getSequenceNumber());
+			this.groupsVersion = this.changeLog.getSequenceNumber();
+		}
+		catch (IOException ioe) {
+			this.logError(ioe.getMessage() + " while restoring change log.");
+			this.logError(ioe);
+		}
+		this.eventNotifier = new GoldenGateServerEventNotifier("EcsEventNotifier");
+		try {
+			this.maxChangeWaitMillis = (Integer.parseInt(this.configuration.getSetting("MaxChangeWaitSeconds", ("" + (this.maxChangeWaitMillis / 1000)))) * 1000L);
+		} catch (NumberFormatException nfe) {}
+		
+		//	set up deadline and fallback for resolving document specific resource groups
+		long documentFiltererTimeout = 2000;
+		try {
+			documentFiltererTimeout = Long.parseLong(this.configuration.getSetting("DocumentFiltererTimeoutMillis", ("" + documentFiltererTimeout)));
+		} catch (NumberFormatException nfe) {}
+		this.documentGroupResolver.setTimeout(documentFiltererTimeout, this.configuration.getSetting("DocumentFiltererFallback", EcsDocumentGroupResolver.FALLBACK_ALL));
+		int documentFiltererMaxCalls = 8;
+		try {
+			documentFiltererMaxCalls = Integer.parseInt(this.configuration.getSetting("DocumentFiltererMaxCalls", ("" + documentFiltererMaxCalls)));
+		} catch (NumberFormatException nfe) {}
+		int documentFiltererMaxThreads = 64;
+		try {
+			documentFiltererMaxThreads = Integer.parseInt(this.configuration.getSetting("DocumentFiltererMaxThreads", ("" + documentFiltererMaxThreads)));
+		} catch (NumberFormatException nfe) {}
+		this.documentGroupResolver.setLimits(documentFiltererMaxCalls, documentFiltererMaxThreads);
+		int documentFiltererLastKnown = 1024;
+		try {
+			documentFiltererLastKnown = Integer.parseInt(this.configuration.getSetting("DocumentFiltererLastKnownSize", ("" + documentFiltererLastKnown)));
+		} catch (NumberFormatException nfe) {}
+		this.documentGroupResolver.setLastKnownSize(documentFiltererLastKnown);
+		
+		//	set up cache for document specific resource groups
+		int documentGroupCacheSize = 4096;
+		try {
+			documentGroupCacheSize = Integer.parseInt(this.configuration.getSetting("DocumentGroupCacheSize", ("" + documentGroupCacheSize)));
+		} catch (NumberFormatException nfe) {}
+		int documentGroupCacheTtl = 600;
+		try {
+			documentGroupCacheTtl = Integer.parseInt(this.configuration.getSetting("DocumentGroupCacheTtlSeconds", ("" + documentGroupCacheTtl)));
+		} catch (NumberFormatException nfe) {}
+		this.documentGroupResolver.setCache(documentGroupCacheSize, (documentGroupCacheTtl * 1000L));
+		try {
+			this.documentGroupPrefetchThreads = Integer.parseInt(this.configuration.getSetting("DocumentGroupPrefetchThreads", ("" + this.documentGroupPrefetchThreads)));
+		} catch (NumberFormatException nfe) {}
+		
+		//	list configurations
+		phaseStart = System.currentTimeMillis();
 		File[] configurationFiles = this.configBasePath.listFiles(new FileFilter() {
 			public boolean accept(File file) {
 				return (file.isFile() && file.getName().startsWith(CONFIGURATION_FILE_PREFIX) && file.getName().endsWith(".xml"));
 			}
 		});
+		String[] configurationNames = new String[configurationFiles.length];
 		for (int c = 0; c < configurationFiles.length; c++) {
 			String configurationName = configurationFiles[c].getName();
 			configurationName = configurationName.substring(CONFIGURATION_FILE_PREFIX.length());
 			configurationName = configurationName.substring(0, (configurationName.length() - TXT_FILE_SUFFIX.length()));
-			this.getConfiguration(configurationName);
+			configurationNames[c] = configurationName;
+		}
+		this.logInfo("ECS: found " + configurationNames.length + " configurations in " + (System.currentTimeMillis() - phaseStart) + "ms");
+		
+		//	load configurations, or only index names if loading lazily
+		phaseStart = System.currentTimeMillis();
+		String configurationLoadMode = this.configuration.getSetting("ConfigurationLoadMode", "serial");
+		if ("lazy".equals(configurationLoadMode)) {
+			synchronized (this.registry) {
+				RegistryUpdate update = new RegistryUpdate(this.getRegistry());
+				update.configurationNames().addAll(Arrays.asList(configurationNames));
+				this.registry.set(update.toRegistry());
+			}
+			this.resourceNameMappingsComplete = false;
+			this.logInfo("ECS: indexed " + configurationNames.length + " configurations for lazy loading in " + (System.currentTimeMillis() - phaseStart) + "ms");
+		}
+		else {
+			int configurationLoadThreads = 1;
+			if ("parallel".equals(configurationLoadMode)) try {
+				configurationLoadThreads = Integer.parseInt(this.configuration.getSetting("ConfigurationLoadThreads", ("" + Runtime.getRuntime().availableProcessors())));
+			} catch (NumberFormatException nfe) {}
+			int loadedConfigurations = this.loadConfigurations(configurationNames, configurationLoadThreads);
+			this.logInfo("ECS: loaded " + loadedConfigurations + " of " + configurationNames.length + " configurations with " + configurationLoadThreads + " threads in " + (System.currentTimeMillis() - phaseStart) + "ms");
 		}
 		
 		//	get master configuration
+		phaseStart = System.currentTimeMillis();
 		String masterConfigurationName = this.configuration.getSetting("MasterConfigurationName", "Master");
-		this.masterConfiguration = ((Configuration) this.configurationsByName.get(masterConfigurationName));
+		this.masterConfiguration = ((Configuration) this.getRegistry().configurationsByName.get(masterConfigurationName));
 		if (this.masterConfiguration == null)
 			this.masterConfiguration = this.getConfiguration(masterConfigurationName);
 		if (this.masterConfiguration == null)
 			this.masterConfiguration = new Configuration(masterConfigurationName, masterConfigurationName, System.currentTimeMillis(), DOCUMENTATION_FOLDER_NAME, GoldenGateConstants.CONFIG_FILE_NAME, DATA_FOLDER_NAME);
+		this.logInfo("ECS: got master configuration in " + (System.currentTimeMillis() - phaseStart) + "ms");
 		
 		//	load groups
+		phaseStart = System.currentTimeMillis();
 		File[] groupFiles = this.dataPath.listFiles(new FileFilter() {
 			public boolean accept(File file) {
 				return (file.isFile() && file.getName().startsWith(GROUP_FILE_PREFIX) && file.getName().endsWith(TXT_FILE_SUFFIX));
@@ -171,26 +340,24 @@ TODO Start publishing update and deletion events
 			groupName = groupName.substring(0, (groupName.length() - TXT_FILE_SUFFIX.length()));
 			this.getGroup(groupName);
 		}
-		
-		//	generate nice names for resources
-		for (Iterator cit = this.configurationsByName.keySet().iterator(); cit.hasNext();) {
-			Configuration config = this.getConfiguration((String) cit.next());
-			for (Iterator pit = config.plugins.iterator(); pit.hasNext();) {
-				Plugin plugin = ((Plugin) pit.next());
-				for (Iterator rit = plugin.resources.iterator(); rit.hasNext();) {
-					Resource resource = ((Resource) rit.next());
-					this.resourceNameMappings.put((plugin.name + "." + resource.name), resource.name);
-				}
-			}
-		}
+		this.logInfo("ECS: loaded " + groupFiles.length + " groups in " + (System.currentTimeMillis() - phaseStart) + "ms");
 		
 		//	load user -> default configuration mapping
+		phaseStart = System.currentTimeMillis();
+		TreeMap userDefaultConfigurations = new TreeMap();
+		long userConfigGeneration = 0;
 		try {
 			StringVector userConfigs = StringVector.loadList(new File(this.dataPath, "UserConfigurations.txt"));
 			for (int uc = 0; uc < userConfigs.size(); uc++) {
+				if (userConfigs.get(uc).startsWith(USER_CONFIGURATION_GENERATION_PREFIX)) {
+					try {
+						userConfigGeneration = Long.parseLong(userConfigs.get(uc).substring(USER_CONFIGURATION_GENERATION_PREFIX.length()));
+					} catch (NumberFormatException nfe) {}
+					continue;
+				}
 				String[] userConfigParts = userConfigs.get(uc).split("\\:");
 				if (userConfigParts.length == 2)
-					this.userDefaultConfigurations.put(userConfigParts[0], userConfigParts[1]);
+					userDefaultConfigurations.put(userConfigParts[0], userConfigParts[1]);
 			}
 		}
 		catch (IOException ioe) {
@@ -198,16 +365,187 @@ TODO Start publishing update and deletion events
 			ioe.printStackTrace(System.out);
 		}
 		
+		//	replay changes to individual users since last checkpoint
+		this.userConfigurationJournal = new EcsJournal(new File(this.dataPath, USER_CONFIGURATION_JOURNAL_FILE_NAME), !"none".equals(fileSyncMode));
+		try {
+			String[] journalEntries = this.userConfigurationJournal.replay();
+			
+			//	journal predates checkpoint (crash between writing checkpoint and resetting journal), entries already contained in checkpoint
+			if (this.userConfigurationJournal.getGeneration() < userConfigGeneration) {
+				this.logInfo("ECS: ignoring " + journalEntries.length + " user default configuration changes from before last checkpoint");
+				this.userConfigurationJournal.reset(userConfigGeneration);
+			}
+			else for (int e = 0; e < journalEntries.length; e++) {
+				String[] entryParts = journalEntries[e].split("\\t");
+				if ((entryParts.length == 3) && USER_CONFIGURATION_SET.equals(entryParts[0]))
+					userDefaultConfigurations.put(entryParts[1], entryParts[2]);
+				else if ((entryParts.length == 2) && USER_CONFIGURATION_UNSET.equals(entryParts[0]))
+					userDefaultConfigurations.remove(entryParts[1]);
+			}
+			this.userConfigurationGeneration = Math.max(userConfigGeneration, this.userConfigurationJournal.getGeneration());
+		}
+		catch (IOException ioe) {
+			this.logError(ioe.getMessage() + " while replaying user default configuration journal.");
+			this.logError(ioe);
+		}
+		try {
+			this.userConfigurationCheckpointEntries = Integer.parseInt(this.configuration.getSetting("UserConfigurationCheckpointEntries", ("" + this.userConfigurationCheckpointEntries)));
+		} catch (NumberFormatException nfe) {}
+		
 		//	load online configurations
+		TreeSet onlineConfigurations = new TreeSet();
 		try {
 			StringVector onlineConfigs = StringVector.loadList(new File(this.dataPath, "OnlineConfigurations.txt"));
 			for (int oc = 0; oc < onlineConfigs.size(); oc++)
-				this.onlineConfigurations.add(onlineConfigs.get(oc));
+				onlineConfigurations.add(onlineConfigs.get(oc));
 		}
 		catch (IOException ioe) {
 			System.out.println(ioe.getMessage() + " while loading online configurations file.");
 			ioe.printStackTrace(System.out);
 		}
+		
+		//	publish user default and online configurations
+		synchronized (this.registry) {
+			RegistryUpdate update = new RegistryUpdate(this.getRegistry());
+			update.userDefaultConfigurations().putAll(userDefaultConfigurations);
+			update.onlineConfigurations().addAll(onlineConfigurations);
+			this.registry.set(update.toRegistry());
+		}
+		this.logInfo("ECS: loaded " + userDefaultConfigurations.size() + " user default configurations and " + onlineConfigurations.size() + " online configurations in " + (System.currentTimeMillis() - phaseStart) + "ms");
+		
+		//	set up retention for old versions of replaced files
+		this.initOldVersionCompactor();
+		this.logInfo("ECS: startup completed in " + (System.currentTimeMillis() - startupStart) + "ms");
+	}
+	
+	/* (non-Javadoc)
+	 * @see de.uka.ipd.idaho.goldenGateServer.AbstractGoldenGateServerComponent#exitComponent()
+	 */
+	protected void exitComponent() {
+		
+		//	stop compacting old versions
+		Thread compactorThread = this.oldVersionCompactorThread;
+		this.oldVersionCompactorThread = null;
+		if (compactorThread != null)
+			compactorThread.interrupt();
+		
+		//	write checkpoint of user default configurations
+		if (this.userConfigurationJournal.size() != 0) try {
+			this.checkpointUserConfigurations();
+		}
+		catch (IOException ioe) {
+			this.logError(ioe.getMessage() + " while writing checkpoint of user default configurations.");
+			this.logError(ioe);
+		}
+		this.userConfigurationJournal.close();
+		
+		//	stop group commits (after last write)
+		this.fileWriter.shutdown();
+		
+		//	stop event notification and close change log
+		this.eventNotifier.shutdown();
+		this.changeLog.close();
+		
+		//	stop asking document resource filterers in background
+		this.documentGroupResolver.shutdown();
+	}
+	
+	/*
+	 * Load a bunch of configurations, in parallel if more than one thread is
+	 * given, and publish them all at once, along with their resource name
+	 * mappings. Returns the number of configurations actually loaded.
+	 */
+	private int loadConfigurations(final String[] configNames, int threads) {
+		final Configuration[] configs = new Configuration[configNames.length];
+		
+		//	load configurations in current thread
+		if (threads < 2) {
+			for (int c = 0; c < configNames.length; c++)
+				configs[c] = this.loadConfiguration(configNames[c]);
+		}
+		
+		//	load configurations in thread pool
+		else {
+			ExecutorService loaderPool = Executors.newFixedThreadPool(threads);
+			ArrayList loaders = new ArrayList(configNames.length);
+			for (int c = 0; c < configNames.length; c++) {
+				final int ci = c;
+				loaders.add(loaderPool.submit(new Runnable() {
+					public void run() {
+						configs[ci] = loadConfiguration(configNames[ci]);
+					}
+				}));
+			}
+			for (int l = 0; l < loaders.size(); l++) try {
+				((Future) loaders.get(l)).get();
+			}
+			catch (InterruptedException ie) {
+				this.logError("Interrupted while loading configurations, publishing the ones loaded so far");
+				loaderPool.shutdownNow();
+				Thread.currentThread().interrupt();
+				break;
+			}
+			catch (ExecutionException ee) {
+				this.logError(ee.getMessage() + " while loading configuration '" + configNames[l] + "'");
+				this.logError(ee);
+			}
+			loaderPool.shutdown();
+		}
+		
+		//	publish configurations
+		int loaded = 0;
+		synchronized (this.registry) {
+			RegistryUpdate update = new RegistryUpdate(this.getRegistry());
+			for (int c = 0; c < configs.length; c++) {
+				if ((configs[c] == null) || update.base.configurationsByName.containsKey(configNames[c]))
+					continue;
+				update.configurationsByName().put(configNames[c], configs[c]);
+				update.configurationNames().add(configNames[c]);
+				addResourceNameMappings(update.resourceNameMappings(), configs[c]);
+				loaded++;
+			}
+			this.registry.set(update.toRegistry());
+		}
+		return loaded;
+	}
+	
+	/*
+	 * In lazy load mode, the resource name mappings only hold the resources of
+	 * the configurations loaded so far. Before the first use of the mappings,
+	 * we read all configurations not loaded yet and add their resource name
+	 * mappings, but do not keep the configurations proper in memory.
+	 */
+	private volatile boolean resourceNameMappingsComplete = true;
+	private final Object resourceNameMappingsLock = new Object();
+	
+	private void ensureResourceNameMappings() {
+		if (this.resourceNameMappingsComplete)
+			return;
+		synchronized (this.resourceNameMappingsLock) {
+			if (this.resourceNameMappingsComplete)
+				return;
+			long start = System.currentTimeMillis();
+			TreeMap resourceNameMappings = new TreeMap();
+			Registry registry = this.getRegistry();
+			int read = 0;
+			for (Iterator cit = registry.configurationNames.iterator(); cit.hasNext();) {
+				String configName = ((String) cit.next());
+				if (registry.configurationsByName.containsKey(configName))
+					continue;
+				Configuration config = this.loadConfiguration(configName);
+				if (config != null) {
+					addResourceNameMappings(resourceNameMappings, config);
+					read++;
+				}
+			}
+			synchronized (this.registry) {
+				RegistryUpdate update = new RegistryUpdate(this.getRegistry());
+				update.resourceNameMappings().putAll(resourceNameMappings);
+				this.registry.set(update.toRegistry());
+			}
+			this.resourceNameMappingsComplete = true;
+			this.logInfo("ECS: read resource name mappings from " + read + " configurations not loaded yet in " + (System.currentTimeMillis() - start) + "ms");
+		}
 	}
 	
 	/* (non-Javadoc)
@@ -228,18 +566,84 @@ TODO Start publishing update and deletion events
 	public void linkInit() {
 		
 		//	create permissions for groups
-		for (Iterator git = this.groupsByName.keySet().iterator(); git.hasNext();)
+		Registry registry = this.getRegistry();
+		for (Iterator git = registry.groupsByName.keySet().iterator(); git.hasNext();)
 			this.uaa.registerPermission(GROUP_PERMISSION_PREFIX + ((String) git.next()));
 		
 		//	create permissions for configurations
-		for (Iterator cit = this.configurationsByName.keySet().iterator(); cit.hasNext();) {
+		for (Iterator cit = registry.configurationNames.iterator(); cit.hasNext();) {
 			String configName = ((String) cit.next());
 			this.uaa.registerPermission(CONFIGURATION_PERMISSION_PREFIX + configName);
 			this.uaa.registerPermission(CONFIGURATION_PERMISSION_PREFIX + configName + CONFIGURATION_ALL_PERMISSION_SUFFIX);
 		}
 	}
 	
-	private ArrayList documentResourceFilterers = new ArrayList(); 
+	/*
+	 * Calls to the user access authority, timed for the metrics
+	 */
+	private boolean isValidSession(String sessionId) {
+		long start = System.nanoTime();
+		try {
+			return this.uaa.isValidSession(sessionId);
+		}
+		finally {
+			this.metrics.recordTime(EcsMetrics.UAA_TIMER, (System.nanoTime() - start));
+		}
+	}
+	private boolean isAdminSession(String sessionId) {
+		long start = System.nanoTime();
+		try {
+			return this.uaa.isAdminSession(sessionId);
+		}
+		finally {
+			this.metrics.recordTime(EcsMetrics.UAA_TIMER, (System.nanoTime() - start));
+		}
+	}
+	private String getUserNameForSession(String sessionId) {
+		long start = System.nanoTime();
+		try {
+			return this.uaa.getUserNameForSession(sessionId);
+		}
+		finally {
+			this.metrics.recordTime(EcsMetrics.UAA_TIMER, (System.nanoTime() - start));
+		}
+	}
+	private boolean isAdmin(String userName) {
+		long start = System.nanoTime();
+		try {
+			return this.uaa.isAdmin(userName);
+		}
+		finally {
+			this.metrics.recordTime(EcsMetrics.UAA_TIMER, (System.nanoTime() - start));
+		}
+	}
+	private boolean hasPermission(String userName, String permission) {
+		long start = System.nanoTime();
+		try {
+			return this.uaa.hasPermission(userName, permission);
+		}
+		finally {
+			this.metrics.recordTime(EcsMetrics.UAA_TIMER, (System.nanoTime() - start));
+		}
+	}
+	private boolean hasPermission(String userName, String permission, boolean defaultValue) {
+		long start = System.nanoTime();
+		try {
+			return this.uaa.hasPermission(userName, permission, defaultValue);
+		}
+		finally {
+			this.metrics.recordTime(EcsMetrics.UAA_TIMER, (System.nanoTime() - start));
+		}
+	}
+	
+	/*
+	 * Resolver asking the document resource filterers for the groups required
+	 * for a document, in parallel and up to a deadline, and caching the
+	 * resolved groups
+	 */
+	private static final String DOCUMENT_FILTERERS_COMMAND = "documentFilterers";
+	private EcsDocumentGroupResolver documentGroupResolver = new EcsDocumentGroupResolver();
+	private int documentGroupPrefetchThreads = 8;
 	
 	/**
 	 * Register a DocumentResourceFilterer to provide the resource groups to use
@@ -248,7 +652,7 @@ TODO Start publishing update and deletion events
 	 */
 	public void addDocumentResourceFilterer(DocumentResourceFilterer drf) {
 		if (drf != null)
-			this.documentResourceFilterers.add(drf);
+			this.documentGroupResolver.addFilterer(drf);
 	}
 	
 	/**
@@ -257,60 +661,174 @@ TODO Start publishing update and deletion events
 	 */
 	public void removeDocumentResourceFilterer(DocumentResourceFilterer drf) {
 		if (drf != null)
-			this.documentResourceFilterers.remove(drf);
+			this.documentGroupResolver.removeFilterer(drf);
+	}
+	
+	/**
+	 * Discard the cached resource groups for a document, so they are obtained
+	 * from the registered DocumentResourceFilterers anew the next time the
+	 * document is opened. DocumentResourceFilterers should call this method
+	 * whenever the groups they would return for a document change.
+	 * @param documentId the ID of the document
+	 */
+	public void invalidateDocument(String documentId) {
+		if (documentId != null)
+			this.documentGroupResolver.invalidateDocument(documentId);
+	}
+	
+	/**
+	 * Discard the cached resource groups for all documents.
+	 */
+	public void invalidateAllDocuments() {
+		this.documentGroupResolver.invalidateAll();
+	}
+	
+	/**
+	 * Obtain the resource groups required for editing a number of documents
+	 * at once, e.g. to prefetch them for documents about to be opened. The
+	 * groups come from the cache if possible, and from the registered
+	 * DocumentResourceFilterers otherwise, for several documents in parallel.
+	 * The group arrays in the returned map are null for documents that use
+	 * all resource groups.
+	 * @param documentIds the IDs of the documents
+	 * @return a map holding the group name arrays, keyed by document ID
+	 */
+	public Map getGroupsForDocuments(String[] documentIds) {
+		Map docGroupSets = this.documentGroupResolver.getGroupsForDocuments(documentIds, this.documentGroupPrefetchThreads);
+		Map docGroups = new HashMap();
+		for (Iterator dit = docGroupSets.keySet().iterator(); dit.hasNext();) {
+			String documentId = ((String) dit.next());
+			EcsGroupSet groups = ((EcsGroupSet) docGroupSets.get(documentId));
+			docGroups.put(documentId, ((groups == null) ? null : groups.names.clone()));
+		}
+		return docGroups;
 	}
 	
 	//	mapping of resource nice names to permission Strings
-	private TreeMap resourceNameMappings = new TreeMap();
+	/*
+	 * Indexes assigning dense integer IDs to plugin and resource names, so
+	 * sets of plugins and resources can be handled as bit sets
+	 */
+	private EcsNameIndex pluginNameIndex = new EcsNameIndex();
+	private EcsNameIndex resourceNameIndex = new EcsNameIndex();
 	
 	private Configuration getConfiguration(String configurationName) {
 		if (configurationName == null)
 			return null;
-		Configuration configuration = ((Configuration) this.configurationsByName.get(configurationName));
+		Configuration configuration = ((Configuration) this.getRegistry().configurationsByName.get(configurationName));
 		if (configuration == null) {
 			configuration = this.loadConfiguration(configurationName);
-			if (configuration != null)
-				this.configurationsByName.put(configurationName, configuration);
+			if (configuration != null) synchronized (this.registry) {
+				
+				//	check if other thread was faster
+				RegistryUpdate update = new RegistryUpdate(this.getRegistry());
+				Configuration loadedConfiguration = ((Configuration) update.base.configurationsByName.get(configurationName));
+				if (loadedConfiguration != null)
+					return loadedConfiguration;
+				
+				//	publish loaded configuration
+				update.configurationsByName().put(configurationName, configuration);
+				update.configurationNames().add(configurationName);
+				addResourceNameMappings(update.resourceNameMappings(), configuration);
+				this.registry.set(update.toRegistry());
+			}
 		}
 		return configuration;
 	}
 	
 	private void updateConfiguration(String configName, Configuration model, Set pluginNames, Set resourceNames) throws IOException {
-		this.configurationsByName.remove(configName);
+		Configuration config = this.projectConfiguration(configName, model, this.pluginNameIndex.getIDs(pluginNames), this.resourceNameIndex.getIDs(resourceNames));
 		
+		//	write file outside lock, but put it in place and publish configuration inside, so file and registry agree
 		File configFile = new File(this.configBasePath, (CONFIGURATION_FILE_PREFIX + configName + ".xml"));
-		this.invalidate(configFile);
-		
-		Configuration config = this.projectConfiguration(configName, model, pluginNames, resourceNames);
-		
-		configFile.createNewFile();
-		BufferedWriter bw = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(configFile)));
-		config.writeXml(bw);
-		bw.flush();
-		bw.close();
+		EcsFileWriter.AtomicWrite configWrite = this.prepareConfigurationFile(configFile, config);
+		synchronized (this) {
+			this.fileWriter.commit(configWrite);
+			this.storeBinaryDescriptor(configName, config, configFile);
+			synchronized (this.registry) {
+				RegistryUpdate update = new RegistryUpdate(this.getRegistry());
+				update.configurationsByName().put(configName, config);
+				update.configurationNames().add(configName);
+				this.registry.set(update.toRegistry());
+			}
+		}
+		this.clearProjectionCache();
+		this.uncacheSerializedConfiguration(configName);
 		
-		this.configurationsByName.put(configName, config);
 		this.uaa.registerPermission(CONFIGURATION_PERMISSION_PREFIX + configName);
 		this.uaa.registerPermission(CONFIGURATION_PERMISSION_PREFIX + configName + CONFIGURATION_ALL_PERMISSION_SUFFIX);
+		this.invalidateUserPermissions(null);
+		
+		this.publishChange(EcsEvent.CONFIGURATION_UPDATE_TYPE, configName);
 	}
 	
 	private void deleteConfiguration(String configName) throws IOException {
-		this.configurationsByName.remove(configName);
+		synchronized (this.registry) {
+			RegistryUpdate update = new RegistryUpdate(this.getRegistry());
+			update.configurationsByName().remove(configName);
+			update.configurationNames().remove(configName);
+			this.registry.set(update.toRegistry());
+		}
+		this.clearProjectionCache();
+		this.uncacheSerializedConfiguration(configName);
+		this.invalidateUserPermissions(null);
 		this.deleteGroup(CONFIGURATION_FILE_PREFIX + configName);
 		this.invalidate(new File(this.configBasePath, (CONFIGURATION_FILE_PREFIX + configName + ".xml")));
+		new File(this.configBasePath, (CONFIGURATION_FILE_PREFIX + configName + EcsConfigurationCodec.SIDECAR_FILE_SUFFIX)).delete();
+		
+		this.publishChange(EcsEvent.CONFIGURATION_DELETE_TYPE, configName);
 	}
 	
 	private Configuration loadConfiguration(String configName) {
 		File configFile = new File(this.configBasePath, (CONFIGURATION_FILE_PREFIX + configName + ".xml"));
+		
+		//	read XML descriptor (hashing it is a lot faster than parsing it)
+		byte[] configBytes;
 		try {
-			Reader configReader = new FileReader(configFile);
-			Configuration config = Configuration.readConfiguration(configReader);
-			configReader.close();
-			return config;
+			configBytes = readFile(configFile);
 		}
 		catch (FileNotFoundException fnfe) {
 			this.logError(fnfe.getMessage() + " while loading configuration '" + configName + "'");
 			this.logError(fnfe);
+			return null;
+		}
+		catch (IOException ioe) {
+			this.logError(ioe.getMessage() + " while loading configuration '" + configName + "'");
+			this.logError(ioe);
+			return null;
+		}
+		
+		//	try binary descriptor first if it was created from the same XML
+		File binConfigFile = new File(this.configBasePath, (CONFIGURATION_FILE_PREFIX + configName + EcsConfigurationCodec.SIDECAR_FILE_SUFFIX));
+		String configHash = null;
+		if (this.useBinaryDescriptors && binConfigFile.exists()) try {
+			configHash = EcsDataStore.computeHash(configBytes);
+			Configuration config = EcsConfigurationCodec.readConfiguration(binConfigFile, configBytes.length, configHash);
+			if (config != null)
+				return this.internConfiguration(config);
+		}
+		catch (IOException ioe) {
+			this.logWarning(ioe.getMessage() + " while loading binary descriptor of configuration '" + configName + "', falling back to XML");
+		}
+		catch (RuntimeException re) {
+			this.logWarning(re.getClass().getName() + " (" + re.getMessage() + ") while loading binary descriptor of configuration '" + configName + "', falling back to XML");
+			this.logError(re);
+			binConfigFile.delete(); // corrupted, loading XML writes a new one
+		}
+		
+		//	parse XML descriptor
+		try {
+			Reader configReader = new InputStreamReader(new ByteArrayInputStream(configBytes));
+			Configuration config = Configuration.readConfiguration(configReader);
+			configReader.close();
+			
+			//	store binary descriptor to speed up next load (hash of bytes actually parsed, as file might have changed in the meantime)
+			if (this.useBinaryDescriptors) {
+				if (configHash == null)
+					configHash = EcsDataStore.computeHash(configBytes);
+				this.storeBinaryDescriptor(configName, config, configBytes.length, configHash);
+			}
+			return this.internConfiguration(config);
 		}
 		catch (IOException ioe) {
 			this.logError(ioe.getMessage() + " while loading configuration '" + configName + "'");
@@ -319,6 +837,117 @@ TODO Start publishing update and deletion events
 		return null;
 	}
 	
+	private static byte[] readFile(File file) throws IOException {
+		FileInputStream in = new FileInputStream(file);
+		try {
+			ByteArrayOutputStream bytes = new ByteArrayOutputStream((int) file.length());
+			byte[] buffer = new byte[65536];
+			for (int read; (read = in.read(buffer)) != -1;)
+				bytes.write(buffer, 0, read);
+			return bytes.toByteArray();
+		}
+		finally {
+			in.close();
+		}
+	}
+	
+	private static final String HEAP_REPORT_COMMAND = "heapReport";
+	
+	private String[] getHeapReport() {
+		Registry registry = this.getRegistry();
+		
+		//	count references and distinct objects
+		IdentityHashMap plugins = new IdentityHashMap();
+		IdentityHashMap resources = new IdentityHashMap();
+		IdentityHashMap libs = new IdentityHashMap();
+		IdentityHashMap dataItems = new IdentityHashMap();
+		long pluginRefs = 0;
+		long resourceRefs = 0;
+		long libRefs = 0;
+		long dataItemRefs = 0;
+		for (Iterator cit = registry.configurationsByName.values().iterator(); cit.hasNext();) {
+			Configuration config = ((Configuration) cit.next());
+			for (Iterator pit = config.plugins.iterator(); pit.hasNext();) {
+				Plugin plugin = ((Plugin) pit.next());
+				pluginRefs++;
+				if (plugins.put(plugin, plugin) != null)
+					continue;
+				for (Iterator lit = plugin.libs.iterator(); lit.hasNext(); libRefs++) {
+					Object lib = lit.next();
+					libs.put(lib, lib);
+				}
+				for (Iterator dit = plugin.dataItems.iterator(); dit.hasNext(); dataItemRefs++) {
+					Object dataItem = dit.next();
+					dataItems.put(dataItem, dataItem);
+				}
+			}
+			for (Iterator rit = config.resources.iterator(); rit.hasNext();) {
+				Resource resource = ((Resource) rit.next());
+				resourceRefs++;
+				if (resources.put(resource, resource) != null)
+					continue;
+				for (Iterator dit = resource.dataItems.iterator(); dit.hasNext(); dataItemRefs++) {
+					Object dataItem = dit.next();
+					dataItems.put(dataItem, dataItem);
+				}
+			}
+			for (Iterator dit = config.dataItems.iterator(); dit.hasNext(); dataItemRefs++) {
+				Object dataItem = dit.next();
+				dataItems.put(dataItem, dataItem);
+			}
+		}
+		
+		//	compile report
+		ArrayList report = new ArrayList();
+		report.add(" " + registry.configurationsByName.size() + " of " + registry.configurationNames.size() + " configurations loaded, interning " + ((this.descriptorInterner == null) ? "disabled" : "enabled") + ":");
+		report.add(" - plugins: " + pluginRefs + " references to " + plugins.size() + " distinct objects");
+		report.add(" - resources: " + resourceRefs + " references to " + resources.size() + " distinct objects");
+		report.add(" - libs: " + libRefs + " references to " + libs.size() + " distinct objects (in distinct plugins)");
+		report.add(" - data items: " + dataItemRefs + " references to " + dataItems.size() + " distinct objects (in distinct plugins and resources)");
+		if (this.descriptorInterner != null) {
+			long[] stats = this.descriptorInterner.getStats();
+			report.add(" Interned: " + stats[0] + " strings, " + stats[1] + " data items, " + stats[2] + " libs, " + stats[3] + " resources, " + stats[4] + " plugins");
+			report.add(" " + stats[5] + " lookups, " + stats[6] + " hits" + ((stats[5] == 0) ? "" : (", hit rate " + ((stats[6] * 100) / stats[5]) + "%")));
+		}
+		Runtime runtime = Runtime.getRuntime();
+		report.add(" JVM heap: " + ((runtime.totalMemory() - runtime.freeMemory()) / (1024 * 1024)) + " MB used of " + (runtime.totalMemory() / (1024 * 1024)) + " MB allocated, " + (runtime.maxMemory() / (1024 * 1024)) + " MB max");
+		return ((String[]) report.toArray(new String[report.size()]));
+	}
+	
+	private Configuration internConfiguration(Configuration config) {
+		return ((this.descriptorInterner == null) ? config : this.descriptorInterner.intern(config));
+	}
+	
+	/*
+	 * Store the binary encoding of a configuration descriptor next to the XML
+	 * file it was just written to or loaded from. Failing to do so is not
+	 * fatal, as the XML remains the authoritative source. Callers writing the
+	 * XML file have to hold the component lock, so the file does not change
+	 * before it is hashed.
+	 */
+	private void storeBinaryDescriptor(String configName, Configuration config, File configFile) {
+		if (!this.useBinaryDescriptors)
+			return;
+		try {
+			this.storeBinaryDescriptor(configName, config, configFile.length(), EcsDataStore.computeHash(configFile));
+		}
+		catch (IOException ioe) {
+			this.logWarning(ioe.getMessage() + " while hashing descriptor of configuration '" + configName + "'");
+			new File(this.configBasePath, (CONFIGURATION_FILE_PREFIX + configName + EcsConfigurationCodec.SIDECAR_FILE_SUFFIX)).delete();
+		}
+	}
+	
+	private void storeBinaryDescriptor(String configName, Configuration config, long configLength, String configHash) {
+		File binConfigFile = new File(this.configBasePath, (CONFIGURATION_FILE_PREFIX + configName + EcsConfigurationCodec.SIDECAR_FILE_SUFFIX));
+		try {
+			EcsConfigurationCodec.writeConfiguration(config, binConfigFile, configLength, configHash);
+		}
+		catch (IOException ioe) {
+			this.logWarning(ioe.getMessage() + " while storing binary descriptor of configuration '" + configName + "'");
+			binConfigFile.delete();
+		}
+	}
+	
 	/*
 	 * Store a new configuration descriptor, and compute the time since the last
 	 * update of this descriptor.
@@ -387,52 +1016,72 @@ TODO Start publishing update and deletion events
 			}
 		}
 		
+		//	write file outside lock, but put it in place and publish configuration along with resource name mappings inside, so file and registry agree
 		File configFile = new File(this.configBasePath, (CONFIGURATION_FILE_PREFIX + localConfig.name + ".xml"));
-		long configTime = configFile.lastModified();
-		
-		this.invalidate(configFile);
-		this.configurationsByName.remove(localConfig.name);
-		
-		configFile.createNewFile();
-		BufferedWriter bw = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(configFile)));
-		localConfig.writeXml(bw);
-		bw.flush();
-		bw.close();
-		
-		this.configurationsByName.put(localConfig.name, localConfig);
+		EcsFileWriter.AtomicWrite configWrite = this.prepareConfigurationFile(configFile, localConfig);
+		Configuration iLocalConfig = this.internConfiguration(localConfig);
+		long configTime;
+		synchronized (this) {
+			configTime = configFile.lastModified();
+			this.fileWriter.commit(configWrite);
+			this.storeBinaryDescriptor(localConfig.name, localConfig, configFile);
+			synchronized (this.registry) {
+				RegistryUpdate update = new RegistryUpdate(this.getRegistry());
+				update.configurationsByName().put(iLocalConfig.name, iLocalConfig);
+				update.configurationNames().add(iLocalConfig.name);
+				addResourceNameMappings(update.resourceNameMappings(), iLocalConfig);
+				this.registry.set(update.toRegistry());
+			}
+		}
+		localConfig = iLocalConfig;
+		this.clearProjectionCache();
+		this.uncacheSerializedConfiguration(localConfig.name);
 		
 		this.uaa.registerPermission(CONFIGURATION_PERMISSION_PREFIX + localConfig.name);
 		this.uaa.registerPermission(CONFIGURATION_PERMISSION_PREFIX + localConfig.name + CONFIGURATION_ALL_PERMISSION_SUFFIX);
+		this.invalidateUserPermissions(null);
 		
-		for (Iterator pit = localConfig.plugins.iterator(); pit.hasNext();) {
+		//	index dependencies of new configuration right away
+		this.getDependencyIndex(localConfig);
+		
+		this.publishChange(EcsEvent.CONFIGURATION_UPLOAD_TYPE, localConfig.name);
+		return (receiveTime - configTime);
+	}
+	
+	private static void addResourceNameMappings(TreeMap resourceNameMappings, Configuration config) {
+		for (Iterator pit = config.plugins.iterator(); pit.hasNext();) {
 			Plugin plugin = ((Plugin) pit.next());
 			for (Iterator rit = plugin.resources.iterator(); rit.hasNext();) {
 				Resource resource = ((Resource) rit.next());
-				this.resourceNameMappings.put((plugin.name + "." + resource.name), resource.name);
+				resourceNameMappings.put((plugin.name + "." + resource.name), resource.name);
 			}
 		}
-		
-		return (receiveTime - configTime);
 	}
 	
 	private Group getGroup(String groupName) {
-		Group group = ((Group) this.groupsByName.get(groupName));
+		Group group = ((Group) this.getRegistry().groupsByName.get(groupName));
 		if (group == null)
 			group = this.loadGroup(groupName);
 		return group;
 	}
 	
 	private synchronized Group loadGroup(String groupName) {
+		
+		//	check if other thread was faster
+		Group group = ((Group) this.getRegistry().groupsByName.get(groupName));
+		if (group != null)
+			return group;
+		
 		File groupFile = new File(this.dataPath, (GROUP_FILE_PREFIX + groupName + TXT_FILE_SUFFIX));
-		Group group = new Group(groupName);
+		group = new Group(groupName);
 		try {
 			BufferedReader br = new BufferedReader(new InputStreamReader(new FileInputStream(groupFile)));
 			String pluginOrResource;
 			while ((pluginOrResource = br.readLine()) != null) {
 				if (pluginOrResource.startsWith(PLUGIN_PREFIX))
-					group.plugins.add(pluginOrResource.substring(PLUGIN_PREFIX.length()).trim());
+					group.plugins.set(this.pluginNameIndex.getId(pluginOrResource.substring(PLUGIN_PREFIX.length()).trim()));
 				else if (pluginOrResource.startsWith(RESOURCE_PREFIX))
-					group.resources.add(pluginOrResource.substring(RESOURCE_PREFIX.length()).trim());
+					group.resources.set(this.resourceNameIndex.getId(pluginOrResource.substring(RESOURCE_PREFIX.length()).trim()));
 			}
 			br.close();
 		}
@@ -440,28 +1089,95 @@ TODO Start publishing update and deletion events
 			this.logError(ioe.getClass().getName() + " (" + ioe.getMessage() + ") while loading group '" + groupName + "'.");
 			this.logError(ioe);
 		}
+		
+		//	publish group
+		synchronized (this.registry) {
+			RegistryUpdate update = new RegistryUpdate(this.getRegistry());
+			update.groupsByName().put(group.name, group);
+			this.registry.set(update.toRegistry());
+		}
 		return group;
 	}
 	
-	private synchronized void saveGroup(Group group) throws IOException {
-		File groupFile = new File(this.dataPath, (GROUP_FILE_PREFIX + group.name + TXT_FILE_SUFFIX));
-		this.invalidate(groupFile);
-		groupFile.createNewFile();
-		
-		BufferedWriter bw = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(groupFile)));
+	/*
+	 * Store a group, replacing the argument previous version. If the group was
+	 * changed or created by another thread in the meantime, i.e., the group
+	 * in the registry is not the previous version any more, nothing is stored,
+	 * so callers can re-read the group and re-apply their change instead of
+	 * overwriting another thread's change. A null previous version indicates
+	 * the group is new.
+	 */
+	private boolean saveGroup(Group group, Group previous) throws IOException {
+		ArrayList lines = new ArrayList();
+		for (Iterator pit = this.pluginNameIndex.getNames(group.plugins).iterator(); pit.hasNext();)
+			lines.add(PLUGIN_PREFIX + pit.next().toString());
+		for (Iterator rit = this.resourceNameIndex.getNames(group.resources).iterator(); rit.hasNext();)
+			lines.add(RESOURCE_PREFIX + rit.next().toString());
 		
-		for (Iterator pit = group.plugins.iterator(); pit.hasNext();) {
-			bw.write(PLUGIN_PREFIX + pit.next().toString());
-			bw.newLine();
+		//	write file outside lock (so concurrent writes can share disk syncs), but put it in place inside
+		EcsFileWriter.AtomicWrite groupWrite = this.prepareListFile(new File(this.dataPath, (GROUP_FILE_PREFIX + group.name + TXT_FILE_SUFFIX)), lines);
+		synchronized (this) {
+			if (this.getRegistry().groupsByName.get(group.name) != previous) {
+				this.fileWriter.abort(groupWrite);
+				return false;
+			}
+			this.fileWriter.commit(groupWrite);
+			
+			//	publish group (replacing previous version)
+			synchronized (this.registry) {
+				RegistryUpdate update = new RegistryUpdate(this.getRegistry());
+				update.groupsByName().put(group.name, group);
+				this.registry.set(update.toRegistry());
+			}
+			this.clearProjectionCache();
 		}
 		
-		for (Iterator rit = group.resources.iterator(); rit.hasNext();) {
-			bw.write(RESOURCE_PREFIX + rit.next().toString());
-			bw.newLine();
+		this.publishChange(EcsEvent.GROUP_UPDATE_TYPE, group.name);
+		return true;
+	}
+	
+	/*
+	 * Crash safe writing of descriptor and list files, forcing them to disk
+	 * either individually or in groups. The content of the files is written
+	 * and forced to disk outside of any locks, so concurrent writes can share
+	 * a group commit. Files are then put in place inside the locks, to keep
+	 * files and the registry in the same order of updates.
+	 */
+	private EcsFileWriter fileWriter;
+	
+	private EcsFileWriter.AtomicWrite prepareConfigurationFile(File configFile, Configuration config) throws IOException {
+		EcsFileWriter.AtomicWrite configWrite = this.fileWriter.begin(configFile);
+		try {
+			BufferedWriter bw = new BufferedWriter(new OutputStreamWriter(configWrite));
+			config.writeXml(bw);
+			bw.flush();
+			bw.close();
+			this.fileWriter.prepare(configWrite);
+			return configWrite;
+		}
+		catch (IOException ioe) {
+			this.fileWriter.abort(configWrite);
+			throw ioe;
+		}
+	}
+	
+	private EcsFileWriter.AtomicWrite prepareListFile(File listFile, ArrayList lines) throws IOException {
+		EcsFileWriter.AtomicWrite listWrite = this.fileWriter.begin(listFile);
+		try {
+			BufferedWriter bw = new BufferedWriter(new OutputStreamWriter(listWrite));
+			for (int l = 0; l < lines.size(); l++) {
+				bw.write((String) lines.get(l));
+				bw.newLine();
+			}
+			bw.flush();
+			bw.close();
+			this.fileWriter.prepare(listWrite);
+			return listWrite;
+		}
+		catch (IOException ioe) {
+			this.fileWriter.abort(listWrite);
+			throw ioe;
 		}
-		
-		bw.flush();
-		bw.close();
 	}
 	
 	private void invalidate(File file) {
@@ -485,14 +1201,14 @@ TODO Start publishing update and deletion events
 				
 				//	check authentication
 				String sessionId = input.readLine();
-				if (!uaa.isValidSession(sessionId)) {
+				if (!isValidSession(sessionId)) {
 					output.write("Invalid session (" + sessionId + ")");
 					output.newLine();
 					return;
 				}
 				
 				//	get user name
-				String userName = uaa.getUserNameForSession(sessionId);
+				String userName = getUserNameForSession(sessionId);
 				
 				//	get configuration names
 				String[] configs = getConfigurationNames(userName);
@@ -515,18 +1231,17 @@ TODO Start publishing update and deletion events
 			public String getActionCommand() {
 				return GET_CONFIGURATION;
 			}
-			public void performActionNetwork(BufferedReader input, BufferedWriter output) throws IOException {
+			public void performActionNetwork(BufferedLineInputStream input, BufferedLineOutputStream output) throws IOException {
 				
 				//	check authentication
 				String sessionId = input.readLine();
-				if (!uaa.isValidSession(sessionId)) {
-					output.write("Invalid session (" + sessionId + ")");
-					output.newLine();
+				if (!isValidSession(sessionId)) {
+					output.writeLine("Invalid session (" + sessionId + ")");
 					return;
 				}
 				
 				//	get user name
-				String userName = uaa.getUserNameForSession(sessionId);
+				String userName = getUserNameForSession(sessionId);
 				
 				//	get configuration name
 				String configName = input.readLine();
@@ -536,35 +1251,29 @@ TODO Start publishing update and deletion events
 				String documentId = input.readLine();
 				if ("".equals(documentId)) documentId = null;
 				
-				//	get resources required for document
-				Set docResGroupSet = new HashSet();
-				if (documentId != null)
-					for (int f = 0; f < documentResourceFilterers.size(); f++) {
-						String[] docResGroups = ((DocumentResourceFilterer) documentResourceFilterers.get(f)).getGroupsForDocument(documentId);
-						if (docResGroups != null)
-							docResGroupSet.addAll(Arrays.asList(docResGroups));
-					}
-				if (docResGroupSet.isEmpty())
-					docResGroupSet = null;
+				//	get resources required for document (filterers asked in parallel, up to deadline)
+				EcsGroupSet docResGroupSet = ((documentId == null) ? null : documentGroupResolver.getGroupsForDocument(documentId));
 				
 				//	get base configuration for projection
 				Configuration baseConfig = ((configName == null) ? null : getConfiguration(configName));
 				if (baseConfig == null) baseConfig = getUserConfiguration(userName);
 				
-				//	get configuration
+				//	get serialized configuration
 				/*
 				 * if user is admin, do NOT project configuration, but deliver
 				 * "as is", with plain config name ==> makes Master
 				 * configurations recognizable and thus editable in client
 				 */
-				Configuration config = (uaa.isAdmin(userName) ? baseConfig : projectConfiguration(userName, docResGroupSet, baseConfig));
+				SerializedConfiguration config;
+				if (isAdmin(userName))
+					config = getSerializedConfiguration(baseConfig);
+				else config = getSerializedConfiguration(projectConfiguration(userName, docResGroupSet, baseConfig));
 				
 				//	indicate configuration coming
-				output.write(GET_CONFIGURATION);
-				output.newLine();
+				output.writeLine(GET_CONFIGURATION);
 				
-				//	send configuration
-				config.writeXml(output);
+				//	send configuration (projections are named after user)
+				config.writeXml(output, userName);
 				output.newLine();
 			}
 		};
@@ -579,7 +1288,7 @@ TODO Start publishing update and deletion events
 				
 				//	check authentication
 				String sessionId = input.readLine();
-				if (!uaa.isValidSession(sessionId) && (!CONFIG_SERVLET_SESSION_ID.equals(sessionId) || host.isRequestProxied())) {
+				if (!isValidSession(sessionId) && (!CONFIG_SERVLET_SESSION_ID.equals(sessionId) || host.isRequestProxied())) {
 					output.writeLine("Invalid session (" + sessionId + ")");
 					return;
 				}
@@ -588,24 +1297,80 @@ TODO Start publishing update and deletion events
 				String dataName = input.readLine();
 				logDebug("Data name is " + dataName);
 				
-				//	create and check data file
-				File dataFile = new File(dataPath, dataName);
-				if (dataFile.exists() && dataFile.isFile()) {
-					logDebug("File is " + dataFile.getAbsolutePath());
+				//	get and check data file
+				DataEntry dataEntry = getDataEntry(dataName);
+				if (dataEntry != null) {
+					logDebug("File is " + dataEntry.file.getAbsolutePath());
 					
 					//	indicate data coming
 					output.writeLine(GET_DATA);
 					
 					//	send data
-					FileInputStream fis = new FileInputStream(dataFile);
-					byte[] buffer = new byte[1024];
-					int read;
-					logDebug("Got streams, start sending");
-					while ((read = fis.read(buffer)) != -1)
-						output.write(buffer, 0, read);
+					logDebug("Start sending");
+					sendDataFile(dataEntry.file, output);
+					logDebug("Data sent");
+				}
+				
+				//	indicate failure
+				else output.writeLine("Data not found, or it's a directory");
+			}
+		};
+		cal.add(ca);
+		
+		//	get byte range of data item
+		ca = new ComponentActionNetwork() {
+			public String getActionCommand() {
+				return GET_DATA_RANGE;
+			}
+			public void performActionNetwork(BufferedLineInputStream input, BufferedLineOutputStream output) throws IOException {
+				
+				//	check authentication
+				String sessionId = input.readLine();
+				if (!isValidSession(sessionId) && (!CONFIG_SERVLET_SESSION_ID.equals(sessionId) || host.isRequestProxied())) {
+					output.writeLine("Invalid session (" + sessionId + ")");
+					return;
+				}
+				
+				//	read data name and range
+				String dataName = input.readLine();
+				logDebug("Data name is " + dataName);
+				long offset;
+				long length;
+				try {
+					offset = Long.parseLong(input.readLine());
+					length = Long.parseLong(input.readLine());
+				}
+				catch (NumberFormatException nfe) {
+					output.writeLine("Invalid range specification");
+					return;
+				}
+				logDebug("Range is " + offset + "+" + length);
+				
+				//	get and check data file
+				DataEntry dataEntry = getDataEntry(dataName);
+				if (dataEntry != null) {
+					logDebug("File is " + dataEntry.file.getAbsolutePath());
+					
+					//	check range (negative length indicates to send all data from offset)
+					long size = dataEntry.file.length();
+					if ((offset < 0) || (offset > size)) {
+						output.writeLine("Invalid range, data size is " + size);
+						return;
+					}
+					if ((length < 0) || ((offset + length) > size))
+						length = (size - offset);
+					
+					//	indicate data coming, and send total size, timestamp and content hash (to recognize new versions on resume, hash empty if not in content addressed storage), and range length
+					output.writeLine(GET_DATA_RANGE);
+					output.writeLine("" + size);
+					output.writeLine("" + dataEntry.lastModified);
+					output.writeLine((dataEntry.hash == null) ? "" : dataEntry.hash);
+					output.writeLine("" + length);
+					
+					//	send data
+					logDebug("Start sending");
+					sendDataFile(dataEntry.file, offset, length, output);
 					logDebug("Data sent");
-					fis.close();
-					logDebug("Streams closed");
 				}
 				
 				//	indicate failure
@@ -623,18 +1388,24 @@ TODO Start publishing update and deletion events
 				
 				//	check authentication
 				String sessionId = input.readLine();
-				if (!uaa.isValidSession(sessionId) && (!CONFIG_SERVLET_SESSION_ID.equals(sessionId) || host.isRequestProxied())) {
+				if (!isValidSession(sessionId) && (!CONFIG_SERVLET_SESSION_ID.equals(sessionId) || host.isRequestProxied())) {
 					output.write("Invalid session (" + sessionId + ")");
 					output.newLine();
 					return;
 				}
 				
-				//	read data names
+				//	read data names, and compression policy requested by client
 				logDebug("Reading data names");
 				ArrayList dataNames = new ArrayList();
+				DataCompressionPolicy compressionPolicy = dataCompressionPolicy;
 				for (String dataName; (dataName = input.readLine()) != null;) {
 					if (dataName.length() == 0)
 						break;
+					if (dataName.startsWith(DATA_COMPRESSION_POLICY_PREFIX)) {
+						compressionPolicy = dataCompressionPolicy.combine(DataCompressionPolicy.parse(dataName.substring(DATA_COMPRESSION_POLICY_PREFIX.length())));
+						logDebug(" - compression policy is " + compressionPolicy.toString());
+						continue;
+					}
 					dataNames.add(dataName);
 					logDebug(" - " + dataName);
 				}
@@ -655,22 +1426,17 @@ TODO Start publishing update and deletion events
 				logDebug("Sending data");
 				for (int d = 0; d < dataNames.size(); d++) {
 					String dataName = ((String) dataNames.get(d));
-					File dataFile = new File(dataPath, dataName);
-					if (dataFile.exists() && dataFile.isFile()) {
-						logDebug(" - file is " + dataFile.getAbsolutePath());
+					DataEntry dataEntry = getDataEntry(dataName);
+					if (dataEntry != null) {
+						logDebug(" - file is " + dataEntry.file.getAbsolutePath());
 						
 						ZipEntry ze = new ZipEntry(dataName);
-						ze.setTime(dataFile.lastModified());
-						zip.putNextEntry(ze);
+						ze.setTime(dataEntry.lastModified);
+						compressionPolicy.putNextEntry(zip, ze, dataEntry.file);
 						
-						FileInputStream fis = new FileInputStream(dataFile);
-						byte[] buffer = new byte[1024];
-						int read;
-						logDebug("   - got streams, start sending");
-						while ((read = fis.read(buffer)) != -1)
-							zip.write(buffer, 0, read);
+						logDebug("   - start sending");
+						sendDataFile(dataEntry.file, zip);
 						logDebug("   - data sent");
-						fis.close();
 						zip.flush();
 						zip.closeEntry();
 						logDebug("   - streams closed");
@@ -683,6 +1449,30 @@ TODO Start publishing update and deletion events
 		};
 		cal.add(ca);
 		
+		//	get data compression policy
+		ca = new ComponentActionNetwork() {
+			public String getActionCommand() {
+				return GET_DATA_COMPRESSION_POLICY;
+			}
+			public void performActionNetwork(BufferedReader input, BufferedWriter output) throws IOException {
+				
+				//	check authentication
+				String sessionId = input.readLine();
+				if (!isValidSession(sessionId) && (!CONFIG_SERVLET_SESSION_ID.equals(sessionId) || host.isRequestProxied())) {
+					output.write("Invalid session (" + sessionId + ")");
+					output.newLine();
+					return;
+				}
+				
+				//	send policy
+				output.write(GET_DATA_COMPRESSION_POLICY);
+				output.newLine();
+				output.write(dataCompressionPolicy.toString());
+				output.newLine();
+			}
+		};
+		cal.add(ca);
+		
 		//	update data
 		ca = new ComponentActionNetwork() {
 			public String getActionCommand() {
@@ -692,11 +1482,11 @@ TODO Start publishing update and deletion events
 				
 				//	check authentication
 				String sessionId = input.readLine();
-				if (!uaa.isValidSession(sessionId)) {
+				if (!isValidSession(sessionId)) {
 					output.writeLine("Invalid session (" + sessionId + ")");
 					return;
 				}
-				else if (!uaa.isAdminSession(sessionId)) {
+				else if (!isAdminSession(sessionId)) {
 					output.writeLine("Administrative privileges required");
 					return;
 				}
@@ -708,6 +1498,20 @@ TODO Start publishing update and deletion events
 				//	create and check data file
 				File dataFile = new File(dataPath, dataName);
 				
+				//	use content addressed storage if enabled
+				if (dataStore != null) {
+					if (dataFile.isDirectory()) {
+						output.writeLine("Cannot write to directory");
+						return;
+					}
+					dataStore.storeData(dataName, input, System.currentTimeMillis());
+					invalidate(dataFile);
+					logDebug("Data stored");
+					publishChange(EcsEvent.DATA_UPDATE_TYPE, dataName);
+					output.writeLine(UPDATE_DATA);
+					return;
+				}
+				
 				//	data file exists, make way
 				if (dataFile.exists()) {
 					if (dataFile.isFile())
@@ -733,6 +1537,7 @@ TODO Start publishing update and deletion events
 				fos.close();
 				
 				logDebug("Done");
+				publishChange(EcsEvent.DATA_UPDATE_TYPE, dataName);
 				output.writeLine(UPDATE_DATA);
 			}
 		};
@@ -747,12 +1552,12 @@ TODO Start publishing update and deletion events
 				
 				//	check authentication
 				String sessionId = input.readLine();
-				if (!uaa.isValidSession(sessionId)) {
+				if (!isValidSession(sessionId)) {
 					output.write("Invalid session (" + sessionId + ")");
 					output.newLine();
 					return;
 				}
-				else if (!uaa.isAdminSession(sessionId)) {
+				else if (!isAdminSession(sessionId)) {
 					output.write("Administrative privileges required");
 					output.newLine();
 					return;
@@ -761,6 +1566,7 @@ TODO Start publishing update and deletion events
 				//	use ZIP input stream
 				logDebug("Receiving data");
 				ZipInputStream zip = new ZipInputStream(input);
+				ArrayList dataNames = new ArrayList();
 				for (ZipEntry ze; (ze = zip.getNextEntry()) != null;) {
 					
 					//	read data name
@@ -770,6 +1576,19 @@ TODO Start publishing update and deletion events
 					//	create and check data file
 					File dataFile = new File(dataPath, dataName);
 					
+					//	use content addressed storage if enabled
+					if (dataStore != null) {
+						if (dataFile.isDirectory()) {
+							logWarning("Cannot write to directory: " + dataName);
+							continue;
+						}
+						dataStore.storeData(dataName, zip, ze.getTime(), false);
+						invalidate(dataFile);
+						logDebug("   - data stored");
+						dataNames.add(dataName);
+						continue;
+					}
+					
 					//	data file exists, make way
 					if (dataFile.exists()) {
 						if (dataFile.isFile())
@@ -794,8 +1613,17 @@ TODO Start publishing update and deletion events
 					fos.flush();
 					fos.close();
 					dataFile.setLastModified(ze.getTime());
+					dataNames.add(dataName);
 				}
 				
+				//	store manifests of content addressed storage
+				if (dataStore != null)
+					dataStore.storeManifests();
+				
+				//	record changes only now that data is complete
+				for (int d = 0; d < dataNames.size(); d++)
+					publishChange(EcsEvent.DATA_UPDATE_TYPE, ((String) dataNames.get(d)));
+				
 				//	report success
 				logDebug("Done");
 				output.write(UPDATE_DATAS);
@@ -813,12 +1641,12 @@ TODO Start publishing update and deletion events
 				
 				//	check authentication
 				String sessionId = input.readLine();
-				if (!uaa.isValidSession(sessionId)) {
+				if (!isValidSession(sessionId)) {
 					output.write("Invalid session (" + sessionId + ")");
 					output.newLine();
 					return;
 				}
-				else if (!uaa.isAdminSession(sessionId)) {
+				else if (!isAdminSession(sessionId)) {
 					output.write("Administrative priviledges required");
 					output.newLine();
 					return;
@@ -828,13 +1656,15 @@ TODO Start publishing update and deletion events
 				String dataName = input.readLine();
 				logDebug("Data name is " + dataName);
 				
-				//	create and check data file
+				//	create and check data file (removing it from content addressed storage first)
 				File dataFile = new File(dataPath, dataName);
-				if (dataFile.exists() && dataFile.isFile()) {
+				boolean dataStoreDeleted = ((dataStore != null) && dataStore.deleteData(dataName));
+				if (dataStoreDeleted || (dataFile.exists() && dataFile.isFile())) {
 					logDebug("File is " + dataFile.getAbsolutePath());
 					
-					dataFile.renameTo(new File(dataFile.getAbsolutePath() + "." + System.currentTimeMillis() + ".old"));
+					invalidate(dataFile);
 					logDebug("File deleted");
+					publishChange(EcsEvent.DATA_DELETE_TYPE, dataName);
 					
 					//	indicate configuration coming
 					output.write(DELETE_DATA);
@@ -861,31 +1691,36 @@ TODO Start publishing update and deletion events
 				//	check authentication (bypassing UAA for descriptor requests from config servlet)
 				String sessionId = input.readLine();
 				if (CONFIG_SERVLET_SESSION_ID.equals(sessionId) && !host.isRequestProxied()) {}
-				else if (!uaa.isValidSession(sessionId)) {
+				else if (!isValidSession(sessionId)) {
 					output.write("Invalid session (" + sessionId + ")");
 					output.newLine();
 					return;
 				}
-				else if (!uaa.isAdminSession(sessionId)) {
+				else if (!isAdminSession(sessionId)) {
 					output.write("Administrative priviledges required");
 					output.newLine();
 					return;
 				}
 				
-				//	get configurations and create stubs
-				Configuration[] configs = ((Configuration[]) configurationsByName.values().toArray(new Configuration[configurationsByName.size()]));
-				for (int c = 0; c < configs.length; c++)
-					configs[c] = new Configuration(configs[c].name, configs[c]);
+				//	get configurations and create stubs (loading them if not done before)
+				Registry registry = getRegistry();
+				String[] configNames = ((String[]) registry.configurationNames.toArray(new String[registry.configurationNames.size()]));
+				ArrayList configs = new ArrayList(configNames.length);
+				for (int c = 0; c < configNames.length; c++) {
+					if (CONFIG_SERVLET_SESSION_ID.equals(sessionId) && !registry.onlineConfigurations.contains(configNames[c]))
+						continue;
+					Configuration config = getConfiguration(configNames[c]);
+					if (config != null)
+						configs.add(new Configuration(config.name, config));
+				}
 				
 				//	indicate configurations coming
 				output.write(GET_CONFIGURATION_DESCRIPTORS);
 				output.newLine();
 				
 				//	send configurations
-				for (int c = 0; c < configs.length; c++) {
-					if (CONFIG_SERVLET_SESSION_ID.equals(sessionId) && !onlineConfigurations.contains(configs[c].name))
-						continue;
-					configs[c].writeXml(output);
+				for (int c = 0; c < configs.size(); c++) {
+					((Configuration) configs.get(c)).writeXml(output);
 					output.newLine(); // additional newline for separation
 				}
 			}
@@ -897,19 +1732,17 @@ TODO Start publishing update and deletion events
 			public String getActionCommand() {
 				return GET_CONFIGURATION_DESCRIPTOR;
 			}
-			public void performActionNetwork(BufferedReader input, BufferedWriter output) throws IOException {
+			public void performActionNetwork(BufferedLineInputStream input, BufferedLineOutputStream output) throws IOException {
 				
 				//	check authentication (bypassing UAA for descriptor requests from config servlet)
 				String sessionId = input.readLine();
 				if (CONFIG_SERVLET_SESSION_ID.equals(sessionId) && !host.isRequestProxied()) {}
-				else if (!uaa.isValidSession(sessionId)) {
-					output.write("Invalid session (" + sessionId + ")");
-					output.newLine();
+				else if (!isValidSession(sessionId)) {
+					output.writeLine("Invalid session (" + sessionId + ")");
 					return;
 				}
-				else if (!uaa.isAdminSession(sessionId)) {
-					output.write("Administrative priviledges required");
-					output.newLine();
+				else if (!isAdminSession(sessionId)) {
+					output.writeLine("Administrative priviledges required");
 					return;
 				}
 				
@@ -918,9 +1751,8 @@ TODO Start publishing update and deletion events
 				if ("".equals(configName)) configName = null;
 				logDebug("Config name is '" + configName + "'");
 				
-				if (CONFIG_SERVLET_SESSION_ID.equals(sessionId) && !onlineConfigurations.contains(configName)) {
-					output.write("Configuration '" + configName + "' is not an online configuration");
-					output.newLine();
+				if (CONFIG_SERVLET_SESSION_ID.equals(sessionId) && !getRegistry().onlineConfigurations.contains(configName)) {
+					output.writeLine("Configuration '" + configName + "' is not an online configuration");
 					return;
 				}
 				
@@ -931,20 +1763,18 @@ TODO Start publishing update and deletion events
 				//	indicate missing configuration
 				if (config == null) {
 					logDebug("  config not found");
-					output.write("Configuration not found.");
-					output.newLine();
+					output.writeLine("Configuration not found.");
 				}
 				
 				else {
 					logDebug("  config found");
 					
 					//	indicate configuration coming
-					output.write(GET_CONFIGURATION_DESCRIPTOR);
-					output.newLine();
+					output.writeLine(GET_CONFIGURATION_DESCRIPTOR);
 					logDebug("  sending descriptor");
 					
 					//	send configuration
-					config.writeXml(output);
+					getSerializedConfiguration(config).writeXml(output, config.name);
 					output.newLine();
 					logDebug("  descriptor sent");
 				}
@@ -961,12 +1791,12 @@ TODO Start publishing update and deletion events
 				
 				//	check authentication
 				String sessionId = input.readLine();
-				if (!uaa.isValidSession(sessionId)) {
+				if (!isValidSession(sessionId)) {
 					output.write("Invalid session (" + sessionId + ")");
 					output.newLine();
 					return;
 				}
-				else if (!uaa.isAdminSession(sessionId)) {
+				else if (!isAdminSession(sessionId)) {
 					output.write("Administrative priviledges required");
 					output.newLine();
 					return;
@@ -1025,12 +1855,12 @@ TODO Start publishing update and deletion events
 				
 				//	check authentication
 				String sessionId = input.readLine();
-				if (!uaa.isValidSession(sessionId)) {
+				if (!isValidSession(sessionId)) {
 					output.write("Invalid session (" + sessionId + ")");
 					output.newLine();
 					return;
 				}
-				else if (!uaa.isAdminSession(sessionId)) {
+				else if (!isAdminSession(sessionId)) {
 					output.write("Administrative priviledges required");
 					output.newLine();
 					return;
@@ -1061,79 +1891,11 @@ TODO Start publishing update and deletion events
 		cal.add(ca);
 		
 		//	upload a new configuration
-		ca = new ComponentActionNetwork() {
-			public String getActionCommand() {
-				return UPLOAD_CONFIGURATION;
-			}
-			public void performActionNetwork(final BufferedReader input, BufferedWriter output) throws IOException {
-				
-				//	check authentication
-				String sessionId = input.readLine();
-				if (!uaa.isValidSession(sessionId)) {
-					output.write("Invalid session (" + sessionId + ")");
-					output.newLine();
-					return;
-				}
-				else if (!uaa.isAdminSession(sessionId)) {
-					output.write("Administrative priviledges required");
-					output.newLine();
-					return;
-				}
-				logDebug("Receiving configuration ...");
-				
-				//	remember receive time
-				long receiveTime = System.currentTimeMillis();
-				
-				//	read configuration descriptor (up to the next blank line)
-				Configuration config = Configuration.readConfiguration(new Reader() {
-					BufferedReader in = input;
-					StringReader sr = null;
-					public void close() throws IOException {
-						input.close();
-					}
-					public int read(char[] cbuf, int off, int len) throws IOException {
-						if (this.in == null)
-							return -1;
-						if (this.sr == null) {
-							String line = this.in.readLine();
-							if ((line != null) && (line.length() != 0))
-								this.sr = new StringReader(line + "\r\n");
-							else {
-								this.in = null;
-								return -1;
-							}
-						}
-						int read = this.sr.read(cbuf, off, len);
-						if (read == -1) {
-							this.sr = null;
-							return this.read(cbuf, off, len);
-						}
-						else return read;
-					}
-				});
-				
-				//	get last update time of local files
-				long configAge = uploadConfiguration(config, receiveTime);
-				
-				//	get file list
-				StringVector files = ConfigurationUtils.listFilesRelative(new File(dataPath, config.name));
-				
-				//	indicate success
-				output.write(UPLOAD_CONFIGURATION);
-				output.newLine();
-				
-				//	send timestamps
-				output.write("" + configAge);
-				output.newLine();
-				
-				//	send file list
-				for (int f = 0; f < files.size(); f++) {
-					output.write(files.get(f));
-					output.newLine();
-				}
-				output.newLine();
-			}
-		};
+		ca = new UploadConfigurationAction(UPLOAD_CONFIGURATION, false);
+		cal.add(ca);
+		
+		//	upload a new configuration, sending back content hashes of data files
+		ca = new UploadConfigurationAction(UPLOAD_CONFIGURATION_HASHED, true);
 		cal.add(ca);
 		
 		
@@ -1141,6 +1903,7 @@ TODO Start publishing update and deletion events
 		ca = new ListAction(GET_USER_CONFIGURATIONS) {
 			String[] getList() throws IOException {
 				String[] userNames = uaa.getUserNames();
+				TreeMap userDefaultConfigurations = getRegistry().userDefaultConfigurations;
 				for (int u = 0; u < userNames.length; u++) {
 					String configName = ((String) userDefaultConfigurations.get(userNames[u]));
 					userNames[u] = (userNames[u] + ":" + ((configName == null) ? ("<" + masterConfiguration.name + ">") : configName));
@@ -1159,31 +1922,28 @@ TODO Start publishing update and deletion events
 				
 				//	check authentication
 				String sessionId = input.readLine();
-				if (!uaa.isValidSession(sessionId)) {
+				if (!isValidSession(sessionId)) {
 					output.write("Invalid session (" + sessionId + ")");
 					output.newLine();
 					return;
 				}
-				else if (!uaa.isAdminSession(sessionId)) {
+				else if (!isAdminSession(sessionId)) {
 					output.write("Administrative priviledges required");
 					output.newLine();
 					return;
 				}
 				
-				//	create backup
-				HashMap backup = new HashMap();
-				backup.putAll(userDefaultConfigurations);
-				
-				//	process data
+				//	process data (registry remains unchanged if saving fails)
 				try {
-					userDefaultConfigurations.clear();
+					TreeSet configurationNames = getRegistry().configurationNames;
+					TreeMap userDefaultConfigurations = new TreeMap();
 					String userConfig;
 					while (((userConfig = input.readLine()) != null) && (userConfig.length() != 0)) {
 						String[] userConfigParts = userConfig.split("\\:");
-						if ((userConfigParts.length == 2) && configurationsByName.containsKey(userConfigParts[1]))
+						if ((userConfigParts.length == 2) && configurationNames.contains(userConfigParts[1]))
 							userDefaultConfigurations.put(userConfigParts[0], userConfigParts[1]);
 					}
-					saveUserConfigurations();
+					saveUserConfigurations(userDefaultConfigurations);
 					
 					//	indicate success
 					output.write(SET_USER_CONFIGURATIONS);
@@ -1191,10 +1951,6 @@ TODO Start publishing update and deletion events
 				}
 				catch (Exception e) {
 					
-					//	restore data
-					userDefaultConfigurations.clear();
-					userDefaultConfigurations.putAll(backup);
-					
 					//	indicate failure
 					output.write("Could not update user default configurations: " + e.getMessage());
 					output.newLine();
@@ -1203,9 +1959,86 @@ TODO Start publishing update and deletion events
 		};
 		cal.add(ca);
 		
+		//	set or unset default configuration for individual user
+		ca = new SetUserConfigurationAction(SET_USER_CONFIGURATION, true);
+		cal.add(ca);
+		ca = new SetUserConfigurationAction(UNSET_USER_CONFIGURATION, false);
+		cal.add(ca);
+		
+		//	list default configurations for users page by page
+		ca = new ComponentActionNetwork() {
+			public String getActionCommand() {
+				return LIST_USER_CONFIGURATIONS;
+			}
+			public void performActionNetwork(BufferedReader input, BufferedWriter output) throws IOException {
+				
+				//	check authentication
+				String sessionId = input.readLine();
+				if (!isValidSession(sessionId)) {
+					output.write("Invalid session (" + sessionId + ")");
+					output.newLine();
+					return;
+				}
+				else if (!isAdminSession(sessionId)) {
+					output.write("Administrative priviledges required");
+					output.newLine();
+					return;
+				}
+				
+				//	read user name prefix, page, and whether or not to include users without default configuration
+				String prefix = input.readLine();
+				int offset;
+				int limit;
+				try {
+					offset = Integer.parseInt(input.readLine());
+					limit = Integer.parseInt(input.readLine());
+				}
+				catch (NumberFormatException nfe) {
+					output.write("Invalid offset or limit");
+					output.newLine();
+					return;
+				}
+				boolean allUsers = "true".equals(input.readLine());
+				if (prefix == null)
+					prefix = "";
+				
+				//	get matching users (all users from UAA only if asked to)
+				TreeMap userDefaultConfigurations = getRegistry().userDefaultConfigurations;
+				SortedSet userNames;
+				if (allUsers) {
+					userNames = new TreeSet();
+					String[] uaaUserNames = uaa.getUserNames();
+					for (int u = 0; u < uaaUserNames.length; u++) {
+						if (uaaUserNames[u].startsWith(prefix))
+							userNames.add(uaaUserNames[u]);
+					}
+				}
+				else userNames = new TreeSet(userDefaultConfigurations.subMap(prefix, (prefix + Character.MAX_VALUE)).keySet());
+				
+				//	send total count and requested page
+				output.write(LIST_USER_CONFIGURATIONS);
+				output.newLine();
+				output.write("" + userNames.size());
+				output.newLine();
+				int u = 0;
+				for (Iterator uit = userNames.iterator(); uit.hasNext(); u++) {
+					String userName = ((String) uit.next());
+					if (u < offset)
+						continue;
+					if ((limit >= 0) && (u >= (offset + limit)))
+						break;
+					String configName = ((String) userDefaultConfigurations.get(userName));
+					output.write(userName + ":" + ((configName == null) ? ("<" + masterConfiguration.name + ">") : configName));
+					output.newLine();
+				}
+			}
+		};
+		cal.add(ca);
+		
 		//	get online configurations
 		ca = new ListAction(GET_ONLINE_CONFIGURATIONS) {
 			String[] getList() throws IOException {
+				TreeSet onlineConfigurations = getRegistry().onlineConfigurations;
 				return ((String[]) onlineConfigurations.toArray(new String[onlineConfigurations.size()]));
 			}
 		};
@@ -1220,12 +2053,12 @@ TODO Start publishing update and deletion events
 				
 				//	check authentication
 				String sessionId = input.readLine();
-				if (!uaa.isValidSession(sessionId)) {
+				if (!isValidSession(sessionId)) {
 					output.write("Invalid session (" + sessionId + ")");
 					output.newLine();
 					return;
 				}
-				else if (!uaa.isAdminSession(sessionId)) {
+				else if (!isAdminSession(sessionId)) {
 					output.write("Administrative priviledges required");
 					output.newLine();
 					return;
@@ -1233,11 +2066,11 @@ TODO Start publishing update and deletion events
 				
 				//	process data
 				try {
-					onlineConfigurations.clear();
+					TreeSet onlineConfigurations = new TreeSet();
 					String onlineConfig;
 					while (((onlineConfig = input.readLine()) != null) && (onlineConfig.length() != 0))
 						onlineConfigurations.add(onlineConfig);
-					saveOnlineConfigurations();
+					saveOnlineConfigurations(onlineConfigurations);
 					
 					//	indicate success
 					output.write(SET_ONLINE_CONFIGURATIONS);
@@ -1256,6 +2089,7 @@ TODO Start publishing update and deletion events
 		
 		ca = new ListAction(GET_GROUPS) {
 			String[] getList() throws IOException {
+				TreeMap groupsByName = getRegistry().groupsByName;
 				return ((String[]) groupsByName.keySet().toArray(new String[groupsByName.size()]));
 			}
 		};
@@ -1284,12 +2118,12 @@ TODO Start publishing update and deletion events
 				
 				//	check authentication
 				String sessionId = input.readLine();
-				if (!uaa.isValidSession(sessionId)) {
+				if (!isValidSession(sessionId)) {
 					output.write("Invalid session (" + sessionId + ")");
 					output.newLine();
 					return;
 				}
-				else if (!uaa.isAdminSession(sessionId)) {
+				else if (!isAdminSession(sessionId)) {
 					output.write("Administrative priviledges required");
 					output.newLine();
 					return;
@@ -1316,12 +2150,12 @@ TODO Start publishing update and deletion events
 				
 				//	check authentication
 				String sessionId = input.readLine();
-				if (!uaa.isValidSession(sessionId)) {
+				if (!isValidSession(sessionId)) {
 					output.write("Invalid session (" + sessionId + ")");
 					output.newLine();
 					return;
 				}
-				else if (!uaa.isAdminSession(sessionId)) {
+				else if (!isAdminSession(sessionId)) {
 					output.write("Administrative priviledges required");
 					output.newLine();
 					return;
@@ -1369,370 +2203,2064 @@ TODO Start publishing update and deletion events
 		};
 		cal.add(ca);
 		
-		return ((ComponentAction[]) cal.toArray(new ComponentAction[cal.size()]));
-	}
-	
-	private abstract class ListAction extends ComponentActionNetwork {
-		private String actionCommand;
-		ListAction(String actionCommand) {
-			this.actionCommand = actionCommand;
-		}
-		public String getActionCommand() {
-			return this.actionCommand;
-		}
-		public void performActionNetwork(BufferedReader input, BufferedWriter output) throws IOException {
-			
-			//	check authentication
-			String sessionId = input.readLine();
-			if (!uaa.isValidSession(sessionId)) {
-				output.write("Invalid session (" + sessionId + ")");
-				output.newLine();
-				return;
+		//	get all groups with their plugins and resources
+		ca = new ComponentActionNetwork() {
+			public String getActionCommand() {
+				return GET_GROUP_SNAPSHOT;
 			}
-			else if (!uaa.isAdminSession(sessionId)) {
-				output.write("Administrative priviledges required");
+			public void performActionNetwork(BufferedReader input, BufferedWriter output) throws IOException {
+				
+				//	check authentication
+				String sessionId = input.readLine();
+				if (!isValidSession(sessionId)) {
+					output.write("Invalid session (" + sessionId + ")");
+					output.newLine();
+					return;
+				}
+				else if (!isAdminSession(sessionId)) {
+					output.write("Administrative priviledges required");
+					output.newLine();
+					return;
+				}
+				
+				//	read version of snapshot client has
+				long knownVersion;
+				try {
+					knownVersion = Long.parseLong(input.readLine());
+				}
+				catch (NumberFormatException nfe) {
+					output.write("Invalid snapshot version");
+					output.newLine();
+					return;
+				}
+				
+				//	get version before groups, so snapshot is at least as recent as version says
+				long version = groupsVersion;
+				TreeMap groupsByName = getRegistry().groupsByName;
+				
+				//	send version
+				output.write(GET_GROUP_SNAPSHOT);
 				output.newLine();
-				return;
+				output.write("" + version);
+				output.newLine();
+				
+				//	client up to date
+				if ((version >= 0) && (version == knownVersion))
+					return;
+				
+				//	send groups
+				for (Iterator git = groupsByName.values().iterator(); git.hasNext();) {
+					Group group = ((Group) git.next());
+					output.write(GROUP_PREFIX + group.name);
+					output.newLine();
+					for (Iterator pit = pluginNameIndex.getNames(group.plugins).iterator(); pit.hasNext();) {
+						output.write(PLUGIN_PREFIX + pit.next().toString());
+						output.newLine();
+					}
+					for (Iterator rit = resourceNameIndex.getNames(group.resources).iterator(); rit.hasNext();) {
+						output.write(RESOURCE_PREFIX + rit.next().toString());
+						output.newLine();
+					}
+				}
 			}
-			
-			//	get list
-			String[] list;
-			try {
-				list = getList();
+		};
+		cal.add(ca);
+		
+		
+		//	get changes after some sequence number
+		ca = new GetChangesAction(GET_CHANGES, false);
+		cal.add(ca);
+		
+		//	wait for changes after some sequence number
+		ca = new GetChangesAction(WAIT_FOR_CHANGES, true);
+		cal.add(ca);
+		
+		//	get metrics in machine readable form
+		ca = new ComponentActionNetwork() {
+			public String getActionCommand() {
+				return GET_METRICS;
 			}
-			catch (IOException ioe) {
-				output.write(ioe.getMessage());
+			public void performActionNetwork(BufferedReader input, BufferedWriter output) throws IOException {
+				
+				//	check authentication
+				String sessionId = input.readLine();
+				if (!isValidSession(sessionId)) {
+					output.write("Invalid session (" + sessionId + ")");
+					output.newLine();
+					return;
+				}
+				else if (!isAdminSession(sessionId)) {
+					output.write("Administrative priviledges required");
+					output.newLine();
+					return;
+				}
+				
+				//	send metrics
+				output.write(GET_METRICS);
 				output.newLine();
-				return;
+				String[] dumpLines = getMetricsDump();
+				for (int l = 0; l < dumpLines.length; l++) {
+					output.write(dumpLines[l]);
+					output.newLine();
+				}
+			}
+		};
+		cal.add(ca);
+		
+		//	execute multiple text based actions over one connection
+		for (int a = 0; a < cal.size(); a++) {
+			if (!(cal.get(a) instanceof ComponentActionNetwork))
+				continue;
+			ComponentActionNetwork cna = ((ComponentActionNetwork) cal.get(a));
+			if (BATCH_ACTION_COMMANDS.contains(cna.getActionCommand()))
+				this.batchActions.put(cna.getActionCommand(), cna);
+		}
+		ca = new BatchAction();
+		cal.add(ca);
+		
+		
+		//	show projection cache statistics, or clear projection cache
+		ca = new ComponentActionConsole() {
+			public String getActionCommand() {
+				return PROJECTION_CACHE_COMMAND;
+			}
+			public String[] getExplanation() {
+				String[] explanation = {
+						PROJECTION_CACHE_COMMAND + " <clear>",
+						"Show the statistics of the configuration projection cache, or clear the cache:",
+						"- <clear>: set to '-c' to clear the projection cache (optional)"
+					};
+				return explanation;
+			}
+			public void performActionConsole(String[] arguments) {
+				if (arguments.length == 0) {
+					long[] stats = getProjectionCacheStats();
+					this.reportResult(" Projection cache holds " + stats[0] + " of at most " + projectionCacheSize + " projected configurations.");
+					this.reportResult(" " + stats[1] + " hits, " + stats[2] + " misses" + (((stats[1] + stats[2]) == 0) ? "" : (", hit rate " + ((stats[1] * 100) / (stats[1] + stats[2])) + "%")));
+				}
+				else if ((arguments.length == 1) && "-c".equals(arguments[0])) {
+					clearProjectionCache();
+					this.reportResult(" Projection cache cleared.");
+				}
+				else this.reportError(" Invalid arguments for '" + this.getActionCommand() + "', specify '-c' or no argument at all.");
+			}
+		};
+		cal.add(ca);
+		
+		//	show permission index statistics, or invalidate permissions
+		ca = new ComponentActionConsole() {
+			public String getActionCommand() {
+				return PERMISSION_CACHE_COMMAND;
+			}
+			public String[] getExplanation() {
+				String[] explanation = {
+						PERMISSION_CACHE_COMMAND + " <clear> <userName>",
+						"Show the statistics of the user permission index, or invalidate cached permissions:",
+						"- <clear>: set to '-c' to invalidate cached permissions (optional)",
+						"- <userName>: the user to invalidate the permissions for (optional, invalidates all users if omitted)"
+					};
+				return explanation;
+			}
+			public void performActionConsole(String[] arguments) {
+				if (arguments.length == 0) {
+					long[] stats = getUserPermissionsStats();
+					this.reportResult(" Permission index holds permissions of " + stats[0] + " of at most " + userPermissionsCacheSize + " users, timeout is " + (userPermissionsTimeout / 1000) + " seconds.");
+					this.reportResult(" " + stats[1] + " hits, " + stats[2] + " misses" + (((stats[1] + stats[2]) == 0) ? "" : (", hit rate " + ((stats[1] * 100) / (stats[1] + stats[2])) + "%")));
+				}
+				else if ((arguments.length == 1) && "-c".equals(arguments[0])) {
+					invalidateUserPermissions(null);
+					this.reportResult(" Permissions of all users invalidated.");
+				}
+				else if ((arguments.length == 2) && "-c".equals(arguments[0])) {
+					invalidateUserPermissions(arguments[1]);
+					this.reportResult(" Permissions of user '" + arguments[1] + "' invalidated.");
+				}
+				else this.reportError(" Invalid arguments for '" + this.getActionCommand() + "', specify '-c', '-c' and a user name, or no argument at all.");
+			}
+		};
+		cal.add(ca);
+		
+		//	show serialized descriptor cache statistics
+		ca = new ComponentActionConsole() {
+			public String getActionCommand() {
+				return SERIALIZED_CONFIGURATION_CACHE_COMMAND;
+			}
+			public String[] getExplanation() {
+				String[] explanation = {
+						SERIALIZED_CONFIGURATION_CACHE_COMMAND,
+						"Show the statistics of the cache holding serialized configuration descriptors."
+					};
+				return explanation;
+			}
+			public void performActionConsole(String[] arguments) {
+				if (arguments.length == 0) {
+					long[] stats = getSerializedConfigurationCacheStats();
+					this.reportResult(" Descriptor cache holds " + stats[0] + " serialized descriptors, " + (stats[1] / 1024) + " of at most " + (serializedConfigurationCacheSize / 1024) + " KB.");
+					this.reportResult(" " + stats[2] + " hits, " + stats[3] + " misses" + (((stats[2] + stats[3]) == 0) ? "" : (", hit rate " + ((stats[2] * 100) / (stats[2] + stats[3])) + "%")));
+				}
+				else this.reportError(" Invalid arguments for '" + this.getActionCommand() + "', specify no arguments.");
+			}
+		};
+		cal.add(ca);
+		
+		//	show data transfer statistics, or reset them
+		ca = new ComponentActionConsole() {
+			public String getActionCommand() {
+				return DATA_TRANSFER_COMMAND;
+			}
+			public String[] getExplanation() {
+				String[] explanation = {
+						DATA_TRANSFER_COMMAND + " <reset>",
+						"Show the statistics of data files sent to clients, or reset them:",
+						"- <reset>: set to '-r' to reset the statistics (optional)"
+					};
+				return explanation;
+			}
+			public void performActionConsole(String[] arguments) {
+				if (arguments.length == 0) {
+					long[] stats = getDataTransferStats();
+					this.reportResult(" Sent " + stats[0] + " data files with " + stats[1] + " bytes in " + (stats[2] / 1000000) + "ms, using " + (dataTransferBufferSize / 1024) + "KB buffers.");
+					this.reportResult(" Compression policy for data archives is " + dataCompressionPolicy.toString());
+					if ((stats[2] / 1000000) != 0)
+						this.reportResult(" Average throughput is " + (((stats[1] / 1024) * 1000) / (stats[2] / 1000000)) + "KB/s");
+				}
+				else if ((arguments.length == 1) && "-r".equals(arguments[0])) {
+					resetDataTransferStats();
+					this.reportResult(" Data transfer statistics reset.");
+				}
+				else this.reportError(" Invalid arguments for '" + this.getActionCommand() + "', specify '-r' or no argument at all.");
+			}
+		};
+		cal.add(ca);
+		
+		//	show content addressed storage statistics, import data files, or collect garbage
+		ca = new ComponentActionConsole() {
+			public String getActionCommand() {
+				return DATA_STORE_COMMAND;
+			}
+			public String[] getExplanation() {
+				String[] explanation = {
+						DATA_STORE_COMMAND + " <mode> <configName>",
+						"Show the statistics of the content addressed storage for data files, import plain data files, or delete unreferenced blobs:",
+						"- <mode>: set to '-i' to import the plain data files of a configuration, or to '-gc' to delete unreferenced blobs (optional)",
+						"- <configName>: the name of the configuration to import the data files of (for '-i' only)"
+					};
+				return explanation;
+			}
+			public void performActionConsole(String[] arguments) {
+				if (dataStore == null) {
+					this.reportError(" Content addressed storage is not enabled.");
+					return;
+				}
+				try {
+					if (arguments.length == 0) {
+						long[] stats = dataStore.getStats();
+						this.reportResult(" Loaded " + stats[0] + " manifests listing " + stats[1] + " data files with " + stats[2] + " bytes.");
+						this.reportResult(" Data files are stored in " + stats[3] + " distinct blobs with " + stats[4] + " bytes.");
+					}
+					else if ((arguments.length == 2) && "-i".equals(arguments[0])) {
+						int imported = dataStore.importData(arguments[1], new File(dataPath, arguments[1]));
+						this.reportResult(" Imported " + imported + " data files of configuration '" + arguments[1] + "'.");
+					}
+					else if ((arguments.length == 1) && "-gc".equals(arguments[0])) {
+						long[] collected = dataStore.collectGarbage();
+						this.reportResult(" Deleted " + collected[0] + " unreferenced blobs with " + collected[1] + " bytes.");
+					}
+					else this.reportError(" Invalid arguments for '" + this.getActionCommand() + "', specify '-i' and a configuration name, '-gc', or no argument at all.");
+				}
+				catch (IOException ioe) {
+					this.reportError(" Error accessing content addressed storage: " + ioe.getMessage());
+				}
+			}
+		};
+		cal.add(ca);
+		
+		//	show last compaction of old versions, or run compaction
+		ca = new ComponentActionConsole() {
+			public String getActionCommand() {
+				return COMPACT_OLD_VERSIONS_COMMAND;
+			}
+			public String[] getExplanation() {
+				String[] explanation = {
+						COMPACT_OLD_VERSIONS_COMMAND + " <run>",
+						"Show the report of the last compaction of old versions of replaced files, or run a compaction right away:",
+						"- <run>: set to '-r' to run a compaction (optional)"
+					};
+				return explanation;
+			}
+			public void performActionConsole(String[] arguments) {
+				EcsOldVersionCompactor.Report report;
+				if (arguments.length == 0)
+					report = lastOldVersionCompaction;
+				else if ((arguments.length == 1) && "-r".equals(arguments[0]))
+					report = compactOldVersions();
+				else {
+					this.reportError(" Invalid arguments for '" + this.getActionCommand() + "', specify '-r' or no argument at all.");
+					return;
+				}
+				if (report == null)
+					this.reportResult(" No compaction run so far.");
+				else {
+					String[] reportLines = report.toLines();
+					for (int l = 0; l < reportLines.length; l++)
+						this.reportResult(" " + reportLines[l]);
+				}
+			}
+		};
+		cal.add(ca);
+		
+		//	show user default configuration journal, or write checkpoint
+		ca = new ComponentActionConsole() {
+			public String getActionCommand() {
+				return USER_CONFIGURATIONS_COMMAND;
+			}
+			public String[] getExplanation() {
+				String[] explanation = {
+						USER_CONFIGURATIONS_COMMAND + " <checkpoint>",
+						"Show the number of user default configurations and journal entries, or write a checkpoint:",
+						"- <checkpoint>: set to '-c' to write a checkpoint and clear the journal (optional)"
+					};
+				return explanation;
+			}
+			public void performActionConsole(String[] arguments) {
+				if ((arguments.length == 1) && "-c".equals(arguments[0])) try {
+					checkpointUserConfigurations();
+				}
+				catch (IOException ioe) {
+					this.reportError(" Error writing checkpoint: " + ioe.getMessage());
+					return;
+				}
+				else if (arguments.length != 0) {
+					this.reportError(" Invalid arguments for '" + this.getActionCommand() + "', specify '-c' or no argument at all.");
+					return;
+				}
+				this.reportResult(" There are " + getRegistry().userDefaultConfigurations.size() + " user default configurations, " + userConfigurationJournal.size() + " changes journaled since last checkpoint.");
+			}
+		};
+		cal.add(ca);
+		
+		//	show latency statistics of document resource filterers
+		ca = new ComponentActionConsole() {
+			public String getActionCommand() {
+				return DOCUMENT_FILTERERS_COMMAND;
+			}
+			public String[] getExplanation() {
+				String[] explanation = {
+						DOCUMENT_FILTERERS_COMMAND + " <clear>",
+						"Show the registered document resource filterers, with their call, timeout, and error counts, their average and maximum latency, and the cache of resolved document groups:",
+						"- <clear>: set to '-c' to clear the cache of resolved document groups (optional)"
+					};
+				return explanation;
+			}
+			public void performActionConsole(String[] arguments) {
+				if ((arguments.length == 1) && "-c".equals(arguments[0]))
+					documentGroupResolver.invalidateAll();
+				else if (arguments.length != 0) {
+					this.reportError(" Invalid arguments for '" + this.getActionCommand() + "', specify '-c' or no argument at all.");
+					return;
+				}
+				String[] statsLines = documentGroupResolver.getStatsLines();
+				this.reportResult(" " + statsLines[0]);
+				for (int l = 1; l < statsLines.length; l++)
+					this.reportResult(" - " + statsLines[l]);
+				this.reportResult(" " + documentGroupResolver.getCacheStatsLine());
+			}
+		};
+		cal.add(ca);
+		
+		//	show recent changes
+		ca = new ComponentActionConsole() {
+			public String getActionCommand() {
+				return CHANGE_LOG_COMMAND;
+			}
+			public String[] getExplanation() {
+				String[] explanation = {
+						CHANGE_LOG_COMMAND + " <count>",
+						"Show the current change sequence number and the most recent changes:",
+						"- <count>: the number of changes to show (optional, defaults to 10)"
+					};
+				return explanation;
+			}
+			public void performActionConsole(String[] arguments) {
+				int count = 10;
+				if (arguments.length == 1) try {
+					count = Integer.parseInt(arguments[0]);
+				}
+				catch (NumberFormatException nfe) {
+					this.reportError(" Invalid change count '" + arguments[0] + "'.");
+					return;
+				}
+				else if (arguments.length != 0) {
+					this.reportError(" Invalid arguments for '" + this.getActionCommand() + "', specify the number of changes to show, or no argument at all.");
+					return;
+				}
+				long sequenceNumber = changeLog.getSequenceNumber();
+				this.reportResult(" Current change sequence number is " + sequenceNumber);
+				EcsEvent[] changes = changeLog.getChangesSince(Math.max((sequenceNumber - count), 0));
+				for (int c = 0; (changes != null) && (c < changes.length); c++)
+					this.reportResult(" - " + changes[c].toChangeLine());
+			}
+		};
+		cal.add(ca);
+		
+		//	show number of change events pending notification
+		cal.add(this.eventNotifier.getQueueSizeAction());
+		
+		//	show metrics, or reset them
+		ca = new ComponentActionConsole() {
+			public String getActionCommand() {
+				return METRICS_COMMAND;
+			}
+			public String[] getExplanation() {
+				String[] explanation = {
+						METRICS_COMMAND + " <mode>",
+						"Show request counts, error counts, transferred bytes, and latencies of the network actions, latencies of projection, serialization, and user access authority calls, and cache hit rates:",
+						"- <mode>: set to '-m' to show the metrics in machine readable form, or to '-r' to reset them (optional)"
+					};
+				return explanation;
+			}
+			public void performActionConsole(String[] arguments) {
+				if (arguments.length == 0) {
+					String[] reportLines = metrics.getReportLines();
+					this.reportResult(" " + reportLines[0]);
+					for (int l = 1; l < reportLines.length; l++)
+						this.reportResult(" - " + reportLines[l]);
+					String[] cacheLines = getCacheMetricsLines(false);
+					for (int l = 0; l < cacheLines.length; l++)
+						this.reportResult(" - " + cacheLines[l]);
+				}
+				else if ((arguments.length == 1) && "-m".equals(arguments[0])) {
+					String[] dumpLines = getMetricsDump();
+					for (int l = 0; l < dumpLines.length; l++)
+						this.reportResult(dumpLines[l]);
+				}
+				else if ((arguments.length == 1) && "-r".equals(arguments[0])) {
+					metrics.reset();
+					this.reportResult(" Metrics reset.");
+				}
+				else this.reportError(" Invalid arguments for '" + this.getActionCommand() + "', specify '-m', '-r', or no argument at all.");
+			}
+		};
+		cal.add(ca);
+		
+		//	show heap usage of configuration descriptors
+		ca = new ComponentActionConsole() {
+			public String getActionCommand() {
+				return HEAP_REPORT_COMMAND;
+			}
+			public String[] getExplanation() {
+				String[] explanation = {
+						HEAP_REPORT_COMMAND,
+						"Show how many plugins, resources, libs, and data items the loaded configurations hold, and how many distinct objects are shared between them."
+					};
+				return explanation;
+			}
+			public void performActionConsole(String[] arguments) {
+				if (arguments.length == 0) {
+					String[] report = getHeapReport();
+					for (int r = 0; r < report.length; r++)
+						this.reportResult(report[r]);
+				}
+				else this.reportError(" Invalid arguments for '" + this.getActionCommand() + "', specify no arguments.");
+			}
+		};
+		cal.add(ca);
+		
+		//	record metrics for all network actions
+		for (int a = 0; a < cal.size(); a++) {
+			if (cal.get(a) instanceof ComponentActionNetwork)
+				cal.set(a, new MeteredAction((ComponentActionNetwork) cal.get(a)));
+		}
+		
+		return ((ComponentAction[]) cal.toArray(new ComponentAction[cal.size()]));
+	}
+	
+	/*
+	 * Metrics of network actions, internal operations, and caches
+	 */
+	private static final String METRICS_COMMAND = "metrics";
+	private EcsMetrics metrics = new EcsMetrics();
+	
+	private class MeteredAction extends ComponentActionNetwork {
+		private ComponentActionNetwork action;
+		MeteredAction(ComponentActionNetwork action) {
+			this.action = action;
+		}
+		public String getActionCommand() {
+			return this.action.getActionCommand();
+		}
+		public long getActivityLogTimeout() {
+			return this.action.getActivityLogTimeout();
+		}
+		public void performActionNetwork(BufferedLineInputStream input, BufferedLineOutputStream output) throws IOException {
+			EcsMetrics.CountingInputStream countingInput = new EcsMetrics.CountingInputStream(input);
+			EcsMetrics.CountingOutputStream countingOutput = new EcsMetrics.CountingOutputStream(output);
+			BufferedLineOutputStream meteredOutput = new BufferedLineOutputStream(countingOutput, ENCODING);
+			long start = System.nanoTime();
+			boolean error = true;
+			try {
+				this.action.performActionNetwork(new BufferedLineInputStream(countingInput, ENCODING), meteredOutput);
+				meteredOutput.flush();
+				
+				//	responses to successful requests start with action command
+				error = !this.getActionCommand().equals(countingOutput.getFirstLine());
+			}
+			finally {
+				if (error) try {
+					meteredOutput.flush();
+				} catch (IOException ioe) {}
+				metrics.recordAction(this.getActionCommand(), (System.nanoTime() - start), countingInput.count, countingOutput.count, error);
+			}
+		}
+		public void performActionNetwork(BufferedReader input, BufferedWriter output) throws IOException {
+			long start = System.nanoTime();
+			boolean error = true;
+			try {
+				this.action.performActionNetwork(input, output);
+				error = false;
+			}
+			finally {
+				metrics.recordAction(this.getActionCommand(), (System.nanoTime() - start), 0, 0, error);
+			}
+		}
+	}
+	
+	private String[] getCacheMetricsLines(boolean dump) {
+		ArrayList lines = new ArrayList();
+		addCacheMetricsLine(lines, "projections", this.getProjectionCacheStats(), 1, 2, dump);
+		addCacheMetricsLine(lines, "descriptors", this.getSerializedConfigurationCacheStats(), 2, 3, dump);
+		addCacheMetricsLine(lines, "permissions", this.getUserPermissionsStats(), 1, 2, dump);
+		addCacheMetricsLine(lines, "documentGroups", this.documentGroupResolver.getCacheStats(), 1, 2, dump);
+		return ((String[]) lines.toArray(new String[lines.size()]));
+	}
+	private static void addCacheMetricsLine(ArrayList lines, String cacheName, long[] stats, int hitIndex, int missIndex, boolean dump) {
+		long hits = stats[hitIndex];
+		long misses = stats[missIndex];
+		if (dump) {
+			lines.add("ecs.cache." + cacheName + ".size " + stats[0]);
+			lines.add("ecs.cache." + cacheName + ".hits " + hits);
+			lines.add("ecs.cache." + cacheName + ".misses " + misses);
+		}
+		else lines.add(cacheName + " cache: " + stats[0] + " entries, " + hits + " hits, " + misses + " misses" + (((hits + misses) == 0) ? "" : (", hit rate " + ((hits * 100) / (hits + misses)) + "%")));
+	}
+	
+	private String[] getMetricsDump() {
+		String[] metricsLines = this.metrics.getDumpLines();
+		String[] cacheLines = this.getCacheMetricsLines(true);
+		String[] dumpLines = new String[metricsLines.length + cacheLines.length];
+		System.arraycopy(metricsLines, 0, dumpLines, 0, metricsLines.length);
+		System.arraycopy(cacheLines, 0, dumpLines, metricsLines.length, cacheLines.length);
+		return dumpLines;
+	}
+	
+	private class UploadConfigurationAction extends ComponentActionNetwork {
+		private String actionCommand;
+		private boolean sendHashes;
+		UploadConfigurationAction(String actionCommand, boolean sendHashes) {
+			this.actionCommand = actionCommand;
+			this.sendHashes = sendHashes;
+		}
+		public String getActionCommand() {
+			return this.actionCommand;
+		}
+		public void performActionNetwork(final BufferedReader input, BufferedWriter output) throws IOException {
+			
+			//	check authentication
+			String sessionId = input.readLine();
+			if (!isValidSession(sessionId)) {
+				output.write("Invalid session (" + sessionId + ")");
+				output.newLine();
+				return;
+			}
+			else if (!isAdminSession(sessionId)) {
+				output.write("Administrative priviledges required");
+				output.newLine();
+				return;
+			}
+			logDebug("Receiving configuration ...");
+			
+			//	remember receive time
+			long receiveTime = System.currentTimeMillis();
+			
+			//	read configuration descriptor (up to the next blank line)
+			Configuration config = Configuration.readConfiguration(new Reader() {
+				BufferedReader in = input;
+				StringReader sr = null;
+				public void close() throws IOException {
+					input.close();
+				}
+				public int read(char[] cbuf, int off, int len) throws IOException {
+					if (this.in == null)
+						return -1;
+					if (this.sr == null) {
+						String line = this.in.readLine();
+						if ((line != null) && (line.length() != 0))
+							this.sr = new StringReader(line + "\r\n");
+						else {
+							this.in = null;
+							return -1;
+						}
+					}
+					int read = this.sr.read(cbuf, off, len);
+					if (read == -1) {
+						this.sr = null;
+						return this.read(cbuf, off, len);
+					}
+					else return read;
+				}
+			});
+			
+			//	get last update time of local files
+			long configAge = uploadConfiguration(config, receiveTime);
+			
+			//	get file list
+			StringVector files = ConfigurationUtils.listFilesRelative(new File(dataPath, config.name));
+			if (dataStore != null)
+				files.addContentIgnoreDuplicates(dataStore.getDataPaths(config.name));
+			
+			//	indicate success
+			output.write(this.actionCommand);
+			output.newLine();
+			
+			//	send timestamps
+			output.write("" + configAge);
+			output.newLine();
+			
+			//	send file list (with content hashes if requested)
+			for (int f = 0; f < files.size(); f++) {
+				if (!this.sendHashes) {
+					output.write(files.get(f));
+					output.newLine();
+					continue;
+				}
+				if (files.get(f).endsWith(".old"))
+					continue;
+				DataEntry dataEntry = getDataEntry(config.name + "/" + files.get(f));
+				if (dataEntry == null)
+					continue;
+				output.write(files.get(f) + "\t" + getDataHash(dataEntry));
+				output.newLine();
+			}
+			output.newLine();
+		}
+	}
+	
+	private class GetChangesAction extends ComponentActionNetwork {
+		private String actionCommand;
+		private boolean wait;
+		GetChangesAction(String actionCommand, boolean wait) {
+			this.actionCommand = actionCommand;
+			this.wait = wait;
+		}
+		public String getActionCommand() {
+			return this.actionCommand;
+		}
+		public void performActionNetwork(BufferedReader input, BufferedWriter output) throws IOException {
+			
+			//	check authentication (bypassing UAA for requests from config servlet)
+			String sessionId = input.readLine();
+			if (CONFIG_SERVLET_SESSION_ID.equals(sessionId) && !host.isRequestProxied()) {}
+			else if (!isValidSession(sessionId)) {
+				output.write("Invalid session (" + sessionId + ")");
+				output.newLine();
+				return;
+			}
+			else if (!isAdminSession(sessionId)) {
+				output.write("Administrative priviledges required");
+				output.newLine();
+				return;
+			}
+			
+			//	read sequence number, and maximum time to wait for changes
+			long sequenceNumber;
+			long timeout = 0;
+			try {
+				sequenceNumber = Long.parseLong(input.readLine());
+				if (this.wait)
+					timeout = Math.min(Long.parseLong(input.readLine()), maxChangeWaitMillis);
+			}
+			catch (NumberFormatException nfe) {
+				output.write("Invalid sequence number or timeout");
+				output.newLine();
+				return;
+			}
+			
+			//	get changes, waiting for some to happen if asked to
+			EcsEvent[] changes = ((timeout > 0) ? changeLog.waitForChanges(sequenceNumber, timeout) : changeLog.getChangesSince(sequenceNumber));
+			
+			//	send sequence number to continue from and change count (-1 if change log does not reach back far enough)
+			output.write(this.actionCommand);
+			output.newLine();
+			if (changes == null) {
+				output.write("" + changeLog.getSequenceNumber());
+				output.newLine();
+				output.write("-1");
+				output.newLine();
+				return;
+			}
+			output.write("" + ((changes.length == 0) ? sequenceNumber : changes[changes.length - 1].sequenceNumber));
+			output.newLine();
+			output.write("" + changes.length);
+			output.newLine();
+			for (int c = 0; c < changes.length; c++) {
+				output.write(changes[c].toChangeLine());
+				output.newLine();
+			}
+		}
+	}
+	
+	private class SetUserConfigurationAction extends ComponentActionNetwork {
+		private String actionCommand;
+		private boolean set;
+		SetUserConfigurationAction(String actionCommand, boolean set) {
+			this.actionCommand = actionCommand;
+			this.set = set;
+		}
+		public String getActionCommand() {
+			return this.actionCommand;
+		}
+		public void performActionNetwork(BufferedReader input, BufferedWriter output) throws IOException {
+			
+			//	check authentication
+			String sessionId = input.readLine();
+			if (!isValidSession(sessionId)) {
+				output.write("Invalid session (" + sessionId + ")");
+				output.newLine();
+				return;
+			}
+			else if (!isAdminSession(sessionId)) {
+				output.write("Administrative priviledges required");
+				output.newLine();
+				return;
+			}
+			
+			//	read user name and configuration name
+			String userName = input.readLine();
+			String configName = (this.set ? input.readLine() : null);
+			if ((userName == null) || (userName.length() == 0) || (userName.indexOf(':') != -1) || (userName.indexOf('\t') != -1)) {
+				output.write("Invalid user name.");
+				output.newLine();
+				return;
+			}
+			if (this.set && ((configName == null) || !getRegistry().configurationNames.contains(configName))) {
+				output.write("The specified configuration does not exist.");
+				output.newLine();
+				return;
+			}
+			
+			//	process data (registry remains unchanged if journaling fails)
+			try {
+				setUserConfiguration(userName, configName);
+				
+				//	indicate success
+				output.write(this.actionCommand);
+				output.newLine();
+			}
+			catch (Exception e) {
+				
+				//	indicate failure
+				output.write("Could not update user default configuration: " + e.getMessage());
+				output.newLine();
+			}
+		}
+	}
+	
+	/*
+	 * Network actions that can run as part of a batch, i.e., the ones that
+	 * only exchange lines of text, and that do not depend on the connection
+	 * staying open for long
+	 */
+	private static final Set BATCH_ACTION_COMMANDS = new HashSet(Arrays.asList(new String[] {
+			GET_CONFIGURATION_NAMES,
+			GET_DATA_COMPRESSION_POLICY,
+			GET_CONFIGURATION_DESCRIPTORS,
+			UPDATE_CONFIGURATION,
+			DELETE_CONFIGURATION,
+			GET_USER_CONFIGURATIONS,
+			SET_USER_CONFIGURATIONS,
+			SET_USER_CONFIGURATION,
+			UNSET_USER_CONFIGURATION,
+			LIST_USER_CONFIGURATIONS,
+			GET_ONLINE_CONFIGURATIONS,
+			SET_ONLINE_CONFIGURATIONS,
+			GET_GROUPS,
+			GET_PLUGINS,
+			GET_RESOURCES,
+			CREATE_GROUP,
+			DELETE_GROUP,
+			GET_GROUP_PLUGINS,
+			SET_GROUP_PLUGINS,
+			GET_GROUP_RESOURCES,
+			SET_GROUP_RESOURCES,
+			GET_GROUP_SNAPSHOT,
+			GET_CHANGES
+		}));
+	private HashMap batchActions = new HashMap();
+	
+	private class BatchAction extends ComponentActionNetwork {
+		public String getActionCommand() {
+			return BATCH;
+		}
+		public void performActionNetwork(BufferedReader input, BufferedWriter output) throws IOException {
+			
+			//	read session ID (handed to individual actions, which check it themselves)
+			String sessionId = input.readLine();
+			
+			//	read all commands before executing any, so client can send them all before reading responses
+			ArrayList commands = new ArrayList();
+			ArrayList commandInputs = new ArrayList();
+			for (String command; ((command = input.readLine()) != null) && (command.length() != 0);) {
+				int inputLineCount;
+				try {
+					inputLineCount = Integer.parseInt(input.readLine());
+				}
+				catch (NumberFormatException nfe) {
+					output.write("Invalid input line count for command " + command);
+					output.newLine();
+					return;
+				}
+				StringBuffer commandInput = new StringBuffer(sessionId + "\r\n");
+				for (int l = 0; l < inputLineCount; l++) {
+					String inputLine = input.readLine();
+					if (inputLine == null) {
+						output.write("Incomplete input for command " + command);
+						output.newLine();
+						return;
+					}
+					commandInput.append(inputLine + "\r\n");
+				}
+				commands.add(command);
+				commandInputs.add(commandInput.toString());
+			}
+			logDebug("Executing batch of " + commands.size() + " commands");
+			
+			//	indicate responses coming
+			output.write(BATCH);
+			output.newLine();
+			
+			//	execute commands, sending back each response as line count and lines
+			for (int c = 0; c < commands.size(); c++) {
+				String command = ((String) commands.get(c));
+				ComponentActionNetwork action = ((ComponentActionNetwork) batchActions.get(command));
+				long start = System.nanoTime();
+				StringWriter commandOutput = new StringWriter();
+				BufferedWriter commandOutputBw = new BufferedWriter(commandOutput);
+				if (action == null)
+					commandOutputBw.write("Command not available in batch: " + command);
+				else try {
+					action.performActionNetwork(new BufferedReader(new StringReader((String) commandInputs.get(c))), commandOutputBw);
+				}
+				catch (Exception e) {
+					logError(e.getClass().getName() + " (" + e.getMessage() + ") while executing batch command " + command);
+					logError(e);
+					
+					//	replace any partial response with error message, so framing stays intact
+					commandOutput = new StringWriter();
+					commandOutputBw = new BufferedWriter(commandOutput);
+					commandOutputBw.write((e.getMessage() == null) ? e.getClass().getName() : e.getMessage());
+				}
+				commandOutputBw.flush();
+				
+				ArrayList responseLines = new ArrayList();
+				BufferedReader responseBr = new BufferedReader(new StringReader(commandOutput.toString()));
+				for (String responseLine; (responseLine = responseBr.readLine()) != null;)
+					responseLines.add(responseLine);
+				
+				//	record metrics of command proper (batch actions are registered unwrapped, so they are not metered individually otherwise)
+				if (action != null) {
+					boolean error = (responseLines.isEmpty() || !command.equals(responseLines.get(0)));
+					metrics.recordAction(command, (System.nanoTime() - start), ((String) commandInputs.get(c)).getBytes(ENCODING).length, commandOutput.toString().getBytes(ENCODING).length, error);
+				}
+				output.write("" + responseLines.size());
+				output.newLine();
+				for (int l = 0; l < responseLines.size(); l++) {
+					output.write((String) responseLines.get(l));
+					output.newLine();
+				}
+				output.flush();
+			}
+		}
+	}
+	
+	private abstract class ListAction extends ComponentActionNetwork {
+		private String actionCommand;
+		ListAction(String actionCommand) {
+			this.actionCommand = actionCommand;
+		}
+		public String getActionCommand() {
+			return this.actionCommand;
+		}
+		public void performActionNetwork(BufferedReader input, BufferedWriter output) throws IOException {
+			
+			//	check authentication
+			String sessionId = input.readLine();
+			if (!isValidSession(sessionId)) {
+				output.write("Invalid session (" + sessionId + ")");
+				output.newLine();
+				return;
+			}
+			else if (!isAdminSession(sessionId)) {
+				output.write("Administrative priviledges required");
+				output.newLine();
+				return;
+			}
+			
+			//	get list
+			String[] list;
+			try {
+				list = getList();
+			}
+			catch (IOException ioe) {
+				output.write(ioe.getMessage());
+				output.newLine();
+				return;
+			}
+			
+			//	indicate success
+			output.write(this.actionCommand);
+			output.newLine();
+			
+			//	send list
+			for (int l = 0; l < list.length; l++) {
+				output.write(list[l]);
+				output.newLine();
+			}
+		}
+		abstract String[] getList() throws IOException;
+	}
+	
+	private abstract class GetGroupsOrPluginsOrResourcesAction extends ComponentActionNetwork {
+		private String actionCommand;
+		GetGroupsOrPluginsOrResourcesAction(String actionCommand) {
+			this.actionCommand = actionCommand;
+		}
+		public String getActionCommand() {
+			return this.actionCommand;
+		}
+		public void performActionNetwork(BufferedReader input, BufferedWriter output) throws IOException {
+			
+			//	check authentication
+			String sessionId = input.readLine();
+			if (!isValidSession(sessionId)) {
+				output.write("Invalid session (" + sessionId + ")");
+				output.newLine();
+				return;
+			}
+			else if (!isAdminSession(sessionId)) {
+				output.write("Administrative priviledges required");
+				output.newLine();
+				return;
+			}
+			
+			//	get action target
+			String groupName = input.readLine();
+			
+			//	get data
+			String[] groupsOrPluginsOrResources;
+			try {
+				groupsOrPluginsOrResources = getGroupsOrPluginsOrResources(groupName);
+			}
+			catch (IOException ioe) {
+				output.write(ioe.getMessage());
+				output.newLine();
+				return;
 			}
 			
 			//	indicate success
 			output.write(this.actionCommand);
 			output.newLine();
 			
-			//	send list
-			for (int l = 0; l < list.length; l++) {
-				output.write(list[l]);
+			//	send data
+			for (int gpr = 0; gpr < groupsOrPluginsOrResources.length; gpr++) {
+				output.write(groupsOrPluginsOrResources[gpr]);
+				output.newLine();
+			}
+		}
+		abstract String[] getGroupsOrPluginsOrResources(String groupName) throws IOException;
+	}
+	
+	private abstract class ModifyGroupsOrPluginsOrResourcesAction extends ComponentActionNetwork {
+		private String actionCommand;
+		ModifyGroupsOrPluginsOrResourcesAction(String actionCommand) {
+			this.actionCommand = actionCommand;
+		}
+		public String getActionCommand() {
+			return this.actionCommand;
+		}
+		public void performActionNetwork(BufferedReader input, BufferedWriter output) throws IOException {
+			
+			//	check authentication
+			String sessionId = input.readLine();
+			if (!isValidSession(sessionId)) {
+				output.write("Invalid session (" + sessionId + ")");
+				output.newLine();
+				return;
+			}
+			else if (!isAdminSession(sessionId)) {
+				output.write("Administrative priviledges required");
+				output.newLine();
+				return;
+			}
+			
+			//	get action target
+			String groupName = input.readLine();
+			
+			//	get groups or resources
+			StringVector groupsOrPluginsOrResources = new StringVector();
+			String groupOrPluginOrResource;
+			while (((groupOrPluginOrResource = input.readLine()) != null) && (groupOrPluginOrResource.length() != 0))
+				groupsOrPluginsOrResources.addElementIgnoreDuplicates(groupOrPluginOrResource);
+			
+			//	perform actual action
+			String error = this.performAction(groupName, groupsOrPluginsOrResources.toStringArray());
+			
+			//	indicate success
+			if (error == null) {
+				output.write(this.actionCommand);
 				output.newLine();
 			}
+			
+			//	indicate error
+			else {
+				output.write(error);
+				output.newLine();
+			}
+		}
+		abstract String performAction(String levelOrGroupName, String[] groupsOrPluginsOrResources);
+	}
+	
+	private String[] getConfigurationNames(String userName) {
+		
+		//	get all configuration names
+		TreeSet userConfigNames = new TreeSet();
+		
+		//	collect config names user has permission to see
+		userConfigNames.addAll(this.getUserPermissions(userName).permittedConfigNames);
+		
+		//	add default configuration
+		String userDefaultConfig = ((String) this.getRegistry().userDefaultConfigurations.get(userName));
+		if (userDefaultConfig != null) userConfigNames.add(userDefaultConfig);
+		
+		//	return config names
+		return ((String[]) userConfigNames.toArray(new String[userConfigNames.size()]));
+	}
+	
+	/*
+	 * This method facilitates using different master configurations as the
+	 * basis for permission and level based filtering, all adding an additional
+	 * filter to the actual master configuration. This will facilitate, for
+	 * instance, omitting memory intensive plugins in applet environments. And
+	 * it will facilitate changing components very quickly and clandestinely for
+	 * user experiments ...
+	 */
+	private Configuration getUserConfiguration(String userName) {
+		String configName = ((String) this.getRegistry().userDefaultConfigurations.get(userName));
+		if (configName == null) return this.masterConfiguration;
+		else {
+			Configuration config = this.getConfiguration(configName);
+			return ((config == null) ? this.masterConfiguration : config);
+		}
+	}
+	
+	private Projection projectConfiguration(String userName, EcsGroupSet docResGroups, Configuration model) {
+		
+		//	check global permission for configuration, and user permissions on group level
+		UserPermissions userPermissions = this.getUserPermissions(userName);
+		EcsGroupSet permittedGroupNames = (userPermissions.hasAllPermission(model.name) ? null : userPermissions.getPermittedGroups());
+		
+		//	do cache lookup (keyed by group signatures, so users and documents requiring the same groups share projections)
+		String cacheKey = this.getProjectionCacheKey(model, permittedGroupNames, docResGroups);
+		long cacheGeneration = this.projectionCacheGeneration;
+		Projection projection = this.getCachedProjection(cacheKey);
+		
+		//	cache miss, do projection and cache result
+		if (projection == null) {
+			long start = System.nanoTime();
+			projection = new Projection(cacheKey, this.computeProjection(permittedGroupNames, docResGroups, model));
+			this.metrics.recordTime(EcsMetrics.PROJECTION_TIMER, (System.nanoTime() - start));
+			this.cacheProjection(projection, cacheGeneration);
+		}
+		
+		//	return projection (shared between all users with the same permissions, needs to be named after user on delivery)
+		return projection;
+	}
+	
+	private Configuration computeProjection(EcsGroupSet permittedGroupNames, EcsGroupSet docResGroups, Configuration model) {
+		
+		//	collect required plugins and resources
+		BitSet pluginIDs;
+		BitSet resourceIDs;
+		
+		//	request for full configuration, copy data from model
+		if (docResGroups == null) {
+			EcsDependencyIndex dependencyIndex = this.getDependencyIndex(model);
+			pluginIDs = dependencyIndex.getPluginIDs();
+			resourceIDs = dependencyIndex.getResourceIDs();
+		}
+		
+		//	request for document specific configuration
+		else {
+			pluginIDs = new BitSet();
+			resourceIDs = new BitSet();
+			
+			//	read required groups
+			for (int g = 0; g < docResGroups.names.length; g++) {
+				Group group = this.getGroup(docResGroups.names[g]);
+				if (group != null) {
+					pluginIDs.or(group.plugins);
+					resourceIDs.or(group.getPlainResources());
+				}
+			}
+		}
+		
+		//	global permission for configuration
+		if (permittedGroupNames == null)
+			return this.projectConfiguration(model.name, model, pluginIDs, resourceIDs);
+		
+		//	collect plugins and resources from permitted groups
+		BitSet permittedPluginIDs = new BitSet();
+		BitSet permittedResourceIDs = new BitSet();
+		for (int g = 0; g < permittedGroupNames.names.length; g++) {
+			Group group = this.getGroup(permittedGroupNames.names[g]);
+			if (group != null) {
+				permittedPluginIDs.or(group.plugins);
+				permittedResourceIDs.or(group.getPlainResources());
+			}
+		}
+		
+		//	apply permissions
+		pluginIDs.and(permittedPluginIDs);
+		resourceIDs.and(permittedResourceIDs);
+		
+		//	project and return configuration
+		return this.projectConfiguration(model.name, model, pluginIDs, resourceIDs);
+	}
+	
+	private Configuration projectConfiguration(String configName, Configuration model, BitSet selectedPluginIDs, BitSet selectedResourceIDs) {
+		
+		//	assemble configuration
+		Configuration config = new Configuration(configName, model);
+		
+		//	collect resources and required resources, then plugins, plugins managing resources, and required plugins
+		EcsDependencyIndex dependencyIndex = this.getDependencyIndex(model);
+		BitSet resourceIDs = dependencyIndex.getResourceClosure(selectedResourceIDs);
+		BitSet pluginIDs = dependencyIndex.getPluginClosure(selectedPluginIDs, resourceIDs);
+		for (int p = pluginIDs.nextSetBit(0); p != -1; p = pluginIDs.nextSetBit(p + 1))
+			config.addPlugin(dependencyIndex.getPlugin(p));
+		for (int r = resourceIDs.nextSetBit(0); r != -1; r = resourceIDs.nextSetBit(r + 1))
+			config.addResource(dependencyIndex.getResource(r));
+		
+		//	add data items
+		for (Iterator dit = model.dataItems.iterator(); dit.hasNext();)
+			config.addDataItem((DataItem) dit.next());
+		
+		//	return configuration
+		return config;
+	}
+	
+	/*
+	 * Dependency indexes of configurations, held weakly, so indexes of
+	 * replaced configurations are discarded automatically. Configurations do
+	 * not override equals() and hashCode(), so lookup is by identity.
+	 */
+	private WeakHashMap dependencyIndexesByConfig = new WeakHashMap();
+	
+	private EcsDependencyIndex getDependencyIndex(Configuration config) {
+		EcsDependencyIndex dependencyIndex;
+		synchronized (this.dependencyIndexesByConfig) {
+			dependencyIndex = ((EcsDependencyIndex) this.dependencyIndexesByConfig.get(config));
+		}
+		if (dependencyIndex != null)
+			return dependencyIndex;
+		
+		//	build index outside lock, so not to block projections of other configurations
+		dependencyIndex = new EcsDependencyIndex(config, this.pluginNameIndex, this.resourceNameIndex);
+		synchronized (this.dependencyIndexesByConfig) {
+			
+			//	check if other thread was faster
+			EcsDependencyIndex builtDependencyIndex = ((EcsDependencyIndex) this.dependencyIndexesByConfig.get(config));
+			if (builtDependencyIndex != null)
+				return builtDependencyIndex;
+			this.dependencyIndexesByConfig.put(config, dependencyIndex);
+			return dependencyIndex;
+		}
+	}
+	
+	/*
+	 * Versions of configuration objects, for telling apart cached projections
+	 * and descriptors of configurations replaced in the registry. Every
+	 * configuration object gets a new number from a counter the first time
+	 * its version is requested, so a replacement never shares the version of
+	 * the object it replaces, as hash codes might. Held weakly, like the
+	 * dependency indexes, and also by identity.
+	 */
+	private WeakHashMap configurationVersionsByConfig = new WeakHashMap();
+	private long configurationVersionCounter = 0;
+	
+	private long getConfigurationVersion(Configuration config) {
+		synchronized (this.configurationVersionsByConfig) {
+			Long version = ((Long) this.configurationVersionsByConfig.get(config));
+			if (version == null) {
+				version = new Long(++this.configurationVersionCounter);
+				this.configurationVersionsByConfig.put(config, version);
+			}
+			return version.longValue();
+		}
+	}
+	
+	private static Configuration copyConfiguration(String configName, Configuration model) {
+		Configuration config = new Configuration(configName, model);
+		for (Iterator pit = model.plugins.iterator(); pit.hasNext();)
+			config.addPlugin((Plugin) pit.next());
+		for (Iterator rit = model.resources.iterator(); rit.hasNext();)
+			config.addResource((Resource) rit.next());
+		for (Iterator dit = model.dataItems.iterator(); dit.hasNext();)
+			config.addDataItem((DataItem) dit.next());
+		return config;
+	}
+	
+	/*
+	 * Index of user permissions, holding the configurations and groups each
+	 * user has permission for. UAA is not notifying about changes to user
+	 * permissions, so entries expire after a configurable timeout, in addition
+	 * to being invalidated when groups or configurations are added or removed.
+	 * The number of users is bounded, evicting the least recently used ones.
+	 */
+	private static final String PERMISSION_CACHE_COMMAND = "permissionCache";
+	private long userPermissionsTimeout = (5 * 60 * 1000);
+	private int userPermissionsCacheSize = 4096;
+	private LinkedHashMap userPermissionsByName = new LinkedHashMap(16, 0.75f, true) {
+		protected boolean removeEldestEntry(Map.Entry eldest) {
+			return (this.size() > userPermissionsCacheSize);
+		}
+	};
+	private long userPermissionsHits = 0;
+	private long userPermissionsMisses = 0;
+	private volatile long userPermissionsGeneration = 0;
+	
+	private class UserPermissions {
+		final String userName;
+		final long createTime;
+		final TreeSet permittedConfigNames = new TreeSet();
+		final TreeSet permittedGroupNames = new TreeSet();
+		private final HashMap allPermissions = new HashMap();
+		private EcsGroupSet permittedGroups = null;
+		UserPermissions(String userName) {
+			this.userName = userName;
+			this.createTime = System.currentTimeMillis();
+			
+			//	collect config names user has permission to see, and check global permissions for them
+			Registry registry = getRegistry();
+			for (Iterator cit = registry.configurationNames.iterator(); cit.hasNext();) {
+				String configName = ((String) cit.next());
+				if (hasPermission(userName, (CONFIGURATION_PERMISSION_PREFIX + configName), true))
+					this.permittedConfigNames.add(configName);
+				this.hasAllPermission(configName);
+			}
+			
+			//	collect groups user has permission for
+			for (Iterator git = registry.groupsByName.keySet().iterator(); git.hasNext();) {
+				String groupName = ((String) git.next());
+				if (hasPermission(userName, (GROUP_PERMISSION_PREFIX + groupName), true))
+					this.permittedGroupNames.add(groupName);
+			}
+		}
+		synchronized boolean hasAllPermission(String configName) {
+			Boolean allPermission = ((Boolean) this.allPermissions.get(configName));
+			if (allPermission == null) {
+				allPermission = new Boolean(hasPermission(this.userName, (CONFIGURATION_PERMISSION_PREFIX + configName + CONFIGURATION_ALL_PERMISSION_SUFFIX)));
+				this.allPermissions.put(configName, allPermission);
+			}
+			return allPermission.booleanValue();
+		}
+		synchronized EcsGroupSet getPermittedGroups() {
+			if (this.permittedGroups == null)
+				this.permittedGroups = EcsGroupSet.forNames(this.permittedGroupNames);
+			return this.permittedGroups;
+		}
+	}
+	
+	private UserPermissions getUserPermissions(String userName) {
+		long generation;
+		synchronized (this.userPermissionsByName) {
+			UserPermissions userPermissions = ((UserPermissions) this.userPermissionsByName.get(userName));
+			if ((userPermissions != null) && (System.currentTimeMillis() < (userPermissions.createTime + this.userPermissionsTimeout))) {
+				this.userPermissionsHits++;
+				return userPermissions;
+			}
+			this.userPermissionsMisses++;
+			generation = this.userPermissionsGeneration;
+		}
+		
+		//	compute permissions outside synchronized block, so UAA lookups for one user don't block others
+		UserPermissions userPermissions = new UserPermissions(userName);
+		synchronized (this.userPermissionsByName) {
+			
+			//	index invalidated while computing permissions, result might be outdated
+			if (generation == this.userPermissionsGeneration)
+				this.userPermissionsByName.put(userName, userPermissions);
+		}
+		return userPermissions;
+	}
+	
+	/**
+	 * Invalidate the indexed permissions of a user, e.g. after permissions or
+	 * roles have been granted to or revoked from the user. If the argument
+	 * user name is null, the permissions of all users are invalidated.
+	 * @param userName the user to invalidate the permissions for
+	 */
+	public void invalidateUserPermissions(String userName) {
+		synchronized (this.userPermissionsByName) {
+			if (userName == null) {
+				this.userPermissionsGeneration++;
+				this.userPermissionsByName.clear();
+			}
+			else this.userPermissionsByName.remove(userName);
+		}
+	}
+	
+	private long[] getUserPermissionsStats() {
+		synchronized (this.userPermissionsByName) {
+			long[] stats = {this.userPermissionsByName.size(), this.userPermissionsHits, this.userPermissionsMisses};
+			return stats;
+		}
+	}
+	
+	/*
+	 * Change log assigning sequence numbers to changes, and notifier
+	 * publishing the changes as events to other components, in the order of
+	 * their sequence numbers.
+	 */
+	private static final String CHANGE_LOG_FILE_NAME = "ChangeLog.txt";
+	private static final String CHANGE_LOG_COMMAND = "changeLog";
+	private EcsChangeLog changeLog;
+	private GoldenGateServerEventNotifier eventNotifier;
+	private long maxChangeWaitMillis = (60 * 1000);
+	
+	/*
+	 * Version of the groups, namely the sequence number of the last group
+	 * change, or the sequence number at startup (so clients fetch groups once
+	 * more after a restart), or -1 if a group change could not be logged
+	 */
+	private volatile long groupsVersion = -1;
+	
+	private void publishChange(int type, String name) {
+		synchronized (this.changeLog) { // groups version has to follow order of changes
+			try {
+				EcsEvent change = this.changeLog.logChange(type, name);
+				this.eventNotifier.notify(change);
+				if ((type == EcsEvent.GROUP_UPDATE_TYPE) || (type == EcsEvent.GROUP_DELETE_TYPE))
+					this.groupsVersion = change.sequenceNumber;
+			}
+			catch (IOException ioe) {
+				this.logError(ioe.getMessage() + " while logging change to '" + name + "'.");
+				this.logError(ioe);
+				if ((type == EcsEvent.GROUP_UPDATE_TYPE) || (type == EcsEvent.GROUP_DELETE_TYPE))
+					this.groupsVersion = -1;
+			}
+		}
+	}
+	
+	/*
+	 * Retention for old versions of replaced files, run periodically in the
+	 * background, and on demand from the console. Old versions beyond the
+	 * retention go to an archive folder that is bounded by a disk budget.
+	 */
+	private static final String COMPACT_OLD_VERSIONS_COMMAND = "compactOldVersions";
+	private EcsOldVersionCompactor oldVersionCompactor;
+	private volatile Thread oldVersionCompactorThread = null;
+	private EcsOldVersionCompactor.Report lastOldVersionCompaction = null;
+	
+	private void initOldVersionCompactor() {
+		int versionsToKeep = 3;
+		try {
+			versionsToKeep = Integer.parseInt(this.configuration.getSetting("OldVersionsToKeep", ("" + versionsToKeep)));
+		} catch (NumberFormatException nfe) {}
+		int maxAgeDays = 30;
+		try {
+			maxAgeDays = Integer.parseInt(this.configuration.getSetting("OldVersionMaxAgeDays", ("" + maxAgeDays)));
+		} catch (NumberFormatException nfe) {}
+		long archiveBudgetMB = 1024;
+		try {
+			archiveBudgetMB = Long.parseLong(this.configuration.getSetting("OldVersionArchiveBudgetMB", ("" + archiveBudgetMB)));
+		} catch (NumberFormatException nfe) {}
+		int intervalHours = 24;
+		try {
+			intervalHours = Integer.parseInt(this.configuration.getSetting("OldVersionCompactionIntervalHours", ("" + intervalHours)));
+		} catch (NumberFormatException nfe) {}
+		
+		//	compact configuration base path separately only if outside data path
+		File[] roots;
+		if (isInFolder(this.configBasePath, this.dataPath)) {
+			File[] dataRoots = {this.dataPath};
+			roots = dataRoots;
+		}
+		else {
+			File[] dataRoots = {this.dataPath, this.configBasePath};
+			roots = dataRoots;
+		}
+		String[] excludeFolderNames = {EcsDataStore.BLOB_FOLDER_NAME};
+		this.oldVersionCompactor = new EcsOldVersionCompactor(roots, excludeFolderNames, versionsToKeep, (maxAgeDays * 24L * 60 * 60 * 1000), ((archiveBudgetMB < 0) ? -1 : (archiveBudgetMB * 1024 * 1024)));
+		
+		//	start background compaction (first run a few minutes after startup, so not to slow it down)
+		if (intervalHours < 1)
+			return;
+		final long interval = (intervalHours * 60L * 60 * 1000);
+		this.oldVersionCompactorThread = new Thread("EcsOldVersionCompactor") {
+			public void run() {
+				long wait = (10 * 60 * 1000);
+				while (oldVersionCompactorThread == this) {
+					try {
+						sleep(wait);
+					}
+					catch (InterruptedException ie) {
+						continue;
+					}
+					wait = interval;
+					if (oldVersionCompactorThread == this)
+						compactOldVersions();
+				}
+			}
+		};
+		this.oldVersionCompactorThread.setDaemon(true);
+		this.oldVersionCompactorThread.start();
+	}
+	
+	private static boolean isInFolder(File file, File folder) {
+		try {
+			file = file.getCanonicalFile();
+			folder = folder.getCanonicalFile();
+		}
+		catch (IOException ioe) {
+			file = file.getAbsoluteFile();
+			folder = folder.getAbsoluteFile();
+		}
+		for (File parent = file; parent != null; parent = parent.getParentFile()) {
+			if (parent.equals(folder))
+				return true;
+		}
+		return false;
+	}
+	
+	private EcsOldVersionCompactor.Report compactOldVersions() {
+		EcsOldVersionCompactor.Report report = this.oldVersionCompactor.compact();
+		this.lastOldVersionCompaction = report;
+		String[] reportLines = report.toLines();
+		for (int l = 0; l < reportLines.length; l++)
+			this.logInfo("ECS: " + reportLines[l]);
+		return report;
+	}
+	
+	/*
+	 * Content addressed storage for data files, null if data files are stored
+	 * as plain files. Plain files remain readable with the store enabled, so
+	 * the data of configurations can be imported one by one.
+	 */
+	private static final String DATA_STORE_COMMAND = "dataStore";
+	private EcsDataStore dataStore = null;
+	
+	private DataEntry getDataEntry(String dataName) throws IOException {
+		if (this.dataStore != null) {
+			DataEntry dataEntry = this.dataStore.getDataEntry(dataName);
+			if (dataEntry != null)
+				return dataEntry;
+		}
+		File dataFile = new File(this.dataPath, dataName);
+		if (dataFile.exists() && dataFile.isFile())
+			return new DataEntry(dataName, null, dataFile.length(), dataFile.lastModified(), dataFile);
+		else return null;
+	}
+	
+	/*
+	 * Cache for the content hashes of plain data files, keyed by path, size,
+	 * and last modification time, so files are only hashed again after they
+	 * change. Data files in content addressed storage have their hash anyway.
+	 */
+	private LinkedHashMap dataHashCache = new LinkedHashMap(16, 0.75f, true) {
+		protected boolean removeEldestEntry(Map.Entry eldest) {
+			return (this.size() > 16384);
+		}
+	};
+	
+	private String getDataHash(DataEntry dataEntry) throws IOException {
+		if (dataEntry.hash != null)
+			return dataEntry.hash;
+		String cacheKey = (dataEntry.file.getAbsolutePath() + "@" + dataEntry.size + "@" + dataEntry.lastModified);
+		synchronized (this.dataHashCache) {
+			String hash = ((String) this.dataHashCache.get(cacheKey));
+			if (hash != null)
+				return hash;
+		}
+		String hash = EcsDataStore.computeHash(dataEntry.file);
+		synchronized (this.dataHashCache) {
+			this.dataHashCache.put(cacheKey, hash);
+		}
+		return hash;
+	}
+	
+	/*
+	 * Buffers and counters for sending data files. Files are read through their
+	 * channel in large chunks, which the buffered network output stream hands
+	 * to the socket without copying them again. Each thread keeps its buffer,
+	 * so sending a file does not allocate anything. The server host does not
+	 * expose the socket channel, so transferTo() cannot hand the file to the
+	 * socket directly.
+	 */
+	private static final String DATA_TRANSFER_COMMAND = "dataTransfer";
+	private int dataTransferBufferSize = (256 * 1024);
+	private ThreadLocal dataTransferBuffers = new ThreadLocal() {
+		protected Object initialValue() {
+			return ByteBuffer.allocate(dataTransferBufferSize);
+		}
+	};
+	private long dataTransferCount = 0;
+	private long dataTransferBytes = 0;
+	private long dataTransferNanos = 0;
+	private DataCompressionPolicy dataCompressionPolicy = new DataCompressionPolicy();
+	
+	private long sendDataFile(File dataFile, OutputStream out) throws IOException {
+		return this.sendDataFile(dataFile, 0, -1, out);
+	}
+	
+	private long sendDataFile(File dataFile, long offset, long length, OutputStream out) throws IOException {
+		long start = System.nanoTime();
+		long sent = 0;
+		ByteBuffer buffer = ((ByteBuffer) this.dataTransferBuffers.get());
+		FileInputStream fis = new FileInputStream(dataFile);
+		try {
+			FileChannel fc = fis.getChannel();
+			if (offset != 0)
+				fc.position(offset);
+			long remaining = ((length < 0) ? Long.MAX_VALUE : length);
+			while (remaining > 0) {
+				buffer.clear();
+				if (buffer.capacity() > remaining)
+					buffer.limit((int) remaining); // stay inside range
+				int read = fc.read(buffer);
+				if (read == -1)
+					break;
+				out.write(buffer.array(), 0, read);
+				sent += read;
+				remaining -= read;
+			}
 		}
-		abstract String[] getList() throws IOException;
+		finally {
+			buffer.clear();
+			fis.close();
+		}
+		long time = (System.nanoTime() - start);
+		synchronized (this.dataTransferBuffers) {
+			this.dataTransferCount++;
+			this.dataTransferBytes += sent;
+			this.dataTransferNanos += time;
+		}
+		return sent;
 	}
 	
-	private abstract class GetGroupsOrPluginsOrResourcesAction extends ComponentActionNetwork {
-		private String actionCommand;
-		GetGroupsOrPluginsOrResourcesAction(String actionCommand) {
-			this.actionCommand = actionCommand;
+	private long[] getDataTransferStats() {
+		synchronized (this.dataTransferBuffers) {
+			long[] stats = {this.dataTransferCount, this.dataTransferBytes, this.dataTransferNanos};
+			return stats;
 		}
-		public String getActionCommand() {
-			return this.actionCommand;
+	}
+	
+	private void resetDataTransferStats() {
+		synchronized (this.dataTransferBuffers) {
+			this.dataTransferCount = 0;
+			this.dataTransferBytes = 0;
+			this.dataTransferNanos = 0;
 		}
-		public void performActionNetwork(BufferedReader input, BufferedWriter output) throws IOException {
-			
-			//	check authentication
-			String sessionId = input.readLine();
-			if (!uaa.isValidSession(sessionId)) {
-				output.write("Invalid session (" + sessionId + ")");
-				output.newLine();
-				return;
-			}
-			else if (!uaa.isAdminSession(sessionId)) {
-				output.write("Administrative priviledges required");
-				output.newLine();
-				return;
-			}
-			
-			//	get action target
-			String groupName = input.readLine();
+	}
+	
+	/*
+	 * Cache for projected configurations, keyed by base configuration name and
+	 * timestamp, and the signatures of the groups a user has permission for and
+	 * of the groups required for a document. Users with the same permissions
+	 * share projections, as do documents requiring the same groups, so the
+	 * projections are named after the base configuration, and the user name
+	 * is inserted on delivery.
+	 */
+	private static final String PROJECTION_CACHE_COMMAND = "projectionCache";
+	private int projectionCacheSize = 256;
+	private LinkedHashMap projectionCache = new LinkedHashMap(16, 0.75f, true) {
+		protected boolean removeEldestEntry(Map.Entry eldest) {
+			return (this.size() > projectionCacheSize);
+		}
+	};
+	private long projectionCacheHits = 0;
+	private long projectionCacheMisses = 0;
+	private volatile long projectionCacheGeneration = 0;
+	
+	private static class Projection {
+		final String cacheKey;
+		final Configuration config;
+		Projection(String cacheKey, Configuration config) {
+			this.cacheKey = cacheKey;
+			this.config = config;
+		}
+	}
+	
+	private String getProjectionCacheKey(Configuration model, EcsGroupSet permittedGroupNames, EcsGroupSet docResGroups) {
+		StringBuffer cacheKey = new StringBuffer(model.name);
+		cacheKey.append('@');
+		cacheKey.append(model.configTimestamp);
+		cacheKey.append('#');
+		cacheKey.append(this.getConfigurationVersion(model)); // distinguishes configuration objects replaced in registry
+		cacheKey.append('\n');
+		cacheKey.append((permittedGroupNames == null) ? "*" : permittedGroupNames.signature);
+		cacheKey.append('\n');
+		cacheKey.append((docResGroups == null) ? "*" : docResGroups.signature);
+		return cacheKey.toString();
+	}
+	
+	private Projection getCachedProjection(String cacheKey) {
+		synchronized (this.projectionCache) {
+			Projection projection = ((Projection) this.projectionCache.get(cacheKey));
+			if (projection == null)
+				this.projectionCacheMisses++;
+			else this.projectionCacheHits++;
+			return projection;
+		}
+	}
+	
+	private void cacheProjection(Projection projection, long cacheGeneration) {
+		synchronized (this.projectionCache) {
 			
-			//	get data
-			String[] groupsOrPluginsOrResources;
-			try {
-				groupsOrPluginsOrResources = getGroupsOrPluginsOrResources(groupName);
-			}
-			catch (IOException ioe) {
-				output.write(ioe.getMessage());
-				output.newLine();
+			//	cache cleared while projecting, result might be outdated
+			if (cacheGeneration != this.projectionCacheGeneration)
 				return;
+			this.projectionCache.put(projection.cacheKey, projection);
+		}
+	}
+	
+	private void clearProjectionCache() {
+		synchronized (this.projectionCache) {
+			this.projectionCacheGeneration++;
+			this.projectionCache.clear();
+		}
+		this.uncacheSerializedProjections();
+	}
+	
+	private long[] getProjectionCacheStats() {
+		synchronized (this.projectionCache) {
+			long[] stats = {this.projectionCache.size(), this.projectionCacheHits, this.projectionCacheMisses};
+			return stats;
+		}
+	}
+	
+	/*
+	 * Cache for the UTF-8 encoded XML of configuration descriptors, both
+	 * stored and projected ones, bounded by the total number of bytes held.
+	 * Descriptors are keyed by name, timestamp, and object identity, so any
+	 * new version of a configuration gets a new entry. Projections are
+	 * serialized with a placeholder name, and the XML is stored in fragments
+	 * to insert the actual configuration name between on delivery.
+	 */
+	private static final String SERIALIZED_CONFIGURATION_CACHE_COMMAND = "descriptorCache";
+	private static final String CONFIGURATION_NAME_PLACEHOLDER = ("EcsConfigurationNamePlaceholder" + Math.abs(new Random().nextLong()));
+	private static final String DESCRIPTOR_KEY_PREFIX = "D:";
+	private static final String PROJECTION_KEY_PREFIX = "P:";
+	private long serializedConfigurationCacheSize = (16 * 1024 * 1024);
+	private LinkedHashMap serializedConfigurationCache = new LinkedHashMap(16, 0.75f, true);
+	private long serializedConfigurationCacheBytes = 0;
+	private long serializedConfigurationCacheHits = 0;
+	private long serializedConfigurationCacheMisses = 0;
+	
+	private static class SerializedConfiguration {
+		final String cacheKey;
+		final byte[][] xmlParts;
+		final int size;
+		SerializedConfiguration(String cacheKey, byte[][] xmlParts) {
+			this.cacheKey = cacheKey;
+			this.xmlParts = xmlParts;
+			int size = 0;
+			for (int p = 0; p < this.xmlParts.length; p++)
+				size += this.xmlParts[p].length;
+			this.size = size;
+		}
+		void writeXml(OutputStream out, String configName) throws IOException {
+			byte[] configNameBytes = ((this.xmlParts.length == 1) ? null : ConfigurationUtils.configurationGrammar.escape(configName).getBytes(ENCODING));
+			for (int p = 0; p < this.xmlParts.length; p++) {
+				if (p != 0)
+					out.write(configNameBytes);
+				out.write(this.xmlParts[p]);
 			}
+		}
+	}
+	
+	private SerializedConfiguration getSerializedConfiguration(Configuration config) throws IOException {
+		String cacheKey = (DESCRIPTOR_KEY_PREFIX + config.name + "@" + config.configTimestamp + "#" + this.getConfigurationVersion(config));
+		SerializedConfiguration serializedConfig = this.getCachedSerializedConfiguration(cacheKey);
+		if (serializedConfig == null) {
+			long start = System.nanoTime();
+			serializedConfig = new SerializedConfiguration(cacheKey, serializeConfiguration(config, null));
+			this.metrics.recordTime(EcsMetrics.SERIALIZATION_TIMER, (System.nanoTime() - start));
+			this.cacheSerializedConfiguration(serializedConfig);
+		}
+		return serializedConfig;
+	}
+	
+	private SerializedConfiguration getSerializedConfiguration(Projection projection) throws IOException {
+		String cacheKey = (PROJECTION_KEY_PREFIX + projection.cacheKey);
+		SerializedConfiguration serializedConfig = this.getCachedSerializedConfiguration(cacheKey);
+		if (serializedConfig == null) {
+			long start = System.nanoTime();
+			serializedConfig = new SerializedConfiguration(cacheKey, serializeConfiguration(copyConfiguration(CONFIGURATION_NAME_PLACEHOLDER, projection.config), CONFIGURATION_NAME_PLACEHOLDER));
+			this.metrics.recordTime(EcsMetrics.SERIALIZATION_TIMER, (System.nanoTime() - start));
 			
-			//	indicate success
-			output.write(this.actionCommand);
-			output.newLine();
-			
-			//	send data
-			for (int gpr = 0; gpr < groupsOrPluginsOrResources.length; gpr++) {
-				output.write(groupsOrPluginsOrResources[gpr]);
-				output.newLine();
+			//	cache only if projection still valid (might have been invalidated while serializing)
+			synchronized (this.projectionCache) {
+				if (this.projectionCache.get(projection.cacheKey) == projection)
+					this.cacheSerializedConfiguration(serializedConfig);
 			}
 		}
-		abstract String[] getGroupsOrPluginsOrResources(String groupName) throws IOException;
+		return serializedConfig;
 	}
 	
-	private abstract class ModifyGroupsOrPluginsOrResourcesAction extends ComponentActionNetwork {
-		private String actionCommand;
-		ModifyGroupsOrPluginsOrResourcesAction(String actionCommand) {
-			this.actionCommand = actionCommand;
-		}
-		public String getActionCommand() {
-			return this.actionCommand;
+	private static byte[][] serializeConfiguration(Configuration config, String namePlaceholder) throws IOException {
+		StringWriter xml = new StringWriter();
+		BufferedWriter xmlWriter = new BufferedWriter(xml);
+		config.writeXml(xmlWriter);
+		xmlWriter.flush();
+		String[] xmlParts = ((namePlaceholder == null) ? new String[] {xml.toString()} : xml.toString().split(namePlaceholder, -1));
+		byte[][] xmlPartBytes = new byte[xmlParts.length][];
+		for (int p = 0; p < xmlParts.length; p++)
+			xmlPartBytes[p] = xmlParts[p].getBytes(ENCODING);
+		return xmlPartBytes;
+	}
+	
+	private SerializedConfiguration getCachedSerializedConfiguration(String cacheKey) {
+		synchronized (this.serializedConfigurationCache) {
+			SerializedConfiguration serializedConfig = ((SerializedConfiguration) this.serializedConfigurationCache.get(cacheKey));
+			if (serializedConfig == null)
+				this.serializedConfigurationCacheMisses++;
+			else this.serializedConfigurationCacheHits++;
+			return serializedConfig;
 		}
-		public void performActionNetwork(BufferedReader input, BufferedWriter output) throws IOException {
+	}
+	
+	private void cacheSerializedConfiguration(SerializedConfiguration serializedConfig) {
+		synchronized (this.serializedConfigurationCache) {
 			
-			//	check authentication
-			String sessionId = input.readLine();
-			if (!uaa.isValidSession(sessionId)) {
-				output.write("Invalid session (" + sessionId + ")");
-				output.newLine();
-				return;
-			}
-			else if (!uaa.isAdminSession(sessionId)) {
-				output.write("Administrative priviledges required");
-				output.newLine();
+			//	too large to cache at all
+			if (serializedConfig.size > this.serializedConfigurationCacheSize)
 				return;
-			}
-			
-			//	get action target
-			String groupName = input.readLine();
-			
-			//	get groups or resources
-			StringVector groupsOrPluginsOrResources = new StringVector();
-			String groupOrPluginOrResource;
-			while (((groupOrPluginOrResource = input.readLine()) != null) && (groupOrPluginOrResource.length() != 0))
-				groupsOrPluginsOrResources.addElementIgnoreDuplicates(groupOrPluginOrResource);
 			
-			//	perform actual action
-			String error = this.performAction(groupName, groupsOrPluginsOrResources.toStringArray());
+			//	store serialized configuration
+			SerializedConfiguration oldSerializedConfig = ((SerializedConfiguration) this.serializedConfigurationCache.put(serializedConfig.cacheKey, serializedConfig));
+			if (oldSerializedConfig != null)
+				this.serializedConfigurationCacheBytes -= oldSerializedConfig.size;
+			this.serializedConfigurationCacheBytes += serializedConfig.size;
 			
-			//	indicate success
-			if (error == null) {
-				output.write(this.actionCommand);
-				output.newLine();
+			//	evict least recently used serialized configurations until size fits
+			for (Iterator scit = this.serializedConfigurationCache.values().iterator(); scit.hasNext() && (this.serializedConfigurationCacheBytes > this.serializedConfigurationCacheSize);) {
+				SerializedConfiguration lruSerializedConfig = ((SerializedConfiguration) scit.next());
+				scit.remove();
+				this.serializedConfigurationCacheBytes -= lruSerializedConfig.size;
 			}
-			
-			//	indicate error
-			else {
-				output.write(error);
-				output.newLine();
+		}
+	}
+	
+	private void uncacheSerializedConfiguration(String configName) {
+		this.uncacheSerializedConfigurations(DESCRIPTOR_KEY_PREFIX + configName + "@");
+	}
+	
+	private void uncacheSerializedProjections() {
+		this.uncacheSerializedConfigurations(PROJECTION_KEY_PREFIX);
+	}
+	
+	private void uncacheSerializedConfigurations(String cacheKeyPrefix) {
+		synchronized (this.serializedConfigurationCache) {
+			for (Iterator scit = this.serializedConfigurationCache.values().iterator(); scit.hasNext();) {
+				SerializedConfiguration serializedConfig = ((SerializedConfiguration) scit.next());
+				if (serializedConfig.cacheKey.startsWith(cacheKeyPrefix)) {
+					scit.remove();
+					this.serializedConfigurationCacheBytes -= serializedConfig.size;
+				}
 			}
 		}
-		abstract String performAction(String levelOrGroupName, String[] groupsOrPluginsOrResources);
 	}
 	
-	private String[] getConfigurationNames(String userName) {
-		
-		//	get all configuration names
-		TreeSet userConfigNames = new TreeSet();
-		
-		//	collect config names user has permission to see
-		for (Iterator cit = this.configurationsByName.keySet().iterator(); cit.hasNext();) {
-			String configName = ((String) cit.next());
-			if (this.uaa.hasPermission(userName, (CONFIGURATION_PERMISSION_PREFIX + configName), true))
-				userConfigNames.add(configName);
+	private long[] getSerializedConfigurationCacheStats() {
+		synchronized (this.serializedConfigurationCache) {
+			long[] stats = {this.serializedConfigurationCache.size(), this.serializedConfigurationCacheBytes, this.serializedConfigurationCacheHits, this.serializedConfigurationCacheMisses};
+			return stats;
 		}
+	}
+	
+	private void saveUserConfigurations(TreeMap userDefaultConfigurations) throws IOException {
+		long generation = this.nextUserConfigurationGeneration();
+		EcsFileWriter.AtomicWrite ucWrite = this.prepareListFile(new File(this.dataPath, "UserConfigurations.txt"), this.getUserConfigurationLines(userDefaultConfigurations, generation));
 		
-		//	add default configuration
-		String userDefaultConfig = ((String) this.userDefaultConfigurations.get(userName));
-		if (userDefaultConfig != null) userConfigNames.add(userDefaultConfig);
+		TreeSet changedUserNames = new TreeSet();
+		synchronized (this) {
+			this.fileWriter.commit(ucWrite);
+			this.userConfigurationJournal.reset(generation); // full list replaces any individual changes
+			
+			//	publish user default configurations
+			synchronized (this.registry) {
+				RegistryUpdate update = new RegistryUpdate(this.getRegistry());
+				
+				//	collect users whose default configuration changes
+				TreeMap oldUserDefaultConfigurations = update.base.userDefaultConfigurations;
+				changedUserNames.addAll(oldUserDefaultConfigurations.keySet());
+				changedUserNames.addAll(userDefaultConfigurations.keySet());
+				for (Iterator uit = changedUserNames.iterator(); uit.hasNext();) {
+					Object userName = uit.next();
+					Object oldConfigName = oldUserDefaultConfigurations.get(userName);
+					if ((oldConfigName != null) && oldConfigName.equals(userDefaultConfigurations.get(userName)))
+						uit.remove();
+				}
+				
+				update.userDefaultConfigurations().clear();
+				update.userDefaultConfigurations().putAll(userDefaultConfigurations);
+				this.registry.set(update.toRegistry());
+			}
+		}
 		
-		//	return config names
-		return ((String[]) userConfigNames.toArray(new String[userConfigNames.size()]));
+		for (Iterator uit = changedUserNames.iterator(); uit.hasNext();)
+			this.publishChange(EcsEvent.USER_CONFIGURATION_UPDATE_TYPE, ((String) uit.next()));
 	}
 	
 	/*
-	 * This method facilitates using different master configurations as the
-	 * basis for permission and level based filtering, all adding an additional
-	 * filter to the actual master configuration. This will facilitate, for
-	 * instance, omitting memory intensive plugins in applet environments. And
-	 * it will facilitate changing components very quickly and clandestinely for
-	 * user experiments ...
+	 * Journal of changes to the default configurations of individual users,
+	 * so setting the default configuration of a single user does not rewrite
+	 * the whole list. The journal is checkpointed to the list file after a
+	 * configurable number of entries, and on shutdown.
 	 */
-	private Configuration getUserConfiguration(String userName) {
-		String configName = ((String) this.userDefaultConfigurations.get(userName));
-		if (configName == null) return this.masterConfiguration;
-		else {
-			Configuration config = this.getConfiguration(configName);
-			return ((config == null) ? this.masterConfiguration : config);
+	private static final String USER_CONFIGURATION_JOURNAL_FILE_NAME = "UserConfigurations.journal.txt";
+	private static final String USER_CONFIGURATION_SET = "S";
+	private static final String USER_CONFIGURATION_UNSET = "U";
+	private static final String USER_CONFIGURATIONS_COMMAND = "userConfigurations";
+	private static final String USER_CONFIGURATION_GENERATION_PREFIX = "#generation\t";
+	private EcsJournal userConfigurationJournal;
+	private long userConfigurationGeneration = 0;
+	private int userConfigurationCheckpointEntries = 1000;
+	
+	private synchronized long nextUserConfigurationGeneration() {
+		return ++this.userConfigurationGeneration;
+	}
+	
+	private ArrayList getUserConfigurationLines(TreeMap userDefaultConfigurations, long generation) {
+		ArrayList lines = new ArrayList();
+		lines.add(USER_CONFIGURATION_GENERATION_PREFIX + generation);
+		for (Iterator uit = userDefaultConfigurations.keySet().iterator(); uit.hasNext();) {
+			String userName = ((String) uit.next());
+			String userConfigName = ((String) userDefaultConfigurations.get(userName));
+			if (userConfigName != null)
+				lines.add(userName + ":" + userConfigName);
 		}
+		return lines;
 	}
 	
-	private Configuration projectConfiguration(String userName, Set docResGroups, Configuration model) {
-		
-		//	collect required plugins and resources
-		HashSet pluginNameSet = new HashSet();
-		HashSet resourceNameSet = new HashSet();
-		
-		//	request for full configuration, copy data from model
-		if (docResGroups == null) {
-			pluginNameSet.addAll(model.pluginsByName.keySet());
-			resourceNameSet.addAll(model.resourcesByName.keySet());
+	private void setUserConfiguration(String userName, String configName) throws IOException {
+		boolean checkpoint;
+		synchronized (this) {
+			String oldConfigName = ((String) this.getRegistry().userDefaultConfigurations.get(userName));
+			if ((configName == null) ? (oldConfigName == null) : configName.equals(oldConfigName))
+				return;
+			
+			//	write journal entry
+			this.userConfigurationJournal.append((configName == null) ? (USER_CONFIGURATION_UNSET + "\t" + userName) : (USER_CONFIGURATION_SET + "\t" + userName + "\t" + configName));
+			
+			//	publish user default configurations
+			synchronized (this.registry) {
+				RegistryUpdate update = new RegistryUpdate(this.getRegistry());
+				if (configName == null)
+					update.userDefaultConfigurations().remove(userName);
+				else update.userDefaultConfigurations().put(userName, configName);
+				this.registry.set(update.toRegistry());
+			}
+			checkpoint = (this.userConfigurationJournal.size() >= this.userConfigurationCheckpointEntries);
 		}
 		
-		//	request for document specific configuration
-		else {
+		this.publishChange(EcsEvent.USER_CONFIGURATION_UPDATE_TYPE, userName);
+		if (checkpoint)
+			this.checkpointUserConfigurations();
+	}
+	
+	private void checkpointUserConfigurations() throws IOException {
+		while (true) {
+			TreeMap userDefaultConfigurations;
+			long generation;
+			synchronized (this) {
+				userDefaultConfigurations = this.getRegistry().userDefaultConfigurations;
+				generation = ++this.userConfigurationGeneration;
+			}
 			
-			//	read required groups
-			for (Iterator git = docResGroups.iterator(); git.hasNext();) {
-				Group group = this.getGroup((String) git.next());
-				if (group != null) {
-					pluginNameSet.addAll(group.plugins);
-					for (Iterator rit = group.resources.iterator(); rit.hasNext();) {
-						String resourceName = ((String) rit.next());
-						String plainResourceName = ((String) this.resourceNameMappings.get(resourceName));
-						if (plainResourceName != null) resourceName = plainResourceName;
-						resourceNameSet.add(resourceName);
-					}
+			//	write list outside lock, as this might wait for a group commit
+			EcsFileWriter.AtomicWrite ucWrite = this.prepareListFile(new File(this.dataPath, "UserConfigurations.txt"), this.getUserConfigurationLines(userDefaultConfigurations, generation));
+			
+			//	put list in place and reset journal, unless user default configurations changed in the meantime
+			synchronized (this) {
+				if (this.getRegistry().userDefaultConfigurations != userDefaultConfigurations) {
+					this.fileWriter.abort(ucWrite);
+					continue;
 				}
+				this.fileWriter.commit(ucWrite);
+				this.userConfigurationJournal.reset(generation);
 			}
+			this.logInfo("ECS: wrote checkpoint of " + userDefaultConfigurations.size() + " user default configurations");
+			return;
 		}
+	}
+	
+	private void saveOnlineConfigurations(TreeSet onlineConfigurations) throws IOException {
+		ArrayList lines = new ArrayList(onlineConfigurations);
+		EcsFileWriter.AtomicWrite ocWrite = this.prepareListFile(new File(this.dataPath, "OnlineConfigurations.txt"), lines);
 		
-		//	check global permission for configuration
-		if (this.uaa.hasPermission(userName, (CONFIGURATION_PERMISSION_PREFIX + model.name + CONFIGURATION_ALL_PERMISSION_SUFFIX)))
-			return this.projectConfiguration(userName, model, pluginNameSet, resourceNameSet);
-		
-		//	check user permissions on group level
-		HashSet permissionSet = new HashSet();
-		for (Iterator git = this.groupsByName.keySet().iterator(); git.hasNext();) {
-			String groupName = ((String) git.next());
-			if (this.uaa.hasPermission(userName, (GROUP_PERMISSION_PREFIX + groupName), true)) {
-				Group group = this.getGroup(groupName);
-				if (group != null) {
-					permissionSet.addAll(group.plugins);
-					for (Iterator rit = group.resources.iterator(); rit.hasNext();) {
-						String resourceName = ((String) rit.next());
-						String plainResourceName = ((String) this.resourceNameMappings.get(resourceName));
-						if (plainResourceName != null)
-							resourceName = plainResourceName;
-						permissionSet.add(resourceName);
-					}
+		TreeSet changedConfigNames = new TreeSet();
+		synchronized (this) {
+			this.fileWriter.commit(ocWrite);
+			
+			//	publish online configurations
+			synchronized (this.registry) {
+				RegistryUpdate update = new RegistryUpdate(this.getRegistry());
+				
+				//	collect configurations going online or offline
+				TreeSet oldOnlineConfigurations = update.base.onlineConfigurations;
+				for (Iterator cit = oldOnlineConfigurations.iterator(); cit.hasNext();) {
+					Object configName = cit.next();
+					if (!onlineConfigurations.contains(configName))
+						changedConfigNames.add(configName);
+				}
+				for (Iterator cit = onlineConfigurations.iterator(); cit.hasNext();) {
+					Object configName = cit.next();
+					if (!oldOnlineConfigurations.contains(configName))
+						changedConfigNames.add(configName);
 				}
+				
+				update.onlineConfigurations().clear();
+				update.onlineConfigurations().addAll(onlineConfigurations);
+				this.registry.set(update.toRegistry());
 			}
 		}
 		
-		//	apply permissions
-		pluginNameSet.retainAll(permissionSet);
-		resourceNameSet.retainAll(permissionSet);
-		
-		//	project and return configuration
-		return this.projectConfiguration(userName, model, pluginNameSet, resourceNameSet);
+		for (Iterator cit = changedConfigNames.iterator(); cit.hasNext();)
+			this.publishChange(EcsEvent.ONLINE_CONFIGURATION_UPDATE_TYPE, ((String) cit.next()));
 	}
 	
-	private Configuration projectConfiguration(String configName, Configuration model, Set pluginNameSet, Set resourceNameSet) {
-		
-		//	assemble configuration
-		Configuration config = new Configuration(configName, model);
-		config.dataItems.addAll(model.dataItems);
-		
-		//	apply permissions
-		String[] pluginNames = ((String[]) pluginNameSet.toArray(new String[pluginNameSet.size()]));
-		for (int p = 0; p < pluginNames.length; p++) {
-			Plugin plugin = ((Plugin) model.pluginsByName.get(pluginNames[p]));
-			if (plugin != null)
-				config.addPlugin(plugin);
-		}
-		
-		String[] resourceNames = ((String[]) resourceNameSet.toArray(new String[resourceNameSet.size()]));
-		for (int r = 0; r < resourceNames.length; r++) {
-			Resource resource = ((Resource) model.resourcesByName.get(resourceNames[r]));
-			if (resource != null)
-				config.addResource(resource);
-		}
-		
-		//	collect required resources recursively
-		int resourceCount;
-		do {
-			Resource[] resources = ((Resource[]) config.resources.toArray(new Resource[config.resources.size()]));
-			resourceCount = resources.length;
-			for (int r = 0; r < resources.length; r++)
-				for (Iterator rrit = resources[r].requiredResourceNames.iterator(); rrit.hasNext();) {
-					Resource reqRes = ((Resource) model.resourcesByName.get(rrit.next()));
-					if (reqRes != null)
-						config.addResource(reqRes);
-				}
-		} while (resourceCount < config.resources.size());
-		
-		//	collect required plugins, and resources to plugins
-		Resource[] resources = ((Resource[]) config.resources.toArray(new Resource[config.resources.size()]));
-		for (int r = 0; r < resources.length; r++) {
-			Plugin managerPlugin = ((Plugin) model.pluginsByClassName.get(resources[r].managerClassName));
-			if (managerPlugin != null) {
-				config.addPlugin(managerPlugin);
-				managerPlugin.resources.add(resources[r]);
-			}
-		}
-		
-		//	collect plugins required by other plugins
-		int pluginCount;
-		do {
-			Plugin[] plugins = ((Plugin[]) config.plugins.toArray(new Plugin[config.plugins.size()]));
-			pluginCount = plugins.length;
-			for (int p = 0; p < plugins.length; p++)
-				for (Iterator rpit = plugins[p].requiredPluginClassNames.iterator(); rpit.hasNext();) {
-					Plugin reqPlugin = ((Plugin) model.pluginsByClassName.get(rpit.next()));
-					if (reqPlugin != null)
-						config.addPlugin(reqPlugin);
-				}
-		} while (pluginCount < config.plugins.size());
-		
-		//	add data items
-		for (Iterator dit = model.dataItems.iterator(); dit.hasNext();)
-			config.addDataItem((DataItem) dit.next());
-		
-		//	return configuration
-		return config;
+	/*
+	 * Registry of configurations, groups, user default configurations, online
+	 * configurations, and resource name mappings. Registry snapshots are never
+	 * modified once published, so readers get wait-free access to a consistent
+	 * version through the atomic reference. Writers synchronize on the atomic
+	 * reference, copy the parts of the current snapshot they modify, and then
+	 * publish the new snapshot. Groups are replaced rather than modified as
+	 * well.
+	 */
+	private static class Registry {
+		final TreeSet configurationNames; // names of all configurations, including ones not loaded yet
+		final TreeMap configurationsByName;
+		final TreeMap groupsByName;
+		final TreeMap userDefaultConfigurations;
+		final TreeSet onlineConfigurations;
+		final TreeMap resourceNameMappings;
+		Registry(TreeSet configurationNames, TreeMap configurationsByName, TreeMap groupsByName, TreeMap userDefaultConfigurations, TreeSet onlineConfigurations, TreeMap resourceNameMappings) {
+			this.configurationNames = configurationNames;
+			this.configurationsByName = configurationsByName;
+			this.groupsByName = groupsByName;
+			this.userDefaultConfigurations = userDefaultConfigurations;
+			this.onlineConfigurations = onlineConfigurations;
+			this.resourceNameMappings = resourceNameMappings;
+		}
 	}
 	
-	private TreeMap userDefaultConfigurations = new TreeMap();
-	private void saveUserConfigurations() throws IOException {
-		File ucFile = new File(this.dataPath, "UserConfigurations.txt");
-		this.invalidate(ucFile);
-		ucFile.createNewFile();
-		
-		BufferedWriter bw = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(ucFile)));
-		
-		for (Iterator uit = this.userDefaultConfigurations.keySet().iterator(); uit.hasNext();) {
-			String userName = ((String) uit.next());
-			String userConfigName = ((String) this.userDefaultConfigurations.get(userName));
-			if (userConfigName != null) {
-				bw.write(userName + ":" + userConfigName);
-				bw.newLine();
-			}
+	private static class RegistryUpdate {
+		final Registry base;
+		private TreeSet configurationNames = null;
+		private TreeMap configurationsByName = null;
+		private TreeMap groupsByName = null;
+		private TreeMap userDefaultConfigurations = null;
+		private TreeSet onlineConfigurations = null;
+		private TreeMap resourceNameMappings = null;
+		RegistryUpdate(Registry base) {
+			this.base = base;
+		}
+		TreeSet configurationNames() {
+			if (this.configurationNames == null)
+				this.configurationNames = new TreeSet(this.base.configurationNames);
+			return this.configurationNames;
+		}
+		TreeMap configurationsByName() {
+			if (this.configurationsByName == null)
+				this.configurationsByName = new TreeMap(this.base.configurationsByName);
+			return this.configurationsByName;
+		}
+		TreeMap groupsByName() {
+			if (this.groupsByName == null)
+				this.groupsByName = new TreeMap(this.base.groupsByName);
+			return this.groupsByName;
+		}
+		TreeMap userDefaultConfigurations() {
+			if (this.userDefaultConfigurations == null)
+				this.userDefaultConfigurations = new TreeMap(this.base.userDefaultConfigurations);
+			return this.userDefaultConfigurations;
+		}
+		TreeSet onlineConfigurations() {
+			if (this.onlineConfigurations == null)
+				this.onlineConfigurations = new TreeSet(this.base.onlineConfigurations);
+			return this.onlineConfigurations;
+		}
+		TreeMap resourceNameMappings() {
+			if (this.resourceNameMappings == null)
+				this.resourceNameMappings = new TreeMap(this.base.resourceNameMappings);
+			return this.resourceNameMappings;
+		}
+		Registry toRegistry() {
+			return new Registry(
+					((this.configurationNames == null) ? this.base.configurationNames : this.configurationNames),
+					((this.configurationsByName == null) ? this.base.configurationsByName : this.configurationsByName),
+					((this.groupsByName == null) ? this.base.groupsByName : this.groupsByName),
+					((this.userDefaultConfigurations == null) ? this.base.userDefaultConfigurations : this.userDefaultConfigurations),
+					((this.onlineConfigurations == null) ? this.base.onlineConfigurations : this.onlineConfigurations),
+					((this.resourceNameMappings == null) ? this.base.resourceNameMappings : this.resourceNameMappings)
+				);
 		}
-		
-		bw.flush();
-		bw.close();
 	}
 	
-	private TreeSet onlineConfigurations = new TreeSet();
-	private void saveOnlineConfigurations() throws IOException {
-		File ucFile = new File(this.dataPath, "OnlineConfigurations.txt");
-		this.invalidate(ucFile);
-		ucFile.createNewFile();
-		
-		BufferedWriter bw = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(ucFile)));
-		
-		for (Iterator uit = this.onlineConfigurations.iterator(); uit.hasNext();) {
-			String configName = ((String) uit.next());
-			bw.write(configName);
-			bw.newLine();
-		}
-		
-		bw.flush();
-		bw.close();
+	private final AtomicReference registry = new AtomicReference(new Registry(new TreeSet(), new TreeMap(), new TreeMap(), new TreeMap(), new TreeSet(), new TreeMap()));
+	
+	private Registry getRegistry() {
+		return ((Registry) this.registry.get());
 	}
 	
-	private TreeMap configurationsByName = new TreeMap();
 	private Configuration masterConfiguration;
-	
-	private TreeMap groupsByName = new TreeMap();
+	private boolean useBinaryDescriptors = true;
+	private EcsDescriptorInterner descriptorInterner = new EcsDescriptorInterner(); // null if interning switched off
 	
 	private class Group implements Comparable {
 		final String name;
-		final TreeSet plugins = new TreeSet();
-		final TreeSet resources = new TreeSet();
+		final BitSet plugins; // IDs from plugin name index
+		final BitSet resources; // IDs from resource name index, names as granted, i.e., possibly qualified with plugin name
+		private BitSet plainResources = null;
+		private TreeMap plainResourcesMappings = null;
 		Group(String name) {
+			this(name, new BitSet(), new BitSet());
+		}
+		Group(String name, BitSet plugins, BitSet resources) {
 			this.name = name;
-			groupsByName.put(this.name, this);
+			this.plugins = plugins;
+			this.resources = resources;
+		}
+		BitSet getPlainResources() {
+			ensureResourceNameMappings();
+			return this.doGetPlainResources();
+		}
+		private synchronized BitSet doGetPlainResources() {
+			
+			//	resolve resource names qualified with plugin name, and cache result until name mappings change
+			TreeMap resourceNameMappings = getRegistry().resourceNameMappings;
+			if (this.plainResourcesMappings != resourceNameMappings) {
+				BitSet plainResources = new BitSet();
+				for (int r = this.resources.nextSetBit(0); r != -1; r = this.resources.nextSetBit(r + 1)) {
+					String plainResourceName = ((String) resourceNameMappings.get(resourceNameIndex.getName(r)));
+					plainResources.set((plainResourceName == null) ? r : resourceNameIndex.getId(plainResourceName));
+				}
+				this.plainResources = plainResources;
+				this.plainResourcesMappings = resourceNameMappings;
+			}
+			return this.plainResources;
 		}
 		public boolean equals(Object obj) {
 			return ((obj instanceof Group) && this.name.equals(((Group) obj).name));
@@ -1754,6 +4282,8 @@ TODO Start publishing update and deletion events
 	public GoldenGateConfiguration getGgConfiguration(String configName) {
 		Configuration config = this.getConfiguration(configName);
 		if (config == null) return null;
+		else if ((this.dataStore != null) && this.configBasePath.equals(this.dataPath))
+			return new EcsLocalConfiguration(config, new File(this.configBasePath, config.basePath), this.dataStore, config.basePath);
 		else return new EcsLocalConfiguration(config, new File(this.configBasePath, config.basePath));
 	}
 	
@@ -1766,14 +4296,15 @@ TODO Start publishing update and deletion events
 	 */
 	public String createGroup(String groupName) {
 		if (groupName == null) return "Group names must not be null.";
-		else if (this.groupsByName.containsKey(groupName))
+		else if (this.getRegistry().groupsByName.containsKey(groupName))
 			return ("Group '" + groupName + "' already exists.");
 		else {
-			Group group = this.getGroup(groupName);
 			try {
-				this.saveGroup(group);
+				if (!this.saveGroup(new Group(groupName), null))
+					return ("Group '" + groupName + "' already exists.");
 				String permissionName = (GROUP_PERMISSION_PREFIX + groupName);
 				this.uaa.registerPermission(permissionName);
+				this.invalidateUserPermissions(null);
 				return null;
 			}
 			catch (IOException ioe) {
@@ -1789,14 +4320,23 @@ TODO Start publishing update and deletion events
 	 */
 	public String deleteGroup(String groupName) {
 		if (groupName == null) return "Group names must not be null.";
-		else if (!this.groupsByName.containsKey(groupName))
-			return ("Group '" + groupName + "' does not exists.");
-		else {
+		
+		//	check and remove group in same lock as group updates, so deletion cannot interleave with them
+		synchronized (this) {
+			if (!this.getRegistry().groupsByName.containsKey(groupName))
+				return ("Group '" + groupName + "' does not exists.");
 			File groupFile = new File(this.dataPath, (GROUP_FILE_PREFIX + groupName + TXT_FILE_SUFFIX));
 			this.invalidate(groupFile);
-			this.groupsByName.remove(groupName);
-			return null;
+			synchronized (this.registry) {
+				RegistryUpdate update = new RegistryUpdate(this.getRegistry());
+				update.groupsByName().remove(groupName);
+				this.registry.set(update.toRegistry());
+			}
+			this.clearProjectionCache();
 		}
+		this.invalidateUserPermissions(null);
+		this.publishChange(EcsEvent.GROUP_DELETE_TYPE, groupName);
+		return null;
 	}
 	
 	/**
@@ -1815,7 +4355,7 @@ TODO Start publishing update and deletion events
 		else {
 			Group group = this.getGroup(groupName);
 			if (group != null)
-				plugins.addAll(group.plugins);
+				plugins.addAll(this.pluginNameIndex.getNames(group.plugins));
 		}
 		return ((String[]) plugins.toArray(new String[plugins.size()]));
 	}
@@ -1828,15 +4368,17 @@ TODO Start publishing update and deletion events
 	 * @return an error message, or null if the plugins were set successfully
 	 */
 	public String setGroupPlugins(String groupName, String[] plugins) {
-		Group group = this.getGroup(groupName);
-		if (group == null) return ("Group '" + groupName + "' does not exist");
-		else try {
-			if ((group.plugins.size() != plugins.length) || !group.plugins.containsAll(Arrays.asList(plugins))) {
-				group.plugins.clear();
-				group.plugins.addAll(Arrays.asList(plugins));
-				this.saveGroup(group);
+		BitSet pluginIDs = this.pluginNameIndex.getIDs(Arrays.asList(plugins));
+		
+		//	re-read group and retry if changed concurrently, so we don't lose a concurrent resource update
+		try {
+			while (true) {
+				Group group = this.getGroup(groupName);
+				if (group == null)
+					return ("Group '" + groupName + "' does not exist");
+				if (group.plugins.equals(pluginIDs) || this.saveGroup(new Group(group.name, pluginIDs, group.resources), group))
+					return null;
 			}
-			return null;
 		}
 		catch (IOException ioe) {
 			return ioe.getMessage();
@@ -1853,12 +4395,14 @@ TODO Start publishing update and deletion events
 	 */
 	public String[] getGroupResources(String groupName) {
 		TreeSet resources = new TreeSet();
-		if (groupName == null)
-			resources.addAll(this.resourceNameMappings.keySet());
+		if (groupName == null) {
+			this.ensureResourceNameMappings();
+			resources.addAll(this.getRegistry().resourceNameMappings.keySet());
+		}
 		else {
 			Group group = this.getGroup(groupName);
 			if (group != null)
-				resources.addAll(group.resources);
+				resources.addAll(this.resourceNameIndex.getNames(group.resources));
 		}
 		return ((String[]) resources.toArray(new String[resources.size()]));
 	}
@@ -1871,15 +4415,17 @@ TODO Start publishing update and deletion events
 	 * @return an error message, or null if the resources were set successfully
 	 */
 	public String setGroupResources(String groupName, String[] resources) {
-		Group group = this.getGroup(groupName);
-		if (group == null) return ("Group '" + groupName + "' does not exist");
-		else try {
-			if ((group.resources.size() != resources.length) || !group.resources.containsAll(Arrays.asList(resources))) {
-				group.resources.clear();
-				group.resources.addAll(Arrays.asList(resources));
-				this.saveGroup(group);
+		BitSet resourceIDs = this.resourceNameIndex.getIDs(Arrays.asList(resources));
+		
+		//	re-read group and retry if changed concurrently, so we don't lose a concurrent plugin update
+		try {
+			while (true) {
+				Group group = this.getGroup(groupName);
+				if (group == null)
+					return ("Group '" + groupName + "' does not exist");
+				if (group.resources.equals(resourceIDs) || this.saveGroup(new Group(group.name, group.plugins, resourceIDs), group))
+					return null;
 			}
-			return null;
 		}
 		catch (IOException ioe) {
 			return ioe.getMessage();
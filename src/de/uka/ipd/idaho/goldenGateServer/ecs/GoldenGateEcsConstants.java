@@ -28,6 +28,16 @@
 
 package de.uka.ipd.idaho.goldenGateServer.ecs;
 
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.TreeSet;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
 import de.uka.ipd.idaho.goldenGateServer.GoldenGateServerConstants;
 
 
@@ -56,6 +66,9 @@ public interface GoldenGateEcsConstants extends GoldenGateServerConstants {
 	/** the command for obtaining a specific data element of a GoldenGATE Editor configuration from the backing server */
 	public static final String GET_DATA = "ECS_GET_DATA";
 	
+	/** the command for obtaining a byte range of a specific data element of a GoldenGATE Editor configuration from the backing server, e.g. for resuming a download */
+	public static final String GET_DATA_RANGE = "ECS_GET_DATA_RANGE";
+	
 	/** the command for obtaining a series of data elements of a GoldenGATE Editor configuration from the backing server */
 	public static final String GET_DATAS = "ECS_GET_DATAS";
 	
@@ -68,6 +81,12 @@ public interface GoldenGateEcsConstants extends GoldenGateServerConstants {
 	/** the command for deleting a specific data element of a GoldenGATE Editor configuration on the backing server */
 	public static final String DELETE_DATA = "ECS_DELETE_DATA";
 	
+	/** the command for obtaining the policy the backing server uses for compressing data elements in ZIP archives */
+	public static final String GET_DATA_COMPRESSION_POLICY = "ECS_GET_DATA_COMPRESSION_POLICY";
+	
+	/** the prefix marking the line a client sends its data compression policy in ahead of the data names in a GET_DATAS request */
+	public static final String DATA_COMPRESSION_POLICY_PREFIX = "@compression:";
+	
 	
 	/** the command for retrieving stubs of all configurations */
 	public static final String GET_CONFIGURATION_DESCRIPTORS = "ECS_GET_CONFIGURATION_DESCRIPTORS";
@@ -81,6 +100,12 @@ public interface GoldenGateEcsConstants extends GoldenGateServerConstants {
 	/** the command for uploading a new base configuration */
 	public static final String UPLOAD_CONFIGURATION = "ECS_UPLOAD_CONFIGURATION";
 	
+	/** the command for uploading a new base configuration, receiving the content hashes of the data elements present on the backing server */
+	public static final String UPLOAD_CONFIGURATION_HASHED = "ECS_UPLOAD_CONFIGURATION_HASHED";
+	
+	/** the algorithm for computing the content hashes of data elements, as hex strings */
+	public static final String DATA_HASH_ALGORITHM = "SHA-1";
+	
 	/** the command for deleting a configuration */
 	public static final String DELETE_CONFIGURATION = "ECS_DELETE_CONFIGURATION";
 	
@@ -91,6 +116,15 @@ public interface GoldenGateEcsConstants extends GoldenGateServerConstants {
 	/** the command for setting the mapping of user names to default configurations */
 	public static final String SET_USER_CONFIGURATIONS = "ECS_SET_USER_CONFIGURATIONS";
 	
+	/** the command for setting the default configuration of an individual user */
+	public static final String SET_USER_CONFIGURATION = "ECS_SET_USER_CONFIGURATION";
+	
+	/** the command for removing the default configuration of an individual user, so the user falls back to the master configuration */
+	public static final String UNSET_USER_CONFIGURATION = "ECS_UNSET_USER_CONFIGURATION";
+	
+	/** the command for listing the default configurations of users page by page, filtered by a user name prefix */
+	public static final String LIST_USER_CONFIGURATIONS = "ECS_LIST_USER_CONFIGURATIONS";
+	
 	
 	/** the command for getting the list of configurations available online through a configuration servlet */
 	public static final String GET_ONLINE_CONFIGURATIONS = "ECS_GET_ONLINE_CONFIGURATIONS";
@@ -128,6 +162,23 @@ public interface GoldenGateEcsConstants extends GoldenGateServerConstants {
 	/** command for setting the resources of a group */
 	public static final String SET_GROUP_RESOURCES = "ECS_SET_GROUP_RESOURCES";
 	
+	/** command for retrieving all groups with their plugins and resources, along with a version, unless the client already has the current version */
+	public static final String GET_GROUP_SNAPSHOT = "ECS_GET_GROUP_SNAPSHOT";
+	
+	/** the command for getting a dump of the request, latency, and cache metrics of an ECS, one metric per line */
+	public static final String GET_METRICS = "ECS_GET_METRICS";
+	
+	
+	/** the command for retrieving the changes recorded in the change log after a given sequence number */
+	public static final String GET_CHANGES = "ECS_GET_CHANGES";
+	
+	/** the command for waiting until changes happen after a given sequence number, for a limited time, and then retrieving them */
+	public static final String WAIT_FOR_CHANGES = "ECS_WAIT_FOR_CHANGES";
+	
+	
+	/** the command for executing a series of other commands over a single connection, with each command followed by the number of its input lines and the lines proper, and each response sent back as its number of lines and the lines proper */
+	public static final String BATCH = "ECS_BATCH";
+	
 	
 	/**
 	 * A DocumentResourceFilterer provides ECS with a document specific set of
@@ -151,4 +202,348 @@ public interface GoldenGateEcsConstants extends GoldenGateServerConstants {
 		 */
 		public abstract String[] getGroupsForDocument(String documentId);
 	}
+	
+	/**
+	 * A DataCompressionPolicy decides how to pack individual data items into
+	 * the ZIP archives transferred by the GET_DATAS and UPDATE_DATAS actions.
+	 * Data items whose file extension indicates they are compressed already,
+	 * like JARs or images, are stored as they are, all others are deflated at
+	 * the policy's compression level. Client and server exchange their
+	 * policies in string form and use the combination of both.
+	 * 
+	 * @author sautter
+	 */
+	public static class DataCompressionPolicy {
+		
+		/** the file extensions of data items that are stored without compression by default */
+		public static final String DEFAULT_STORED_EXTENSIONS = "jar,zip,gz,tgz,bz2,7z,png,gif,jpg,jpeg,pdf,mp3,ogg,mp4";
+		
+		private final int level;
+		private final TreeSet storedExtensions = new TreeSet();
+		
+		/** Constructor creating a policy with the default compression level and the default stored file extensions
+		 */
+		public DataCompressionPolicy() {
+			this(Deflater.DEFAULT_COMPRESSION, DEFAULT_STORED_EXTENSIONS);
+		}
+		
+		/** Constructor
+		 * @param level the compression level for deflated data items (-1 for the default level)
+		 * @param storedExtensions a comma separated list of the file extensions of data items to store without compression
+		 */
+		public DataCompressionPolicy(int level, String storedExtensions) {
+			this.level = (((level < Deflater.NO_COMPRESSION) || (level > Deflater.BEST_COMPRESSION)) ? Deflater.DEFAULT_COMPRESSION : level);
+			if (storedExtensions != null) {
+				String[] extensions = storedExtensions.split("\\s*\\,\\s*");
+				for (int e = 0; e < extensions.length; e++) {
+					String extension = extensions[e].trim().toLowerCase();
+					while (extension.startsWith("."))
+						extension = extension.substring(1);
+					if (extension.length() != 0)
+						this.storedExtensions.add(extension);
+				}
+			}
+		}
+		
+		/**
+		 * @return the compression level for deflated data items (-1 indicating
+		 *         the default level)
+		 */
+		public int getLevel() {
+			return this.level;
+		}
+		
+		/**
+		 * Check whether or not a data item is stored without compression.
+		 * @param dataName the name of the data item
+		 * @return true if the data item with the argument name is stored
+		 */
+		public boolean isStored(String dataName) {
+			if (this.level == Deflater.NO_COMPRESSION)
+				return true;
+			int extensionStart = dataName.lastIndexOf('.');
+			if ((extensionStart == -1) || (dataName.indexOf('/', extensionStart) != -1))
+				return false;
+			return this.storedExtensions.contains(dataName.substring(extensionStart + 1).toLowerCase());
+		}
+		
+		/**
+		 * Combine this policy with the one of the other end of a connection.
+		 * The combined policy stores the data items stored by either of the
+		 * two, and deflates all others at the lower of the two compression
+		 * levels, as the cheaper one is the one both ends can afford.
+		 * @param policy the policy to combine this one with
+		 * @return the combined policy
+		 */
+		public DataCompressionPolicy combine(DataCompressionPolicy policy) {
+			if (policy == null)
+				return this;
+			int level;
+			if (this.level == Deflater.DEFAULT_COMPRESSION)
+				level = policy.level;
+			else if (policy.level == Deflater.DEFAULT_COMPRESSION)
+				level = this.level;
+			else level = Math.min(this.level, policy.level);
+			DataCompressionPolicy combined = new DataCompressionPolicy(level, null);
+			combined.storedExtensions.addAll(this.storedExtensions);
+			combined.storedExtensions.addAll(policy.storedExtensions);
+			return combined;
+		}
+		
+		/**
+		 * Add a data item to a ZIP archive, preparing the archive entry
+		 * according to this policy. For stored data items, this method reads
+		 * the argument file once to compute size and checksum ahead of the
+		 * data, as required by the ZIP format. If the argument file is null,
+		 * the data item is deflated.
+		 * @param zip the ZIP archive to add the data item to
+		 * @param ze the entry for the data item
+		 * @param file the file holding the data item
+		 * @throws IOException
+		 */
+		public void putNextEntry(ZipOutputStream zip, ZipEntry ze, File file) throws IOException {
+			if ((file != null) && this.isStored(ze.getName())) {
+				CRC32 crc = new CRC32();
+				long size = 0;
+				FileInputStream fis = new FileInputStream(file);
+				try {
+					byte[] buffer = new byte[65536];
+					for (int read; (read = fis.read(buffer)) != -1;) {
+						crc.update(buffer, 0, read);
+						size += read;
+					}
+				}
+				finally {
+					fis.close();
+				}
+				ze.setMethod(ZipEntry.STORED);
+				ze.setSize(size);
+				ze.setCompressedSize(size);
+				ze.setCrc(crc.getValue());
+			}
+			else {
+				ze.setMethod(ZipEntry.DEFLATED);
+				zip.setLevel(this.level);
+			}
+			zip.putNextEntry(ze);
+		}
+		
+		/**
+		 * Produce the string representation of this policy, which can be sent
+		 * over the network and parsed by the other end.
+		 * @see java.lang.Object#toString()
+		 */
+		public String toString() {
+			StringBuffer policy = new StringBuffer("level=" + this.level + ";stored=");
+			for (Iterator eit = this.storedExtensions.iterator(); eit.hasNext();) {
+				policy.append((String) eit.next());
+				if (eit.hasNext())
+					policy.append(',');
+			}
+			return policy.toString();
+		}
+		
+		/**
+		 * Parse the string representation of a policy, as produced by the
+		 * toString() method. Unknown parts of the argument string are ignored
+		 * for future extensions.
+		 * @param policy the string representation of the policy
+		 * @return the policy
+		 */
+		public static DataCompressionPolicy parse(String policy) {
+			int level = Deflater.DEFAULT_COMPRESSION;
+			String storedExtensions = null;
+			String[] policyParts = policy.trim().split("\\s*\\;\\s*");
+			for (int p = 0; p < policyParts.length; p++) {
+				if (policyParts[p].startsWith("level=")) try {
+					level = Integer.parseInt(policyParts[p].substring("level=".length()));
+				} catch (NumberFormatException nfe) {}
+				else if (policyParts[p].startsWith("stored="))
+					storedExtensions = policyParts[p].substring("stored=".length());
+			}
+			return new DataCompressionPolicy(level, storedExtensions);
+		}
+	}
+	
+	/**
+	 * Event for passing around notifications about changes to configurations,
+	 * groups, data items, user default configurations, and online
+	 * configurations. Each event carries a sequence number, which increases
+	 * monotonically across all changes on a given ECS, and survives restarts.
+	 * Recipients can thus tell if they have missed any changes. ECS records
+	 * all events in a change log, in the tab separated form produced by the
+	 * toChangeLine() method, and hands out the changes after a given sequence
+	 * number to clients through the GET_CHANGES action.
+	 * 
+	 * @author sautter
+	 */
+	public static class EcsEvent extends GoldenGateServerEvent {
+		
+		/** the type for the update of a projected configuration */
+		public static final int CONFIGURATION_UPDATE_TYPE = 0;
+		
+		/** the type for the upload of a base configuration */
+		public static final int CONFIGURATION_UPLOAD_TYPE = 1;
+		
+		/** the type for the deletion of a configuration */
+		public static final int CONFIGURATION_DELETE_TYPE = 2;
+		
+		/** the type for the creation or update of a group */
+		public static final int GROUP_UPDATE_TYPE = 3;
+		
+		/** the type for the deletion of a group */
+		public static final int GROUP_DELETE_TYPE = 4;
+		
+		/** the type for the update of a data item */
+		public static final int DATA_UPDATE_TYPE = 5;
+		
+		/** the type for the deletion of a data item */
+		public static final int DATA_DELETE_TYPE = 6;
+		
+		/** the type for a change to the default configuration of a user, the name of the event being the user name */
+		public static final int USER_CONFIGURATION_UPDATE_TYPE = 7;
+		
+		/** the type for a configuration going online or offline */
+		public static final int ONLINE_CONFIGURATION_UPDATE_TYPE = 8;
+		
+		/**
+		 * Specialized listener for ECS events, dispatching them to dedicated
+		 * methods by the type of object that changed.
+		 * 
+		 * @author sautter
+		 */
+		public static abstract class EcsEventListener extends GoldenGateServerEventListener {
+			
+			/* (non-Javadoc)
+			 * @see de.uka.ipd.idaho.goldenGateServer.GoldenGateServerConstants.GoldenGateServerEvent.GoldenGateServerEventListener#notify(de.uka.ipd.idaho.goldenGateServer.GoldenGateServerConstants.GoldenGateServerEvent)
+			 */
+			public void notify(GoldenGateServerEvent gse) {
+				if (gse instanceof EcsEvent) {
+					EcsEvent ee = ((EcsEvent) gse);
+					if ((ee.type == CONFIGURATION_UPDATE_TYPE) || (ee.type == CONFIGURATION_UPLOAD_TYPE))
+						this.configurationUpdated(ee);
+					else if (ee.type == CONFIGURATION_DELETE_TYPE)
+						this.configurationDeleted(ee);
+					else if (ee.type == GROUP_UPDATE_TYPE)
+						this.groupUpdated(ee);
+					else if (ee.type == GROUP_DELETE_TYPE)
+						this.groupDeleted(ee);
+					else if (ee.type == DATA_UPDATE_TYPE)
+						this.dataUpdated(ee);
+					else if (ee.type == DATA_DELETE_TYPE)
+						this.dataDeleted(ee);
+					else if ((ee.type == USER_CONFIGURATION_UPDATE_TYPE) || (ee.type == ONLINE_CONFIGURATION_UPDATE_TYPE))
+						this.settingsUpdated(ee);
+				}
+			}
+			
+			/**
+			 * Receive notification that a configuration was uploaded or
+			 * updated (can be both a new configuration or a new version of an
+			 * existing one).
+			 * @param ee the EcsEvent providing detail information on the update
+			 */
+			public abstract void configurationUpdated(EcsEvent ee);
+			
+			/**
+			 * Receive notification that a configuration was deleted.
+			 * @param ee the EcsEvent providing detail information on the
+			 *            deletion
+			 */
+			public abstract void configurationDeleted(EcsEvent ee);
+			
+			/**
+			 * Receive notification that a group was created or updated.
+			 * @param ee the EcsEvent providing detail information on the update
+			 */
+			public abstract void groupUpdated(EcsEvent ee);
+			
+			/**
+			 * Receive notification that a group was deleted.
+			 * @param ee the EcsEvent providing detail information on the
+			 *            deletion
+			 */
+			public abstract void groupDeleted(EcsEvent ee);
+			
+			/**
+			 * Receive notification that a data item was created or updated.
+			 * @param ee the EcsEvent providing detail information on the update
+			 */
+			public abstract void dataUpdated(EcsEvent ee);
+			
+			/**
+			 * Receive notification that a data item was deleted.
+			 * @param ee the EcsEvent providing detail information on the
+			 *            deletion
+			 */
+			public abstract void dataDeleted(EcsEvent ee);
+			
+			/**
+			 * Receive notification that the default configuration of a user
+			 * changed, or that a configuration went online or offline.
+			 * @param ee the EcsEvent providing detail information on the change
+			 */
+			public abstract void settingsUpdated(EcsEvent ee);
+		}
+		
+		/** the name of the configuration, group, data item, or user affected by the event */
+		public final String name;
+		
+		/** the sequence number of the event */
+		public final long sequenceNumber;
+		
+		/**
+		 * Constructor
+		 * @param name the name of the configuration, group, data item, or user
+		 *            affected by the event
+		 * @param sequenceNumber the sequence number of the event
+		 * @param type the event type (used for dispatching)
+		 * @param sourceClassName the class name of the component issuing the
+		 *            event
+		 * @param eventTime the timstamp of the event
+		 * @param logger an EventLogger to collect log messages while the
+		 *            event is being processed in listeners
+		 */
+		public EcsEvent(String name, long sequenceNumber, int type, String sourceClassName, long eventTime, EventLogger logger) {
+			super(type, sourceClassName, eventTime, ("ECS-" + sequenceNumber + "-" + eventTime), logger);
+			this.name = name;
+			this.sequenceNumber = sequenceNumber;
+		}
+		
+		/* (non-Javadoc)
+		 * @see de.uka.ipd.idaho.goldenGateServer.GoldenGateServerConstants.GoldenGateServerEvent#getParameterString()
+		 */
+		public String getParameterString() {
+			return (super.getParameterString() + " " + this.sequenceNumber + " " + encodeParameter(this.name));
+		}
+		
+		/**
+		 * Produce the tab separated representation of this event for the
+		 * change log and for network transfer, namely the sequence number, the
+		 * event time, the type, and the name, in this order.
+		 * @return the change log line for the event
+		 */
+		public String toChangeLine() {
+			return (this.sequenceNumber + "\t" + this.eventTime + "\t" + this.type + "\t" + this.name);
+		}
+		
+		/**
+		 * Parse a change log line, as produced by the toChangeLine() method.
+		 * @param changeLine the change log line to parse
+		 * @param sourceClassName the class name of the component the change
+		 *            log line originates from
+		 * @return the event, or null if the argument line is malformed
+		 */
+		public static EcsEvent parseChangeLine(String changeLine, String sourceClassName) {
+			String[] changeParts = changeLine.split("\\t", 4);
+			if (changeParts.length < 4)
+				return null;
+			try {
+				return new EcsEvent(changeParts[3], Long.parseLong(changeParts[0]), Integer.parseInt(changeParts[2]), sourceClassName, Long.parseLong(changeParts[1]), null);
+			}
+			catch (NumberFormatException nfe) {
+				return null;
+			}
+		}
+	}
 }
\ No newline at end of file
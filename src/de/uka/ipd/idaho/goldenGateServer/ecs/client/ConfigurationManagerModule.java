@@ -224,12 +224,20 @@ public class ConfigurationManagerModule extends AuthenticatedWebClientModul impl
 		if (EDIT_GROUP.equals(mode)) {
 			String groupName = pageBuilder.request.getParameter(GROUP_NAME_PARAMETER);
 			
-			String[] plugins = ecsc.getPlugins();
-			String[] groupPlugins = ecsc.getGroupPlugins(groupName);
+			//	get plugins and resources in one round trip
+			GoldenGateEcsClient.Batch batch = ecsc.createBatch();
+			GoldenGateEcsClient.BatchResult pluginsResult = batch.getPlugins();
+			GoldenGateEcsClient.BatchResult groupPluginsResult = batch.getGroupPlugins(groupName);
+			GoldenGateEcsClient.BatchResult resourcesResult = batch.getResources();
+			GoldenGateEcsClient.BatchResult groupResourcesResult = batch.getGroupResources(groupName);
+			batch.execute();
+			
+			String[] plugins = pluginsResult.getList();
+			String[] groupPlugins = groupPluginsResult.getList();
 			Set groupPluginSet = new HashSet(Arrays.asList(groupPlugins));
 			
-			String[] resources = ecsc.getResources();
-			String[] groupResources = ecsc.getGroupResources(groupName);
+			String[] resources = resourcesResult.getList();
+			String[] groupResources = groupResourcesResult.getList();
 			Set groupResourceSet = new HashSet(Arrays.asList(groupResources));
 			
 			//	open form and add command
@@ -96,6 +96,10 @@ import de.uka.ipd.idaho.goldenGateServer.util.BufferedLineInputStream;
  * <li><b>serverPort</b>: the port the backing GoldenGATE Server listens on
  * (for retrieving the configuration descriptors, which are required for serving
  * projected configurations)</li>
+ * <li><b>changePollSeconds</b>: the maximum time a request waiting for
+ * changes in the backing ECS may stay open (defaults to 60, set to 0 to
+ * deactivate change notification and check all configuration descriptors
+ * only once an hour)</li>
  * </ul>
  * @author sautter
  */
@@ -115,6 +119,27 @@ public class GoldenGateConfigurationServlet extends GgServerClientServlet implem
 //			this.configDataRoot = new File(new File(this.webInfFolder, "caches"), GoldenGateConstants.CONFIG_FOLDER_NAME);
 			this.configDataRoot = new File(this.cacheRootFolder, GoldenGateConstants.CONFIG_FOLDER_NAME);
 		else this.configDataRoot = new File(configDataLocation);
+		
+		//	start listening for changes in backing ECS
+		int changePollSeconds = 60;
+		try {
+			changePollSeconds = Integer.parseInt(this.getSetting("changePollSeconds", ("" + changePollSeconds)));
+		} catch (NumberFormatException nfe) {}
+		if (changePollSeconds > 0) {
+			this.changePoller = new ChangePoller(changePollSeconds * 1000L);
+			this.changePoller.start();
+		}
+	}
+	
+	/* (non-Javadoc)
+	 * @see de.uka.ipd.idaho.easyIO.web.WebServlet#exit()
+	 */
+	protected void exit() {
+		ChangePoller changePoller = this.changePoller;
+		this.changePoller = null;
+		if (changePoller != null)
+			changePoller.shutdown();
+		super.exit();
 	}
 	
 	/* (non-Javadoc)
@@ -234,10 +259,164 @@ public class GoldenGateConfigurationServlet extends GgServerClientServlet implem
 	private Map configurationTrayCache = Collections.synchronizedMap(new HashMap());
 	private long configurationTrayCacheLastChecked = System.currentTimeMillis();
 	
+	/*
+	 * Thread waiting for changes in the backing ECS, one request at a time,
+	 * and invalidating the cached descriptors of changed configurations right
+	 * away. As long as this works, there is no need to check all descriptors
+	 * once an hour. If the backing ECS is unreachable, the thread retries
+	 * with increasing pauses, and the hourly check applies in the meantime.
+	 * The same applies if the backing ECS sends an error. Only if it does
+	 * not know the action for waiting for changes at all, the thread
+	 * terminates and leaves the job to the hourly check.
+	 */
+	private volatile ChangePoller changePoller = null;
+	private volatile boolean changePollingActive = false;
+	
+	private class ChangePoller extends Thread {
+		private final long pollTimeout;
+		private long sequenceNumber = Long.MAX_VALUE; // makes backing ECS send current sequence number
+		private volatile Connection connection = null;
+		ChangePoller(long pollTimeout) {
+			super("EcsChangePoller");
+			this.pollTimeout = pollTimeout;
+			this.setDaemon(true);
+		}
+		public void run() {
+			long errorWait = 1000;
+			while (changePoller == this) try {
+				this.pollChanges();
+				changePollingActive = true;
+				errorWait = 1000;
+			}
+			catch (UnsupportedOperationException uoe) {
+				System.out.println("GoldenGateConfigurationServlet: waiting for changes not supported by backing ECS (" + uoe.getMessage() + "), falling back to hourly checks");
+				break;
+			}
+			catch (IOException ioe) {
+				if (changePoller != this)
+					break; // connection closed on shutdown
+				System.out.println("GoldenGateConfigurationServlet: " + ioe.getMessage() + " while waiting for changes, retrying in " + errorWait + "ms");
+				changePollingActive = false;
+				try {
+					sleep(errorWait);
+				} catch (InterruptedException ie) {}
+				errorWait = Math.min((errorWait * 2), (60 * 1000));
+			}
+			changePollingActive = false;
+		}
+		void shutdown() {
+			this.interrupt();
+			
+			//	close connection, as blocked read does not react to interrupt
+			Connection con = this.connection;
+			if (con != null) try {
+				con.close();
+			} catch (IOException ioe) {}
+			try {
+				this.join(1000);
+			} catch (InterruptedException ie) {}
+		}
+		private void pollChanges() throws IOException {
+			Connection con = null;
+			try {
+				con = serverConnection.getConnection();
+				this.connection = con;
+				if (changePoller != this)
+					return; // shut down while connecting
+				BufferedWriter bw = con.getWriter();
+				
+				bw.write(WAIT_FOR_CHANGES);
+				bw.newLine();
+				bw.write(CONFIG_SERVLET_SESSION_ID);
+				bw.newLine();
+				bw.write("" + this.sequenceNumber);
+				bw.newLine();
+				bw.write("" + ((this.sequenceNumber == Long.MAX_VALUE) ? 0 : this.pollTimeout));
+				bw.newLine();
+				bw.flush();
+				
+				BufferedReader br = con.getReader();
+				String error = br.readLine();
+				if (error == null)
+					throw new IOException("No response from backing ECS");
+				else if (isUnknownActionError(error))
+					throw new UnsupportedOperationException(error);
+				else if (!WAIT_FOR_CHANGES.equals(error))
+					throw new IOException(error);
+				long sequenceNumber = Long.parseLong(br.readLine());
+				int changeCount = Integer.parseInt(br.readLine());
+				
+				//	change log does not reach back far enough (or this is the first request), start over
+				if (changeCount < 0)
+					clearConfigurationTrayCache();
+				
+				//	invalidate descriptors of changed configurations
+				else {
+					EcsEvent[] changes = new EcsEvent[changeCount];
+					for (int c = 0; c < changeCount; c++)
+						changes[c] = EcsEvent.parseChangeLine(br.readLine(), GoldenGateConfigurationServlet.class.getName());
+					invalidateConfigurationTrays(changes);
+				}
+				this.sequenceNumber = sequenceNumber;
+			}
+			catch (NumberFormatException nfe) {
+				throw new IOException("Invalid response from backing ECS: " + nfe.getMessage());
+			}
+			finally {
+				this.connection = null;
+				if (con != null)
+					con.close();
+			}
+		}
+	}
+	
+	/*
+	 * Check whether an error sent by the backing ECS indicates that it does
+	 * not know an action at all, as opposed to a (possibly temporary) error
+	 * while executing it. Servers report unknown actions as "Invalid action
+	 * '<action>'", and the servlet frontend as "'<action>' does not identify
+	 * an action within this server."
+	 */
+	private static boolean isUnknownActionError(String error) {
+		return (error.startsWith("Invalid action '") || (error.indexOf("does not identify an action") != -1));
+	}
+	
+	private synchronized void clearConfigurationTrayCache() {
+		this.configurationTrayCache.clear();
+		this.configurationTrayCacheLastChecked = System.currentTimeMillis();
+	}
+	
+	private synchronized void invalidateConfigurationTrays(EcsEvent[] changes) {
+		for (int c = 0; c < changes.length; c++) {
+			if (changes[c] == null)
+				continue;
+			
+			//	get name of changed configuration (first step of path for data items)
+			String configName;
+			if ((changes[c].type == EcsEvent.DATA_UPDATE_TYPE) || (changes[c].type == EcsEvent.DATA_DELETE_TYPE))
+				configName = ((changes[c].name.indexOf('/') == -1) ? null : changes[c].name.substring(0, changes[c].name.indexOf('/')));
+			else if ((changes[c].type == EcsEvent.CONFIGURATION_UPDATE_TYPE) || (changes[c].type == EcsEvent.CONFIGURATION_UPLOAD_TYPE) || (changes[c].type == EcsEvent.CONFIGURATION_DELETE_TYPE) || (changes[c].type == EcsEvent.ONLINE_CONFIGURATION_UPDATE_TYPE))
+				configName = changes[c].name;
+			else configName = null;
+			if (configName == null)
+				continue;
+			
+			//	remove configuration proper, as well as configurations based on it
+			this.configurationTrayCache.remove(configName);
+			synchronized (this.configurationTrayCache) {
+				for (Iterator ctit = this.configurationTrayCache.values().iterator(); ctit.hasNext();) {
+					ConfigurationTray configTray = ((ConfigurationTray) ctit.next());
+					if (configName.equals(configTray.config.basePath))
+						ctit.remove();
+				}
+			}
+		}
+	}
+	
 	private synchronized ConfigurationTray getConfigurationDescriptor(String configName) throws IOException {
 		
-		//	check cached configuration descriptors if last done more than an hour ago
-		if (this.configurationTrayCacheLastChecked < (System.currentTimeMillis() - (1000 * 60 * 60)))
+		//	check cached configuration descriptors if last done more than an hour ago (unless notified about changes)
+		if (!this.changePollingActive && (this.configurationTrayCacheLastChecked < (System.currentTimeMillis() - (1000 * 60 * 60))))
 			this.getConfigurationDescriptors();
 		
 		//	do cache lookup
@@ -31,20 +31,25 @@ package de.uka.ipd.idaho.goldenGateServer.ecs.client;
 import java.io.BufferedReader;
 import java.io.BufferedWriter;
 import java.io.File;
+import java.io.FileFilter;
 import java.io.FileInputStream;
 import java.io.FilterInputStream;
 import java.io.FilterOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.io.RandomAccessFile;
 import java.io.StringReader;
+import java.security.MessageDigest;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
 import java.util.Map;
 import java.util.SortedMap;
 import java.util.TreeMap;
+import java.util.TreeSet;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipInputStream;
 import java.util.zip.ZipOutputStream;
@@ -68,6 +73,7 @@ import de.uka.ipd.idaho.stringUtils.StringVector;
  */
 public class GoldenGateEcsClient implements GoldenGateEcsConstants {
 	private AuthenticatedClient authClient;
+	private DataCompressionPolicy dataCompressionPolicy = new DataCompressionPolicy();
 	
 	/** Constructor
 	 * @param	ac	the authenticated client to use for authentication and connection 
@@ -76,6 +82,27 @@ public class GoldenGateEcsClient implements GoldenGateEcsConstants {
 		this.authClient = ac;
 	}
 	
+	/**
+	 * Retrieve the policy this client requests for compressing the data items
+	 * in the ZIP archives exchanged with the backing server.
+	 * @return the data compression policy
+	 */
+	public DataCompressionPolicy getDataCompressionPolicy() {
+		return this.dataCompressionPolicy;
+	}
+	
+	/**
+	 * Set the policy this client requests for compressing the data items in
+	 * the ZIP archives exchanged with the backing server. The policy actually
+	 * used is the combination of this policy with the one of the server. On
+	 * a fast local network, for instance, a low compression level saves CPU
+	 * time on both ends. Specifying null resets the policy to the default.
+	 * @param dcp the data compression policy to use
+	 */
+	public void setDataCompressionPolicy(DataCompressionPolicy dcp) {
+		this.dataCompressionPolicy = ((dcp == null) ? new DataCompressionPolicy() : dcp);
+	}
+	
 	/**
 	 * Retrieve the names of the configurations available to the user currently
 	 * logged in
@@ -272,6 +299,259 @@ public class GoldenGateEcsClient implements GoldenGateEcsConstants {
 		}
 	}
 	
+	/**
+	 * A byte range of a data item retrieved from the GoldenGATE ECS, to read
+	 * the bytes of the range from. The underlying connection is closed when
+	 * the stream is closed.
+	 * 
+	 * @author sautter
+	 */
+	public static class DataRange extends FilterInputStream {
+		
+		/** the total size of the data item, in bytes */
+		public final long totalSize;
+		
+		/** the last modification time of the data item, identifying its version */
+		public final long lastModified;
+		
+		/** the content hash of the data item, identifying its version (null if the backing ECS does not have a hash for the data item) */
+		public final String hash;
+		
+		/** the offset of the range in the data item */
+		public final long offset;
+		
+		/** the length of the range, in bytes */
+		public final long length;
+		
+		private Connection connection;
+		
+		DataRange(InputStream in, Connection connection, long totalSize, long lastModified, String hash, long offset, long length) {
+			super(in);
+			this.connection = connection;
+			this.totalSize = totalSize;
+			this.lastModified = lastModified;
+			this.hash = hash;
+			this.offset = offset;
+			this.length = length;
+		}
+		
+		/**
+		 * Check whether another range belongs to the same version of the data
+		 * item as this one, i.e., whether size, timestamp, and content hash
+		 * match.
+		 * @param range the range to compare to
+		 * @return true if the argument range belongs to the same version
+		 */
+		public boolean isSameVersion(DataRange range) {
+			if ((range.totalSize != this.totalSize) || (range.lastModified != this.lastModified))
+				return false;
+			return ((this.hash == null) ? (range.hash == null) : this.hash.equals(range.hash));
+		}
+		public void close() throws IOException {
+			if (this.connection != null)
+				this.connection.close();
+			this.connection = null;
+		}
+		protected void finalize() throws Throwable {
+			if (this.connection != null)
+				this.connection.close();
+		}
+	}
+	
+	/**
+	 * Retrieve a byte range of a data item from the GoldenGATE ECS, e.g. to
+	 * resume a broken download, or to download a large data item in several
+	 * chunks in parallel. If the range extends beyond the end of the data
+	 * item, it is cut off at the end. The returned range holds the total size
+	 * of the data item, so specifying 0 as the length retrieves the size
+	 * without any data.
+	 * @param dataName the path (prefixed with the configuration's base path) and
+	 *            name of the data item to fetch
+	 * @param offset the offset of the first byte to fetch
+	 * @param length the number of bytes to fetch (-1 fetches all bytes from
+	 *            the offset onward)
+	 * @return the requested byte range of the data item with the specified
+	 *         name
+	 * @throws IOException
+	 */
+	public DataRange getDataRange(String dataName, long offset, long length) throws IOException {
+		if (!this.authClient.isLoggedIn()) throw new IOException("Not logged in.");
+		
+		Connection con = this.authClient.getConnection();
+		DataRange range = null;
+		try {
+			BufferedLineOutputStream blos = con.getOutputStream();
+			
+			blos.writeLine(GET_DATA_RANGE);
+			blos.writeLine(this.authClient.getSessionID());
+			blos.writeLine(dataName);
+			blos.writeLine("" + offset);
+			blos.writeLine("" + length);
+			blos.flush();
+			
+			BufferedLineInputStream blis = con.getInputStream();
+			String error = blis.readLine();
+			if (!GET_DATA_RANGE.equals(error))
+				throw new IOException(error);
+			long totalSize = Long.parseLong(blis.readLine());
+			long lastModified = Long.parseLong(blis.readLine());
+			String hash = blis.readLine();
+			long rangeLength = Long.parseLong(blis.readLine());
+			range = new DataRange(blis, con, totalSize, lastModified, (((hash == null) || (hash.length() == 0)) ? null : hash), offset, rangeLength);
+			return range;
+		}
+		finally {
+			if (range == null)
+				con.close();
+		}
+	}
+	
+	/**
+	 * Download a data item from the GoldenGATE ECS to a local file, using
+	 * byte ranges. If a connection breaks, the download resumes where it
+	 * broke off. The data is downloaded into a '.part' file next to the
+	 * target file, whose name identifies the version of the data item (its
+	 * content hash if available, its size and timestamp otherwise), and which
+	 * replaces the target file only once complete. With a single chunk, an
+	 * existing '.part' file for the same version of the data item is taken as
+	 * the partial result of an earlier download, and the download resumes
+	 * from its end, while '.part' files for other versions are deleted. With
+	 * several chunks, they are downloaded in parallel, each on its own
+	 * connection, into a '.chunks.part' file that is deleted if any chunk
+	 * fails, as its length does not indicate any progress.
+	 * @param dataName the path (prefixed with the configuration's base path) and
+	 *            name of the data item to fetch
+	 * @param file the file to store the data item in
+	 * @param chunks the number of chunks to download in parallel
+	 * @return the size of the data item, in bytes
+	 * @throws IOException
+	 */
+	public long downloadData(final String dataName, final File file, int chunks) throws IOException {
+		
+		//	get size and version of data item
+		final DataRange version = this.getDataRange(dataName, 0, 0);
+		version.close();
+		final long totalSize = version.totalSize;
+		
+		//	get part file for current version, and clean up ones for other versions
+		final String partFilePrefix = (file.getName() + ".");
+		final String partFileSuffix = ".part";
+		final String versionId = ((version.hash == null) ? (totalSize + "-" + version.lastModified) : version.hash);
+		final boolean chunked = ((chunks > 1) && (totalSize >= (chunks * 1024)));
+		final File partFile = new File(file.getAbsoluteFile().getParentFile(), (partFilePrefix + versionId + (chunked ? ".chunks" : "") + partFileSuffix));
+		File[] staleFiles = partFile.getParentFile().listFiles(new FileFilter() {
+			public boolean accept(File pf) {
+				return (pf.getName().startsWith(partFilePrefix) && pf.getName().endsWith(partFileSuffix) && !pf.getName().equals(partFile.getName()));
+			}
+		});
+		for (int f = 0; (staleFiles != null) && (f < staleFiles.length); f++)
+			staleFiles[f].delete();
+		
+		//	download in one piece, resuming from end of part file
+		if (!chunked) {
+			long start = (partFile.exists() ? partFile.length() : 0);
+			if (start > totalSize) {
+				partFile.delete();
+				start = 0;
+			}
+			this.downloadDataRange(dataName, partFile, version, start, (totalSize - start));
+			this.completeDownload(partFile, file, version);
+			return totalSize;
+		}
+		
+		//	create part file in full size (cannot resume from it, as it does not record which chunks are complete)
+		RandomAccessFile raf = new RandomAccessFile(partFile, "rw");
+		raf.setLength(totalSize);
+		raf.close();
+		
+		//	download chunks in parallel
+		long chunkSize = ((totalSize + chunks - 1) / chunks);
+		final IOException[] errors = new IOException[chunks];
+		Thread[] chunkThreads = new Thread[chunks];
+		for (int c = 0; c < chunks; c++) {
+			final int chunk = c;
+			final long chunkOffset = (c * chunkSize);
+			final long chunkLength = Math.min(chunkSize, (totalSize - chunkOffset));
+			chunkThreads[c] = new Thread("EcsDownload-" + dataName + "-" + c) {
+				public void run() {
+					try {
+						downloadDataRange(dataName, partFile, version, chunkOffset, chunkLength);
+					}
+					catch (IOException ioe) {
+						errors[chunk] = ioe;
+					}
+				}
+			};
+			chunkThreads[c].start();
+		}
+		boolean complete = false;
+		try {
+			for (int c = 0; c < chunks; c++) try {
+				chunkThreads[c].join();
+			}
+			catch (InterruptedException ie) {
+				throw new IOException("Interrupted while downloading " + dataName);
+			}
+			for (int c = 0; c < chunks; c++) {
+				if (errors[c] != null)
+					throw errors[c];
+			}
+			this.completeDownload(partFile, file, version);
+			complete = true;
+			return totalSize;
+		}
+		finally {
+			if (!complete)
+				partFile.delete();
+		}
+	}
+	
+	private void completeDownload(File partFile, File file, DataRange version) throws IOException {
+		if (file.exists() && !file.delete())
+			throw new IOException("Could not replace " + file.getAbsolutePath());
+		if (!partFile.renameTo(file))
+			throw new IOException("Could not rename " + partFile.getAbsolutePath() + " to " + file.getName());
+		if (version.lastModified > 0)
+			file.setLastModified(version.lastModified);
+	}
+	
+	private static final int DOWNLOAD_ATTEMPTS = 3;
+	
+	private void downloadDataRange(String dataName, File file, DataRange version, long offset, long length) throws IOException {
+		RandomAccessFile raf = new RandomAccessFile(file, "rw");
+		try {
+			long received = 0;
+			byte[] buffer = new byte[65536];
+			for (int attempt = 1; received < length; attempt++) {
+				DataRange range = null;
+				try {
+					range = this.getDataRange(dataName, (offset + received), (length - received));
+					if (!version.isSameVersion(range))
+						throw new IOException("Data item " + dataName + " changed during download");
+					raf.seek(offset + received);
+					for (int read; (read = range.read(buffer)) != -1;) {
+						raf.write(buffer, 0, read);
+						received += read;
+					}
+					if (received < length)
+						throw new IOException("Connection broke off");
+				}
+				catch (IOException ioe) {
+					if ((attempt >= DOWNLOAD_ATTEMPTS) || ((range != null) && !version.isSameVersion(range)))
+						throw ioe;
+					System.out.println("Resuming download of " + dataName + " at " + (offset + received) + " after " + ioe.getMessage());
+				}
+				finally {
+					if (range != null)
+						range.close();
+				}
+			}
+		}
+		finally {
+			raf.close();
+		}
+	}
+	
 	/**
 	 * Retrieve a list of data items from the GoldenGATE ECS, useful for loading
 	 * the actual data of configurations in circumstances where URLs cannot be
@@ -295,6 +575,8 @@ public class GoldenGateEcsClient implements GoldenGateEcsConstants {
 			bw.newLine();
 			bw.write(this.authClient.getSessionID());
 			bw.newLine();
+			bw.write(DATA_COMPRESSION_POLICY_PREFIX + this.dataCompressionPolicy.toString());
+			bw.newLine();
 			for (int d = 0; d < dataNames.length; d++) {
 				bw.write(dataNames[d]);
 				bw.newLine();
@@ -386,6 +668,9 @@ public class GoldenGateEcsClient implements GoldenGateEcsConstants {
 	public void updateDatas(String configName, String[] dataNames, File basePath, SpecialDataHandler specialData, long configTime, ProgressMonitor pm) throws IOException {
 		if (!this.authClient.isLoggedIn()) throw new IOException("Not logged in.");
 		
+		//	get compression policy
+		DataCompressionPolicy compressionPolicy = this.dataCompressionPolicy.combine(this.getServerDataCompressionPolicy());
+		
 		final Connection con;
 		try {
 			con = this.authClient.getConnection();
@@ -407,7 +692,7 @@ public class GoldenGateEcsClient implements GoldenGateEcsConstants {
 				System.out.println("   - got source");
 				ZipEntry ze = new ZipEntry(configName + "/" + dataNames[f]);
 				ze.setTime((specialSource == null) ? file.lastModified() : configTime);
-				zip.putNextEntry(ze);
+				compressionPolicy.putNextEntry(zip, ze, ((specialSource == null) ? file : null));
 				System.out.println("   - got sink");
 				byte[] buffer = new byte[1024];
 				int read;
@@ -438,6 +723,37 @@ public class GoldenGateEcsClient implements GoldenGateEcsConstants {
 		}
 	}
 	
+	private DataCompressionPolicy getServerDataCompressionPolicy() {
+		Connection con = null;
+		try {
+			con = this.authClient.getConnection();
+			BufferedWriter bw = con.getWriter();
+			
+			bw.write(GET_DATA_COMPRESSION_POLICY);
+			bw.newLine();
+			bw.write(this.authClient.getSessionID());
+			bw.newLine();
+			bw.flush();
+			
+			BufferedReader br = con.getReader();
+			String error = br.readLine();
+			if (GET_DATA_COMPRESSION_POLICY.equals(error))
+				return DataCompressionPolicy.parse(br.readLine());
+			
+			//	server predating compression policies, go with local one
+			else return null;
+		}
+		catch (Exception e) {
+			System.out.println("Could not get data compression policy from server: " + e.getMessage());
+			return null;
+		}
+		finally {
+			if (con != null) try {
+				con.close();
+			} catch (Exception e) {}
+		}
+	}
+	
 	/**
 	 * Delete a data item in the GoldenGATE ECS.
 	 * @param dataName the path (prefixed with the configuration's base path) and
@@ -524,6 +840,107 @@ public class GoldenGateEcsClient implements GoldenGateEcsConstants {
 		}
 	}
 	
+	/**
+	 * Retrieve the changes made in the backing ECS after a given sequence
+	 * number, in the order they happened. If the change log of the backing ECS
+	 * does not reach back to the argument sequence number, this method returns
+	 * null, and client code has to start over from full descriptors, using
+	 * getChangeSequenceNumber() to obtain the sequence number to continue
+	 * from. (requires administrative privileges)
+	 * @param sequenceNumber the sequence number of the last change known
+	 * @return an array holding the changes after the argument sequence number
+	 * @throws IOException
+	 */
+	public EcsEvent[] getChanges(long sequenceNumber) throws IOException {
+		return this.parseChangeLines(this.getChangeLines(GET_CHANGES, sequenceNumber, 0));
+	}
+	
+	/**
+	 * Retrieve the changes made in the backing ECS after a given sequence
+	 * number, waiting for some change to happen if there are none yet. The
+	 * backing ECS may cut the wait short, and this method returns an empty
+	 * array if no change happens within the wait. Otherwise, this method
+	 * behaves like getChanges(). (requires administrative privileges)
+	 * @param sequenceNumber the sequence number of the last change known
+	 * @param timeout the maximum time to wait for a change (in milliseconds)
+	 * @return an array holding the changes after the argument sequence number
+	 * @throws IOException
+	 */
+	public EcsEvent[] waitForChanges(long sequenceNumber, long timeout) throws IOException {
+		return this.parseChangeLines(this.getChangeLines(WAIT_FOR_CHANGES, sequenceNumber, timeout));
+	}
+	
+	private EcsEvent[] parseChangeLines(String[] changeLines) throws IOException {
+		if ((changeLines.length == 2) && (changeLines[1] == null))
+			return null; // change log does not reach back far enough
+		EcsEvent[] changes = new EcsEvent[changeLines.length - 1];
+		for (int c = 0; c < changes.length; c++) {
+			changes[c] = EcsEvent.parseChangeLine(changeLines[c + 1], GoldenGateEcsClient.class.getName());
+			if (changes[c] == null)
+				throw new IOException("Invalid change '" + changeLines[c + 1] + "'");
+		}
+		return changes;
+	}
+	
+	/**
+	 * Retrieve the sequence number of the most recent change made in the
+	 * backing ECS. (requires administrative privileges)
+	 * @return the current change sequence number
+	 * @throws IOException
+	 */
+	public long getChangeSequenceNumber() throws IOException {
+		String[] changeLines = this.getChangeLines(GET_CHANGES, Long.MAX_VALUE, 0);
+		try {
+			return Long.parseLong(changeLines[0]);
+		}
+		catch (NumberFormatException nfe) {
+			throw new IOException("Invalid sequence number '" + changeLines[0] + "'");
+		}
+	}
+	
+	private String[] getChangeLines(String command, long sequenceNumber, long timeout) throws IOException {
+		if (!this.authClient.isLoggedIn()) throw new IOException("Not logged in.");
+		
+		Connection con = null;
+		try {
+			con = this.authClient.getConnection();
+			BufferedWriter bw = con.getWriter();
+			
+			bw.write(command);
+			bw.newLine();
+			bw.write(this.authClient.getSessionID());
+			bw.newLine();
+			bw.write("" + sequenceNumber);
+			bw.newLine();
+			if (WAIT_FOR_CHANGES.equals(command)) {
+				bw.write("" + timeout);
+				bw.newLine();
+			}
+			bw.flush();
+			
+			BufferedReader br = con.getReader();
+			String error = br.readLine();
+			if (command.equals(error)) {
+				ArrayList changeLines = new ArrayList();
+				changeLines.add(br.readLine());
+				int changeCount = Integer.parseInt(br.readLine());
+				if (changeCount < 0)
+					changeLines.add(null);
+				for (int c = 0; c < changeCount; c++)
+					changeLines.add(br.readLine());
+				return ((String[]) changeLines.toArray(new String[changeLines.size()]));
+			}
+			else throw new IOException(error);
+		}
+		catch (Exception e) {
+			throw new IOException(e.getMessage());
+		}
+		finally {
+			if (con != null)
+				con.close();
+		}
+	}
+	
 	/**
 	 * Retrieve the descriptor of a specific configuration, ignoring
 	 * permissions, levels, resource, groups, etc. (requires administrative
@@ -631,6 +1048,9 @@ public class GoldenGateEcsClient implements GoldenGateEcsConstants {
 	 * create a new materialized configuration on ECS, using the data items from
 	 * the local GoldenGATE installation. If the specified descriptor point to a
 	 * configuration that already exists, this configuration will be updated.
+	 * Only data items whose content differs from the version on ECS are sent,
+	 * as determined by content hashes; with servers that do not provide the
+	 * hashes, data items modified since the last upload are sent.
 	 * (requires administrative privileges)
 	 * @param basePath the local base path of the configuration to upload
 	 * @param specialData the handler for special data
@@ -645,6 +1065,18 @@ public class GoldenGateEcsClient implements GoldenGateEcsConstants {
 		if (pm == null)
 			pm = ProgressMonitor.dummy;
 		
+		//	try upload comparing content hashes first
+		try {
+			if (this.uploadConfigurationHashed(basePath, specialData, config, pm))
+				return;
+		}
+		catch (Exception e) {
+			System.out.println("Error on export: " + e.getMessage());
+			e.printStackTrace(System.out);
+			throw new IOException(e.getMessage());
+		}
+		
+		//	fall back to comparing timestamps for servers predating hashed upload
 		Connection con = null;
 		try {
 			con = this.authClient.getConnection();
@@ -712,6 +1144,98 @@ public class GoldenGateEcsClient implements GoldenGateEcsConstants {
 		}
 	}
 	
+	private boolean uploadConfigurationHashed(File basePath, SpecialDataHandler specialData, Configuration config, ProgressMonitor pm) throws Exception {
+		Connection con = null;
+		try {
+			con = this.authClient.getConnection();
+			final BufferedWriter bw = con.getWriter();
+			
+			bw.write(UPLOAD_CONFIGURATION_HASHED);
+			bw.newLine();
+			bw.write(this.authClient.getSessionID());
+			bw.newLine();
+			config.writeXml(bw);
+			bw.newLine();
+			bw.flush();
+			
+			//	server predating hashed upload (any actual error will recur in plain upload)
+			BufferedReader br = con.getReader();
+			String error = br.readLine();
+			if (!UPLOAD_CONFIGURATION_HASHED.equals(error))
+				return false;
+			
+			long sConfigAge = Long.parseLong(br.readLine());
+			pm.setStep("GgEcsClient: receiving server file list");
+			HashMap sFileHashes = new HashMap();
+			String sFile;
+			while (((sFile = br.readLine()) != null) && (sFile.length() != 0)) {
+				int split = sFile.lastIndexOf('\t');
+				if (split == -1)
+					continue;
+				sFileHashes.put(sFile.substring(0, split), sFile.substring(split + 1));
+				pm.setInfo(" - " + sFile.substring(0, split));
+			}
+			con.close();
+			con = null;
+			
+			long lConfigTime = (config.configTimestamp - sConfigAge);
+			
+			String[] files = ConfigurationUtils.getDataNameList(basePath, config);
+			Arrays.sort(files);
+			
+			pm.setStep("GgEcsClient: comparing " + files.length + " data items to server");
+			ArrayList dataNames = new ArrayList();
+			for (int f = 0; f < files.length; f++) {
+				File file = new File(basePath, files[f]);
+				InputStream specialSource = ((specialData == null) ? null : specialData.getInputStream(files[f]));
+				String sHash = ((String) sFileHashes.get(files[f]));
+				if (sHash == null) {
+					if (specialSource != null)
+						specialSource.close(); // only for checking here
+					else if (file.length() == 0) {
+						pm.setInfo("GgEcsClient: skipping empty file " + files[f]);
+						pm.setProgress(((f+1) * 100) / files.length);
+						continue;
+					}
+				}
+				else if (sHash.equals(computeHash((specialSource == null) ? new FileInputStream(file) : specialSource))) {
+					pm.setInfo("GgEcsClient: skipping unchanged file " + files[f]);
+					pm.setProgress(((f+1) * 100) / files.length);
+					continue;
+				}
+				dataNames.add(files[f]);
+				pm.setProgress(((f+1) * 100) / files.length);
+			}
+			
+			pm.setStep("GgEcsClient: updating " + dataNames.size() + " of " + files.length + " data items");
+			this.updateDatas(config.name, ((String[]) dataNames.toArray(new String[dataNames.size()])), basePath, specialData, lConfigTime, pm);
+			return true;
+		}
+		finally {
+			if (con != null)
+				con.close();
+		}
+	}
+	
+	private static String computeHash(InputStream in) throws Exception {
+		MessageDigest digester = MessageDigest.getInstance(DATA_HASH_ALGORITHM);
+		try {
+			byte[] buffer = new byte[65536];
+			for (int read; (read = in.read(buffer)) != -1;)
+				digester.update(buffer, 0, read);
+		}
+		finally {
+			in.close();
+		}
+		byte[] hashBytes = digester.digest();
+		StringBuffer hash = new StringBuffer();
+		for (int b = 0; b < hashBytes.length; b++) {
+			hash.append(Character.forDigit(((hashBytes[b] >>> 4) & 0x0F), 16));
+			hash.append(Character.forDigit((hashBytes[b] & 0x0F), 16));
+		}
+		return hash.toString();
+	}
+	
 	/**
 	 * Delete a configuration. If the configuration with the specified name is
 	 * materialized, it cannot be deleted. (requires administrative privileges)
@@ -839,6 +1363,133 @@ public class GoldenGateEcsClient implements GoldenGateEcsConstants {
 		}
 	}
 	
+	/**
+	 * Set the default configuration of an individual user, leaving all other
+	 * users unchanged. Setting the configuration name to null makes the user
+	 * use the ECS's default configuration. (requires administrative
+	 * privileges)
+	 * @param userName the name of the user to set the default configuration
+	 *            for
+	 * @param configName the name of the default configuration
+	 * @throws IOException
+	 */
+	public void setUserDefaultConfiguration(String userName, String configName) throws IOException {
+		if (!this.authClient.isLoggedIn()) throw new IOException("Not logged in.");
+		
+		String command = ((configName == null) ? UNSET_USER_CONFIGURATION : SET_USER_CONFIGURATION);
+		Connection con = null;
+		try {
+			con = this.authClient.getConnection();
+			BufferedWriter bw = con.getWriter();
+			
+			bw.write(command);
+			bw.newLine();
+			bw.write(this.authClient.getSessionID());
+			bw.newLine();
+			bw.write(userName);
+			bw.newLine();
+			if (configName != null) {
+				bw.write(configName);
+				bw.newLine();
+			}
+			bw.flush();
+			
+			BufferedReader br = con.getReader();
+			String error = br.readLine();
+			if (!command.equals(error))
+				throw new IOException(error);
+		}
+		catch (Exception e) {
+			throw new IOException(e.getMessage());
+		}
+		finally {
+			if (con != null)
+				con.close();
+		}
+	}
+	
+	/**
+	 * Retrieve a page of the mapping of user names to default configuration
+	 * names, restricted to user names starting with a given prefix. If only
+	 * users with an explicitly set default configuration are requested, the
+	 * backing ECS does not have to consult the list of all users. Users not
+	 * mapped to any configuration explicitly use the ECS's default
+	 * configuration, which is marked by its name enclosed in angle brackets.
+	 * (requires administrative privileges)
+	 * @param prefix the prefix of the user names to list (null or the empty
+	 *            string lists all users)
+	 * @param offset the number of matching users to skip
+	 * @param limit the maximum number of users to list (-1 for no limit)
+	 * @param allUsers include users without an explicitly set default
+	 *            configuration?
+	 * @return a page of the mapping of user names to default configuration
+	 *         names
+	 * @throws IOException
+	 */
+	public UserDefaultConfigurationsPage listUserDefaultConfigurations(String prefix, int offset, int limit, boolean allUsers) throws IOException {
+		if (!this.authClient.isLoggedIn()) throw new IOException("Not logged in.");
+		
+		Connection con = null;
+		try {
+			con = this.authClient.getConnection();
+			BufferedWriter bw = con.getWriter();
+			
+			bw.write(LIST_USER_CONFIGURATIONS);
+			bw.newLine();
+			bw.write(this.authClient.getSessionID());
+			bw.newLine();
+			bw.write((prefix == null) ? "" : prefix);
+			bw.newLine();
+			bw.write("" + offset);
+			bw.newLine();
+			bw.write("" + limit);
+			bw.newLine();
+			bw.write("" + allUsers);
+			bw.newLine();
+			bw.flush();
+			
+			BufferedReader br = con.getReader();
+			String error = br.readLine();
+			if (LIST_USER_CONFIGURATIONS.equals(error)) {
+				UserDefaultConfigurationsPage userConfigs = new UserDefaultConfigurationsPage(Integer.parseInt(br.readLine()), offset);
+				String userConfig;
+				while ((userConfig = br.readLine()) != null) {
+					String[] userConfigParts = userConfig.split("\\:");
+					if (userConfigParts.length == 2)
+						userConfigs.put(userConfigParts[0], userConfigParts[1]);
+				}
+				return userConfigs;
+			}
+			else throw new IOException(error);
+		}
+		catch (Exception e) {
+			throw new IOException(e.getMessage());
+		}
+		finally {
+			if (con != null)
+				con.close();
+		}
+	}
+	
+	/**
+	 * A page of the mapping of user names to default configuration names,
+	 * which also provides the total number of users matching the listing.
+	 * 
+	 * @author sautter
+	 */
+	public static class UserDefaultConfigurationsPage extends TreeMap {
+		
+		/** the total number of users matching the listing the page belongs to */
+		public final int totalCount;
+		
+		/** the position of the first user in the page within the whole listing */
+		public final int offset;
+		
+		UserDefaultConfigurationsPage(int totalCount, int offset) {
+			this.totalCount = totalCount;
+			this.offset = offset;
+		}
+	}	
 	
 	/**
 	 * Retrieve the list of configurations available online, i.e., through a
@@ -1073,6 +1724,125 @@ public class GoldenGateEcsClient implements GoldenGateEcsConstants {
 		this.modifyGroupsOrPluginsOrResources(SET_GROUP_RESOURCES, groupName, resources);
 	}
 	
+	/**
+	 * Retrieve all groups with their plugins and resources in a single call
+	 * (requires administrative privileges).
+	 * @return a snapshot of all groups
+	 * @throws IOException
+	 */
+	public GroupSnapshot getGroupSnapshot() throws IOException {
+		return this.getGroupSnapshot(-1);
+	}
+	
+	/**
+	 * Retrieve all groups with their plugins and resources in a single call,
+	 * unless the groups have not changed since the snapshot with a given
+	 * version (requires administrative privileges).
+	 * @param knownVersion the version of the last snapshot retrieved (-1 to
+	 *            retrieve a snapshot in any case)
+	 * @return a snapshot of all groups, or null if the groups have not changed
+	 *         since the snapshot with the argument version
+	 * @throws IOException
+	 */
+	public GroupSnapshot getGroupSnapshot(long knownVersion) throws IOException {
+		if (!this.authClient.isLoggedIn()) throw new IOException("Not logged in.");
+		
+		Connection con = null;
+		try {
+			con = this.authClient.getConnection();
+			BufferedWriter bw = con.getWriter();
+			
+			bw.write(GET_GROUP_SNAPSHOT);
+			bw.newLine();
+			bw.write(this.authClient.getSessionID());
+			bw.newLine();
+			bw.write("" + knownVersion);
+			bw.newLine();
+			bw.flush();
+			
+			BufferedReader br = con.getReader();
+			String error = br.readLine();
+			if (GET_GROUP_SNAPSHOT.equals(error)) {
+				long version = Long.parseLong(br.readLine());
+				if ((version >= 0) && (version == knownVersion))
+					return null;
+				GroupSnapshot snapshot = new GroupSnapshot(version);
+				String groupName = null;
+				for (String groupLine; (groupLine = br.readLine()) != null;) {
+					if (groupLine.startsWith("G:")) {
+						groupName = groupLine.substring("G:".length());
+						snapshot.groupPlugins.put(groupName, new TreeSet());
+						snapshot.groupResources.put(groupName, new TreeSet());
+					}
+					else if (groupName == null)
+						continue;
+					else if (groupLine.startsWith("P:"))
+						((TreeSet) snapshot.groupPlugins.get(groupName)).add(groupLine.substring("P:".length()));
+					else if (groupLine.startsWith("R:"))
+						((TreeSet) snapshot.groupResources.get(groupName)).add(groupLine.substring("R:".length()));
+				}
+				return snapshot;
+			}
+			else throw new IOException(error);
+		}
+		catch (Exception e) {
+			throw new IOException(e.getMessage());
+		}
+		finally {
+			if (con != null)
+				con.close();
+		}
+	}
+	
+	/**
+	 * A snapshot of all groups with their plugins and resources, as of some
+	 * version. Client code can hand the version to getGroupSnapshot() to only
+	 * retrieve a new snapshot if the groups have changed since.
+	 * 
+	 * @author sautter
+	 */
+	public static class GroupSnapshot {
+		
+		/** the version of the snapshot */
+		public final long version;
+		
+		private TreeMap groupPlugins = new TreeMap();
+		private TreeMap groupResources = new TreeMap();
+		GroupSnapshot(long version) {
+			this.version = version;
+		}
+		
+		/**
+		 * Retrieve the names of all groups in the snapshot.
+		 * @return an array holding the group names
+		 */
+		public String[] getGroupNames() {
+			return ((String[]) this.groupPlugins.keySet().toArray(new String[this.groupPlugins.size()]));
+		}
+		
+		/**
+		 * Retrieve the plugins explicitly granted to a group.
+		 * @param groupName the group to retrieve the plugins for
+		 * @return an array holding the plugins of the group, or null if
+		 *         there is no group with the argument name
+		 */
+		public String[] getGroupPlugins(String groupName) {
+			TreeSet plugins = ((TreeSet) this.groupPlugins.get(groupName));
+			return ((plugins == null) ? null : ((String[]) plugins.toArray(new String[plugins.size()])));
+		}
+		
+		/**
+		 * Retrieve the resources explicitly granted to a group.
+		 * @param groupName the group to retrieve the resources for
+		 * @return an array holding the resources of the group, or null if
+		 *         there is no group with the argument name
+		 */
+		public String[] getGroupResources(String groupName) {
+			TreeSet resources = ((TreeSet) this.groupResources.get(groupName));
+			return ((resources == null) ? null : ((String[]) resources.toArray(new String[resources.size()])));
+		}
+	}
+	
 	private String[] getGroupsOrPluginsOrResources(String command, String levelOrGroupName, boolean allowNullName) throws IOException {
 		if (!this.authClient.isLoggedIn()) throw new IOException("Not logged in.");
 		
@@ -1144,6 +1914,297 @@ public class GoldenGateEcsClient implements GoldenGateEcsConstants {
 				con.close();
 		}
 	}
+	
+	/**
+	 * Create a batch for executing multiple commands over a single connection
+	 * to the backing ECS, saving the round trips of individual calls.
+	 * @return a new batch
+	 */
+	public Batch createBatch() {
+		return new Batch();
+	}
+	
+	/**
+	 * A batch of commands to execute over a single connection to the backing
+	 * ECS. Client code adds commands through the methods named after the
+	 * corresponding methods of the surrounding client, and receives a result
+	 * object for each command. Once all commands are added, execute() sends
+	 * them to the backing ECS, and the results become available. If the
+	 * backing ECS does not support batches, execute() falls back to running
+	 * the commands one by one. Batches are not thread safe.
+	 * 
+	 * @author sautter
+	 */
+	public class Batch {
+		private ArrayList results = new ArrayList();
+		private boolean executed = false;
+		Batch() {}
+		
+		/**
+		 * Add a retrieval of all available groups to the batch.
+		 * @return the result of the command
+		 * @see de.uka.ipd.idaho.goldenGateServer.ecs.client.GoldenGateEcsClient#getGroups()
+		 */
+		public BatchResult getGroups() {
+			return this.addCommand(GET_GROUPS, new String[0]);
+		}
+		
+		/**
+		 * Add a retrieval of all available plugins to the batch.
+		 * @return the result of the command
+		 * @see de.uka.ipd.idaho.goldenGateServer.ecs.client.GoldenGateEcsClient#getPlugins()
+		 */
+		public BatchResult getPlugins() {
+			return this.addCommand(GET_PLUGINS, new String[0]);
+		}
+		
+		/**
+		 * Add a retrieval of all available resources to the batch.
+		 * @return the result of the command
+		 * @see de.uka.ipd.idaho.goldenGateServer.ecs.client.GoldenGateEcsClient#getResources()
+		 */
+		public BatchResult getResources() {
+			return this.addCommand(GET_RESOURCES, new String[0]);
+		}
+		
+		/**
+		 * Add a retrieval of the plugins of a group to the batch.
+		 * @param groupName the group to retrieve the plugins for
+		 * @return the result of the command
+		 * @see de.uka.ipd.idaho.goldenGateServer.ecs.client.GoldenGateEcsClient#getGroupPlugins(String)
+		 */
+		public BatchResult getGroupPlugins(String groupName) {
+			String[] arguments = {groupName};
+			return this.addCommand(GET_GROUP_PLUGINS, arguments);
+		}
+		
+		/**
+		 * Add an update of the plugins of a group to the batch.
+		 * @param groupName the group to set the plugins for
+		 * @param plugins the plugins the specified group shall have from now
+		 *            on
+		 * @return the result of the command
+		 * @see de.uka.ipd.idaho.goldenGateServer.ecs.client.GoldenGateEcsClient#setGroupPlugins(String, String[])
+		 */
+		public BatchResult setGroupPlugins(String groupName, String[] plugins) {
+			return this.addCommand(SET_GROUP_PLUGINS, getModifyArguments(groupName, plugins));
+		}
+		
+		/**
+		 * Add a retrieval of the resources of a group to the batch.
+		 * @param groupName the group to retrieve the resources for
+		 * @return the result of the command
+		 * @see de.uka.ipd.idaho.goldenGateServer.ecs.client.GoldenGateEcsClient#getGroupResources(String)
+		 */
+		public BatchResult getGroupResources(String groupName) {
+			String[] arguments = {groupName};
+			return this.addCommand(GET_GROUP_RESOURCES, arguments);
+		}
+		
+		/**
+		 * Add an update of the resources of a group to the batch.
+		 * @param groupName the group to set the resources for
+		 * @param resources the resources the specified group shall have from
+		 *            now on
+		 * @return the result of the command
+		 * @see de.uka.ipd.idaho.goldenGateServer.ecs.client.GoldenGateEcsClient#setGroupResources(String, String[])
+		 */
+		public BatchResult setGroupResources(String groupName, String[] resources) {
+			return this.addCommand(SET_GROUP_RESOURCES, getModifyArguments(groupName, resources));
+		}
+		
+		/**
+		 * Add the creation of a group to the batch.
+		 * @param groupName the name for the new group
+		 * @return the result of the command
+		 * @see de.uka.ipd.idaho.goldenGateServer.ecs.client.GoldenGateEcsClient#createGroup(String)
+		 */
+		public BatchResult createGroup(String groupName) {
+			String[] arguments = {groupName};
+			return this.addCommand(CREATE_GROUP, arguments);
+		}
+		
+		/**
+		 * Add the deletion of a group to the batch.
+		 * @param groupName the name of the group to delete
+		 * @return the result of the command
+		 * @see de.uka.ipd.idaho.goldenGateServer.ecs.client.GoldenGateEcsClient#deleteGroup(String)
+		 */
+		public BatchResult deleteGroup(String groupName) {
+			String[] arguments = {groupName};
+			return this.addCommand(DELETE_GROUP, arguments);
+		}
+		
+		/**
+		 * Add a retrieval of the configurations available online to the batch.
+		 * @return the result of the command
+		 * @see de.uka.ipd.idaho.goldenGateServer.ecs.client.GoldenGateEcsClient#getOnlineConfigurations()
+		 */
+		public BatchResult getOnlineConfigurations() {
+			return this.addCommand(GET_ONLINE_CONFIGURATIONS, new String[0]);
+		}
+		
+		/**
+		 * Add an arbitrary command to the batch. The arguments are the input
+		 * lines the command expects after the session ID. Commands that are not
+		 * line based, or that keep the connection open for long, are not
+		 * available in batches, and their results indicate an error.
+		 * @param command the command to add
+		 * @param arguments the input lines for the command
+		 * @return the result of the command
+		 */
+		public BatchResult addCommand(String command, String[] arguments) {
+			if (this.executed)
+				throw new IllegalStateException("Batch executed before.");
+			BatchResult result = new BatchResult(command, arguments);
+			this.results.add(result);
+			return result;
+		}
+		
+		/**
+		 * Execute the batch, making the results of the individual commands
+		 * available. Failures of individual commands do not cause this method
+		 * to throw an exception, but are reported by their results.
+		 * @throws IOException
+		 */
+		public void execute() throws IOException {
+			if (this.executed)
+				throw new IllegalStateException("Batch executed before.");
+			if (!authClient.isLoggedIn()) throw new IOException("Not logged in.");
+			this.executed = true;
+			if (this.results.isEmpty())
+				return;
+			
+			//	send all commands at once, then read responses in same order
+			Connection con = null;
+			try {
+				con = authClient.getConnection();
+				BufferedWriter bw = con.getWriter();
+				
+				bw.write(BATCH);
+				bw.newLine();
+				bw.write(authClient.getSessionID());
+				bw.newLine();
+				for (int r = 0; r < this.results.size(); r++) {
+					BatchResult result = ((BatchResult) this.results.get(r));
+					bw.write(result.command);
+					bw.newLine();
+					bw.write("" + result.arguments.length);
+					bw.newLine();
+					for (int a = 0; a < result.arguments.length; a++) {
+						bw.write(result.arguments[a]);
+						bw.newLine();
+					}
+				}
+				bw.newLine();
+				bw.flush();
+				
+				BufferedReader br = con.getReader();
+				String error = br.readLine();
+				if (BATCH.equals(error)) {
+					for (int r = 0; r < this.results.size(); r++) {
+						int responseLineCount = Integer.parseInt(br.readLine());
+						String[] responseLines = new String[responseLineCount];
+						for (int l = 0; l < responseLineCount; l++)
+							responseLines[l] = br.readLine();
+						((BatchResult) this.results.get(r)).responseLines = responseLines;
+					}
+					return;
+				}
+			}
+			catch (NumberFormatException nfe) {
+				throw new IOException("Invalid batch response: " + nfe.getMessage());
+			}
+			finally {
+				if (con != null)
+					con.close();
+			}
+			
+			//	backing ECS predating batches, execute commands one by one
+			for (int r = 0; r < this.results.size(); r++)
+				this.executeSingle((BatchResult) this.results.get(r));
+		}
+		
+		private void executeSingle(BatchResult result) throws IOException {
+			Connection con = null;
+			try {
+				con = authClient.getConnection();
+				BufferedWriter bw = con.getWriter();
+				
+				bw.write(result.command);
+				bw.newLine();
+				bw.write(authClient.getSessionID());
+				bw.newLine();
+				for (int a = 0; a < result.arguments.length; a++) {
+					bw.write(result.arguments[a]);
+					bw.newLine();
+				}
+				bw.flush();
+				
+				BufferedReader br = con.getReader();
+				ArrayList responseLines = new ArrayList();
+				for (String responseLine; (responseLine = br.readLine()) != null;)
+					responseLines.add(responseLine);
+				result.responseLines = ((String[]) responseLines.toArray(new String[responseLines.size()]));
+			}
+			finally {
+				if (con != null)
+					con.close();
+			}
+		}
+	}
+	
+	private static String[] getModifyArguments(String groupName, String[] groupsOrPluginsOrResources) {
+		String[] arguments = new String[((groupsOrPluginsOrResources == null) ? 0 : groupsOrPluginsOrResources.length) + 2];
+		arguments[0] = groupName;
+		for (int a = 1; a < (arguments.length - 1); a++)
+			arguments[a] = groupsOrPluginsOrResources[a - 1];
+		arguments[arguments.length - 1] = "";
+		return arguments;
+	}
+	
+	/**
+	 * The result of an individual command executed as part of a batch.
+	 * 
+	 * @author sautter
+	 */
+	public static class BatchResult {
+		final String command;
+		final String[] arguments;
+		String[] responseLines = null;
+		BatchResult(String command, String[] arguments) {
+			this.command = command;
+			this.arguments = arguments;
+		}
+		
+		/**
+		 * Check whether or not the command was successful, throwing an
+		 * exception with the error message the backing ECS sent if it was not.
+		 * @throws IOException
+		 */
+		public void check() throws IOException {
+			if (this.responseLines == null)
+				throw new IOException("Batch not executed.");
+			if (this.responseLines.length == 0)
+				throw new IOException("No response for command " + this.command);
+			if (!this.command.equals(this.responseLines[0]))
+				throw new IOException(this.responseLines[0]);
+		}
+		
+		/**
+		 * Retrieve the list of strings a retrieval command produced, e.g. the
+		 * plugins of a group.
+		 * @return an array holding the list of strings
+		 * @throws IOException
+		 */
+		public String[] getList() throws IOException {
+			this.check();
+			StringVector list = new StringVector();
+			for (int l = 1; l < this.responseLines.length; l++)
+				list.addElementIgnoreDuplicates(this.responseLines[l]);
+			return list.toStringArray();
+		}
+	}
 //	
 //	public static void main(String[] args) throws Exception {
 //		AuthenticatedClient ac = AuthenticatedClient.getAuthenticatedClient(ServerConnection.getServerConnection("http://tb.plazi.org/GgServer/proxy"));